@@ -0,0 +1,439 @@
+package com.lcw.datastructure;
+
+import java.util.*;
+
+/**
+ * 按插入顺序遍历的紧凑k-v容器, 结构与CPython 3.6之后的dict相同:
+ * <p>
+ * 元素按插入顺序追加到稠密的hashes/keys/vals数组中, 删除时只把key标记为DELETED, 不移动其他元素;
+ * 另有一个长度为容量的稀疏索引, 用开放寻址保存元素下标, EMPTY表示空位, DUMMY表示被删除的位置(查找时需要继续探测)
+ * <p>
+ * 索引中只保存下标, 容量不超过128时用byte[], 不超过32768时用short[], 否则用int[],
+ * 元素数组只有容量的2/3, 所以每个元素占用 12字节 + 索引1.5个槽位, 比MyHashMap的Node小得多
+ * <p>
+ * 遍历是对元素数组的顺序扫描, 不需要经过空槽位
+ */
+public class CompactDict<K, V> implements Map<K, V> {
+
+    static final int MINIMUM_CAPACITY = 8;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // 探测序列每次引入的hash高位数
+    static final int PERTURB_SHIFT = 5;
+
+    // 索引空位
+    static final int EMPTY = -1;
+
+    // 索引中被删除的位置
+    static final int DUMMY = -2;
+
+    // 元素数组中被删除元素的key
+    static final Object DELETED = new Object();
+
+    // 稀疏索引, 根据容量只使用其中一个
+    byte[] index8;
+
+    short[] index16;
+
+    int[] index32;
+
+    // 索引容量 - 1
+    int mask;
+
+    int[] hashes;
+
+    Object[] keys;
+
+    Object[] vals;
+
+    // 已使用的元素数组长度, 包括被删除的元素
+    int used;
+
+    int size;
+
+    public CompactDict() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize 预计元素数量, 达到之前不会扩容
+     */
+    public CompactDict(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        // 元素数组为容量的2/3
+        allocate(capacityFor(expectedSize + (expectedSize >> 1) + 1));
+    }
+
+    static int capacityFor(int n) {
+        int cap = MINIMUM_CAPACITY;
+        while (cap < n && cap < MAXIMUM_CAPACITY) {
+            cap <<= 1;
+        }
+        return cap;
+    }
+
+    static int usable(int cap) {
+        return (int) ((long) cap * 2 / 3);
+    }
+
+    private void allocate(int cap) {
+        index8 = null;
+        index16 = null;
+        index32 = null;
+        if (cap <= 1 << 7) {
+            Arrays.fill(index8 = new byte[cap], (byte) EMPTY);
+        } else if (cap <= 1 << 15) {
+            Arrays.fill(index16 = new short[cap], (short) EMPTY);
+        } else {
+            Arrays.fill(index32 = new int[cap], EMPTY);
+        }
+        mask = cap - 1;
+        int n = usable(cap);
+        hashes = new int[n];
+        keys = new Object[n];
+        vals = new Object[n];
+    }
+
+    final int getIndex(int i) {
+        if (index8 != null) {
+            return index8[i];
+        }
+        return index16 != null ? index16[i] : index32[i];
+    }
+
+    final void setIndex(int i, int ix) {
+        if (index8 != null) {
+            index8[i] = (byte) ix;
+        } else if (index16 != null) {
+            index16[i] = (short) ix;
+        } else {
+            index32[i] = ix;
+        }
+    }
+
+    /**
+     * 查找key在索引中的位置
+     *
+     * @return 没有找到返回-1
+     */
+    final int lookup(int hash, Object key) {
+        int m = mask;
+        int i = hash & m;
+        Object k;
+        for (int perturb = hash; ; ) {
+            int ix = getIndex(i);
+            if (ix == EMPTY) {
+                return -1;
+            }
+            if (ix >= 0 && hashes[ix] == hash && ((k = keys[ix]) == key || (key != null && key.equals(k)))) {
+                return i;
+            }
+            perturb >>>= PERTURB_SHIFT;
+            i = (i * 5 + perturb + 1) & m;
+        }
+    }
+
+    /**
+     * 探测序列上的第一个空位, DUMMY位置不复用, 扩容时统一清理
+     */
+    private int findEmptySlot(int hash) {
+        int m = mask;
+        int i = hash & m;
+        for (int perturb = hash; getIndex(i) != EMPTY; ) {
+            perturb >>>= PERTURB_SHIFT;
+            i = (i * 5 + perturb + 1) & m;
+        }
+        return i;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return lookup(MyHashMap.hash(key), key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < used; i++) {
+            if (keys[i] != DELETED && Objects.equals(value, vals[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = lookup(MyHashMap.hash(key), key);
+        return i < 0 ? null : (V) vals[getIndex(i)];
+    }
+
+    /**
+     * 替换已有key的value不改变它的顺序
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int hash = MyHashMap.hash(key);
+        int i = lookup(hash, key);
+        if (i >= 0) {
+            int ix = getIndex(i);
+            V oldValue = (V) vals[ix];
+            vals[ix] = value;
+            return oldValue;
+        }
+        if (used == keys.length) {
+            resize();
+        }
+        int ix = used++;
+        hashes[ix] = hash;
+        keys[ix] = key;
+        vals[ix] = value;
+        setIndex(findEmptySlot(hash), ix);
+        size++;
+        return null;
+    }
+
+    /**
+     * 元素数组用完时按元素数量的3倍重新分配索引, 压缩掉被删除的元素, 并清理所有DUMMY
+     */
+    private void resize() {
+        int newCap = capacityFor(size * 3);
+        if (newCap == MAXIMUM_CAPACITY && usable(newCap) <= size) {
+            throw new IllegalStateException("Capacity exceeded");
+        }
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys, oldVals = vals;
+        int oldUsed = used;
+        allocate(newCap);
+        int n = 0;
+        for (int i = 0; i < oldUsed; i++) {
+            if (oldKeys[i] != DELETED) {
+                hashes[n] = oldHashes[i];
+                keys[n] = oldKeys[i];
+                vals[n] = oldVals[i];
+                setIndex(findEmptySlot(oldHashes[i]), n);
+                n++;
+            }
+        }
+        used = n;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = lookup(MyHashMap.hash(key), key);
+        if (i < 0) {
+            return null;
+        }
+        int ix = getIndex(i);
+        V oldValue = (V) vals[ix];
+        removeAt(i, ix);
+        return oldValue;
+    }
+
+    /**
+     * @param i  索引位置
+     * @param ix 元素下标
+     */
+    private void removeAt(int i, int ix) {
+        setIndex(i, DUMMY);
+        keys[ix] = DELETED;
+        vals[ix] = null; // help gc
+        size--;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (used > 0) {
+            allocate(MINIMUM_CAPACITY);
+            used = 0;
+            size = 0;
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<K> iterator() {
+                return new DenseIterator<K>() {
+                    @Override
+                    K element(int i) {
+                        return (K) keys[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<V> iterator() {
+                return new DenseIterator<V>() {
+                    @Override
+                    V element(int i) {
+                        return (V) vals[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<Entry<K, V>> iterator() {
+                return new DenseIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(int i) {
+                        return new WriteThroughEntry<>(CompactDict.this, (K) keys[i], (V) vals[i]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * 按插入顺序扫描元素数组, 跳过被删除的元素
+     * 遍历期间put新key可能触发扩容压缩元素数组, 所以保存开始时的数组, 检测到变化时抛出异常
+     */
+    abstract class DenseIterator<E> implements Iterator<E> {
+        final Object[] ks = keys;
+
+        int next = -1;
+
+        int last = -1;
+
+        DenseIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                next++;
+            } while (next < used && ks[next] == DELETED);
+        }
+
+        abstract E element(int i);
+
+        @Override
+        public boolean hasNext() {
+            return next < used;
+        }
+
+        @Override
+        public E next() {
+            if (ks != keys) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E e = element(last = next);
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (ks != keys) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(lookup(hashes[last], keys[last]), last);
+            last = -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        final CompactDict<Integer, Integer> map = new CompactDict<>();
+        final LinkedHashMap<Integer, Integer> expected = new LinkedHashMap<>();
+        final Random r = new Random();
+        for (int i = 0; i < 1000000; i++) {
+            int k = r.nextInt(100000);
+            if (r.nextInt(3) == 0) {
+                if (!Objects.equals(map.remove(k), expected.remove(k))) throw new VerifyError("remove");
+            } else {
+                if (!Objects.equals(map.put(k, i), expected.put(k, i))) throw new VerifyError("put");
+            }
+        }
+        if (map.size() != expected.size()) throw new VerifyError("size");
+        // LinkedHashMap同样按首次插入的顺序遍历
+        if (!new ArrayList<>(expected.entrySet()).equals(new ArrayList<>(map.entrySet()))) throw new VerifyError("order");
+        map.keySet().removeIf(k -> k % 2 == 0);
+        expected.keySet().removeIf(k -> k % 2 == 0);
+        if (!new ArrayList<>(expected.keySet()).equals(new ArrayList<>(map.keySet()))) throw new VerifyError("iterator remove");
+
+        // 刚扩容后的MyHashMap只有一半左右的槽位有元素, 遍历需要经过所有空槽位
+        final MyHashMap<Integer, Integer> hashMap = new MyHashMap<>();
+        final CompactDict<Integer, Integer> dict = new CompactDict<>();
+        for (int i = 0; i < (1 << 19) + 1; i++) {
+            hashMap.put(i * 31, i);
+            dict.put(i * 31, i);
+        }
+        for (int round = 0; round < 5; round++) {
+            long sum = 0, start = System.nanoTime();
+            for (int j = 0; j < 20; j++) {
+                for (Integer v : hashMap.values()) sum += v;
+            }
+            long t1 = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int j = 0; j < 20; j++) {
+                for (Integer v : dict.values()) sum -= v;
+            }
+            long t2 = System.nanoTime() - start;
+            if (sum != 0) throw new VerifyError("sum");
+            System.out.printf("iterate %d entries x20: MyHashMap %dms, CompactDict %dms%n", dict.size(), t1 / 1000000, t2 / 1000000);
+        }
+        System.out.println("success! size: " + map.size());
+    }
+}
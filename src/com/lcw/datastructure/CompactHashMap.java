@@ -0,0 +1,381 @@
+package com.lcw.datastructure;
+
+import java.util.*;
+
+/**
+ * 不创建Node对象的拉链法k-v容器, 结构与MyHashMap一致, 但每个元素拆分到几个并行数组中:
+ * <p>
+ * hashes[i], keys[i], vals[i]是第i个元素, next[i]是同一槽位链表中下一个元素的下标(-1表示链表结束),
+ * buckets[j]是槽位j链表头元素的下标
+ * <p>
+ * 删除的元素下标通过空闲链表回收, 空闲元素的next保存 -3 - 下一个空闲下标(END对应-2), 所以next[i] >= -1 表示元素在使用中
+ * <p>
+ * 开启压缩指针时, MyHashMap每个元素除了key和value引用外还有Node对象头、hash和next, 共24字节,
+ * 这里只有hash和next两个int, 共8字节(不含槽位数组)
+ */
+public class CompactHashMap<K, V> implements Map<K, V> {
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final float DEFAULT_LOADER_FACTOR = 0.75f;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // 链表结束
+    static final int END = -1;
+
+    // 槽位头元素下标, END表示空槽位
+    int[] buckets;
+
+    int[] hashes;
+
+    Object[] keys;
+
+    Object[] vals;
+
+    int[] next;
+
+    int size;
+
+    // 从未使用过的第一个元素下标
+    int top;
+
+    // 空闲链表头, END表示没有空闲元素
+    int free = END;
+
+    // 扩容大小阈值, 也是元素数组的长度
+    int threshold;
+
+    // 负载因子
+    final float loadFactor;
+
+    public CompactHashMap() {
+        this(DEFAULT_LOADER_FACTOR);
+    }
+
+    public CompactHashMap(float loadFactor) {
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(MyHashMap.hash(key), key) != END;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < top; i++) {
+            if (next[i] >= END && Objects.equals(value, vals[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(MyHashMap.hash(key), key);
+        return i == END ? null : (V) vals[i];
+    }
+
+    /**
+     * 根据hash与key查找元素下标
+     *
+     * @return 没有找到返回END
+     */
+    final int indexOf(int hash, Object key) {
+        int[] bs;
+        if ((bs = buckets) == null) {
+            return END;
+        }
+        Object k;
+        for (int i = bs[(bs.length - 1) & hash]; i != END; i = next[i]) {
+            if (hashes[i] == hash && ((k = keys[i]) == key || (key != null && key.equals(k)))) {
+                return i;
+            }
+        }
+        return END;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int hash = MyHashMap.hash(key);
+        int i = indexOf(hash, key);
+        if (i != END) {
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+        if (size >= threshold) {
+            resize();
+        }
+        // 优先复用空闲元素
+        if (free != END) {
+            i = free;
+            free = -3 - next[i];
+        } else {
+            i = top++;
+        }
+        int b = (buckets.length - 1) & hash;
+        hashes[i] = hash;
+        keys[i] = key;
+        vals[i] = value;
+        next[i] = buckets[b];
+        buckets[b] = i;
+        size++;
+        return null;
+    }
+
+    /**
+     * 槽位数组容量翻倍, 元素数组扩展到新的阈值, 元素下标不变, 只需要重建槽位链表
+     */
+    private void resize() {
+        int oldCap = buckets == null ? 0 : buckets.length;
+        int newCap;
+        if (oldCap == 0) {
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        } else if (oldCap >= MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Capacity exceeded");
+        } else {
+            newCap = oldCap << 1;
+        }
+        float ft = newCap * loadFactor;
+        int newThr = newCap < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY ? Math.max((int) ft, 1) : MAXIMUM_CAPACITY;
+        hashes = Arrays.copyOf(hashes == null ? new int[0] : hashes, newThr);
+        keys = Arrays.copyOf(keys == null ? new Object[0] : keys, newThr);
+        vals = Arrays.copyOf(vals == null ? new Object[0] : vals, newThr);
+        next = Arrays.copyOf(next == null ? new int[0] : next, newThr);
+        threshold = newThr;
+
+        int[] bs = new int[newCap];
+        Arrays.fill(bs, END);
+        // 倒序头插, 重建后同一槽位的链表按下标升序排列
+        for (int i = top - 1; i >= 0; i--) {
+            if (next[i] >= END) {
+                int b = (newCap - 1) & hashes[i];
+                next[i] = bs[b];
+                bs[b] = i;
+            }
+        }
+        buckets = bs;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int hash = MyHashMap.hash(key);
+        int[] bs;
+        if ((bs = buckets) == null) {
+            return null;
+        }
+        int b = (bs.length - 1) & hash;
+        Object k;
+        for (int i = bs[b], prev = END; i != END; prev = i, i = next[i]) {
+            if (hashes[i] == hash && ((k = keys[i]) == key || (key != null && key.equals(k)))) {
+                V oldValue = (V) vals[i];
+                unlink(b, prev, i);
+                return oldValue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把元素i从槽位b的链表中摘下, 放入空闲链表
+     *
+     * @param prev 链表中i的前一个元素, i是头元素时为END
+     */
+    private void unlink(int b, int prev, int i) {
+        if (prev == END) {
+            buckets[b] = next[i];
+        } else {
+            next[prev] = next[i];
+        }
+        keys[i] = null; // help gc
+        vals[i] = null;
+        next[i] = -3 - free;
+        free = i;
+        size--;
+    }
+
+    /**
+     * 删除下标为i的元素, 需要先在链表中找到它的前一个元素
+     */
+    private void removeAt(int i) {
+        int b = (buckets.length - 1) & hashes[i];
+        int prev = END;
+        for (int p = buckets[b]; p != i; p = next[p]) {
+            prev = p;
+        }
+        unlink(b, prev, i);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (buckets != null && top > 0) {
+            Arrays.fill(buckets, END);
+            Arrays.fill(keys, 0, top, null);
+            Arrays.fill(vals, 0, top, null);
+            size = 0;
+            top = 0;
+            free = END;
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<K> iterator() {
+                return new IndexIterator<K>() {
+                    @Override
+                    K element(int i) {
+                        return (K) keys[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<V> iterator() {
+                return new IndexIterator<V>() {
+                    @Override
+                    V element(int i) {
+                        return (V) vals[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<Entry<K, V>> iterator() {
+                return new IndexIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(int i) {
+                        return new WriteThroughEntry<>(CompactHashMap.this, (K) keys[i], (V) vals[i]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * 按下标顺序遍历使用中的元素, 通过迭代器删除不会移动其他元素
+     */
+    abstract class IndexIterator<E> implements Iterator<E> {
+        int next = -1;
+
+        int last = -1;
+
+        IndexIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                next++;
+            } while (next < top && CompactHashMap.this.next[next] < END);
+        }
+
+        abstract E element(int i);
+
+        @Override
+        public boolean hasNext() {
+            return next < top;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E e = element(last = next);
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            last = -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        final CompactHashMap<Integer, Integer> map = new CompactHashMap<>();
+        final HashMap<Integer, Integer> expected = new HashMap<>();
+        final Random r = new Random();
+        for (int i = 0; i < 1000000; i++) {
+            int k = r.nextInt(100000);
+            if (r.nextInt(3) == 0) {
+                if (!Objects.equals(map.remove(k), expected.remove(k))) throw new VerifyError("remove");
+            } else {
+                if (!Objects.equals(map.put(k, i), expected.put(k, i))) throw new VerifyError("put");
+            }
+        }
+        expected.forEach((k, v) -> {
+            if (!v.equals(map.get(k))) throw new VerifyError("get");
+        });
+        if (map.size() != expected.size()) throw new VerifyError("size");
+        map.keySet().removeIf(k -> k % 2 == 0);
+        expected.keySet().removeIf(k -> k % 2 == 0);
+        if (!expected.equals(new HashMap<>(map))) throw new VerifyError("iterator remove");
+        System.out.println("success! size: " + map.size());
+    }
+}
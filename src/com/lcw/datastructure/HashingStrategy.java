@@ -0,0 +1,108 @@
+package com.lcw.datastructure;
+
+import java.util.Arrays;
+
+/**
+ * 自定义key的hashCode与equals, 传给MyHashMap后代替key自身的hashCode/equals,
+ * 数组等没有按内容实现equals的key不需要再包装一层对象
+ * <p>
+ * 两个方法的参数都不会是null, null key仍由MyHashMap单独处理
+ */
+public interface HashingStrategy<K> {
+
+    int hashCode(K key);
+
+    boolean equals(K a, K b);
+
+    /**
+     * 按引用比较, 与IdentityHashMap相同
+     */
+    @SuppressWarnings("unchecked")
+    static <K> HashingStrategy<K> identity() {
+        return (HashingStrategy<K>) Strategies.IDENTITY;
+    }
+
+    static HashingStrategy<byte[]> byteArray() {
+        return Strategies.BYTE_ARRAY;
+    }
+
+    static HashingStrategy<int[]> intArray() {
+        return Strategies.INT_ARRAY;
+    }
+
+    static HashingStrategy<long[]> longArray() {
+        return Strategies.LONG_ARRAY;
+    }
+
+    /**
+     * 按内容递归比较的对象数组
+     */
+    static HashingStrategy<Object[]> deepArray() {
+        return Strategies.DEEP_ARRAY;
+    }
+
+    final class Strategies {
+        private Strategies() {
+        }
+
+        static final HashingStrategy<Object> IDENTITY = new HashingStrategy<Object>() {
+            @Override
+            public int hashCode(Object key) {
+                return System.identityHashCode(key);
+            }
+
+            @Override
+            public boolean equals(Object a, Object b) {
+                return a == b;
+            }
+        };
+
+        static final HashingStrategy<byte[]> BYTE_ARRAY = new HashingStrategy<byte[]>() {
+            @Override
+            public int hashCode(byte[] key) {
+                return Arrays.hashCode(key);
+            }
+
+            @Override
+            public boolean equals(byte[] a, byte[] b) {
+                return Arrays.equals(a, b);
+            }
+        };
+
+        static final HashingStrategy<int[]> INT_ARRAY = new HashingStrategy<int[]>() {
+            @Override
+            public int hashCode(int[] key) {
+                return Arrays.hashCode(key);
+            }
+
+            @Override
+            public boolean equals(int[] a, int[] b) {
+                return Arrays.equals(a, b);
+            }
+        };
+
+        static final HashingStrategy<long[]> LONG_ARRAY = new HashingStrategy<long[]>() {
+            @Override
+            public int hashCode(long[] key) {
+                return Arrays.hashCode(key);
+            }
+
+            @Override
+            public boolean equals(long[] a, long[] b) {
+                return Arrays.equals(a, b);
+            }
+        };
+
+        static final HashingStrategy<Object[]> DEEP_ARRAY = new HashingStrategy<Object[]>() {
+            @Override
+            public int hashCode(Object[] key) {
+                return Arrays.deepHashCode(key);
+            }
+
+            @Override
+            public boolean equals(Object[] a, Object[] b) {
+                return Arrays.deepEquals(a, b);
+            }
+        };
+    }
+}
@@ -0,0 +1,253 @@
+package com.lcw.datastructure;
+
+import java.util.Objects;
+
+/**
+ * LRU缓存
+ * <p>
+ * MyHashMap负责按key定位, value是侵入式双向链表的节点, 链表按访问顺序排列:
+ * 头部是最久未访问的元素, 尾部是最近访问的元素, 淘汰时从头部删除
+ * 命中时只需要把节点移到尾部, 不会创建任何对象
+ * <p>
+ * 容量可以按元素个数限制, 也可以通过Weigher按权重限制
+ */
+public class LruCache<K, V> {
+
+    /**
+     * 计算元素权重, 返回值不能为负数
+     */
+    @FunctionalInterface
+    public interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    private final MyHashMap<K, Entry<K, V>> map = new MyHashMap<>();
+
+    private final long maxWeight;
+
+    private final Weigher<? super K, ? super V> weigher;
+
+    // 最久未访问
+    private Entry<K, V> first;
+
+    // 最近访问
+    private Entry<K, V> last;
+
+    private long weightedSize;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * 按元素个数限制容量
+     */
+    public LruCache(int maxEntries) {
+        this(maxEntries, (k, v) -> 1);
+    }
+
+    /**
+     * 按权重限制容量
+     */
+    public LruCache(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("Illegal max weight: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = Objects.requireNonNull(weigher);
+    }
+
+    static final class Entry<K, V> {
+        final K key;
+        V value;
+        int weight;
+        Entry<K, V> prev;
+        Entry<K, V> next;
+
+        Entry(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 获取key对应的value, 命中时把元素移到链表尾部
+     *
+     * @return 不存在返回null
+     */
+    public V get(K key) {
+        Entry<K, V> e = map.get(key);
+        if (e == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        moveToLast(e);
+        return e.value;
+    }
+
+    /**
+     * 存入key-value, 超过容量时淘汰最久未访问的元素
+     *
+     * @return 之前的value, 不存在返回null
+     */
+    public V put(K key, V value) {
+        int weight = weigh(key, value);
+        Entry<K, V> e = map.get(key);
+        V oldValue = null;
+        if (e != null) {
+            oldValue = e.value;
+            e.value = value;
+            weightedSize += weight - e.weight;
+            e.weight = weight;
+            moveToLast(e);
+        } else {
+            e = new Entry<>(key, value, weight);
+            map.put(key, e);
+            linkLast(e);
+            weightedSize += weight;
+        }
+        evict();
+        return oldValue;
+    }
+
+    /**
+     * 删除key
+     *
+     * @return 被删除的value, 不存在返回null
+     */
+    public V remove(K key) {
+        Entry<K, V> e = map.remove(key);
+        if (e == null) {
+            return null;
+        }
+        unlink(e);
+        weightedSize -= e.weight;
+        return e.value;
+    }
+
+    private int weigh(K key, V value) {
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight: " + weight);
+        }
+        return weight;
+    }
+
+    /**
+     * 从头部开始淘汰, 直到总权重不超过上限
+     */
+    private void evict() {
+        while (weightedSize > maxWeight && first != null) {
+            Entry<K, V> e = first;
+            map.remove(e.key);
+            unlink(e);
+            weightedSize -= e.weight;
+            evictionCount++;
+        }
+    }
+
+    private void moveToLast(Entry<K, V> e) {
+        if (e != last) {
+            unlink(e);
+            linkLast(e);
+        }
+    }
+
+    private void linkLast(Entry<K, V> e) {
+        Entry<K, V> l = last;
+        e.prev = l;
+        e.next = null;
+        last = e;
+        if (l == null) {
+            first = e;
+        } else {
+            l.next = e;
+        }
+    }
+
+    private void unlink(Entry<K, V> e) {
+        Entry<K, V> prev = e.prev;
+        Entry<K, V> next = e.next;
+        if (prev == null) {
+            first = next;
+        } else {
+            prev.next = next;
+            e.prev = null;
+        }
+        if (next == null) {
+            last = prev;
+        } else {
+            next.prev = prev;
+            e.next = null;
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public void clear() {
+        map.clear();
+        first = last = null;
+        weightedSize = 0;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    public double hitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 1.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Entry<K, V> e = first; e != null; e = e.next) {
+            sb.append(e.key).append('=').append(e.value);
+            if (e.next != null) {
+                sb.append(", ");
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    public static void main(String[] args) {
+        final LruCache<Integer, String> cache = new LruCache<>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        cache.get(1);
+        cache.put(4, "d");
+        System.out.println(cache); // [3=c, 1=a, 4=d]
+        System.out.println("hit: " + cache.hitCount() + ", miss: " + cache.missCount()
+                + ", eviction: " + cache.evictionCount());
+
+        final LruCache<String, String> weighted = new LruCache<>(10, (k, v) -> v.length());
+        weighted.put("x", "12345");
+        weighted.put("y", "1234");
+        weighted.put("z", "123");
+        System.out.println(weighted + " weight: " + weighted.weightedSize()); // [y=1234, z=123] weight: 7
+    }
+}
@@ -1,6 +1,11 @@
 package com.lcw.datastructure;
 
+import com.lcw.datastructure.hash.HashTableStats;
+
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class MyHashMap<K, V> implements Map<K, V> {
 
@@ -10,6 +15,15 @@ public class MyHashMap<K, V> implements Map<K, V> {
 
     static final int MAXIMUM_CAPACITY = 1 << 30;
 
+    // 链表长度达到该值时转换为红黑树
+    static final int TREEIFY_THRESHOLD = 8;
+
+    // 红黑树节点数量小于等于该值时退化为链表
+    static final int UNTREEIFY_THRESHOLD = 6;
+
+    // 只有表容量达到该值才会树化, 否则优先扩容
+    static final int MIN_TREEIFY_CAPACITY = 64;
+
     int size;
 
     // 扩容大小阈值
@@ -20,12 +34,37 @@ public class MyHashMap<K, V> implements Map<K, V> {
 
     Node<K, V>[] table;
 
+    // 运行统计, 调用enableStats()之后才不为null
+    HashTableStats stats;
+
+    // 视图在第一次使用时创建, 之后复用
+    Set<K> keySet;
+
+    Collection<V> values;
+
+    Set<Entry<K, V>> entrySet;
+
+    // 自定义key的hashCode与equals, 为null时使用key自身的
+    final HashingStrategy<? super K> strategy;
+
     public MyHashMap() {
-        this.loadFactor = DEFAULT_LOADER_FACTOR;
+        this(DEFAULT_LOADER_FACTOR);
     }
 
     public MyHashMap(float loadFactor) {
+        this(loadFactor, null);
+    }
+
+    public MyHashMap(HashingStrategy<? super K> strategy) {
+        this(DEFAULT_LOADER_FACTOR, strategy);
+    }
+
+    /**
+     * @param strategy 用于计算hash和比较key, 例如HashingStrategy.byteArray()可以直接用byte[]做key
+     */
+    public MyHashMap(float loadFactor, HashingStrategy<? super K> strategy) {
         this.loadFactor = loadFactor;
+        this.strategy = strategy;
     }
 
     static class Node<K, V> implements Map.Entry<K, V> {
@@ -89,6 +128,28 @@ public class MyHashMap<K, V> implements Map<K, V> {
         return (key == null) ? 0 : (h = key.hashCode()) ^ (h >> 16);
     }
 
+    /**
+     * 与hash(key)相同的扰动, 有HashingStrategy时由它计算hashCode
+     */
+    @SuppressWarnings("unchecked")
+    final int hashOf(Object key) {
+        int h;
+        HashingStrategy<Object> s;
+        if ((s = (HashingStrategy<Object>) strategy) == null) {
+            return hash(key);
+        }
+        return (key == null) ? 0 : (h = s.hashCode(key)) ^ (h >> 16);
+    }
+
+    /**
+     * 比较两个不是同一引用的key, 有HashingStrategy时交给它, 传给它的key不会是null
+     */
+    @SuppressWarnings("unchecked")
+    static boolean keyEquals(HashingStrategy<?> strategy, Object key, Object k) {
+        return key != null && (strategy == null ? key.equals(k) :
+                k != null && ((HashingStrategy<Object>) strategy).equals(key, k));
+    }
+
     @Override
     public int size() {
         return size;
@@ -101,7 +162,7 @@ public class MyHashMap<K, V> implements Map<K, V> {
 
     @Override
     public boolean containsKey(Object key) {
-        return false;
+        return getNode(hashOf(key), key) != null;
     }
 
     @Override
@@ -111,12 +172,60 @@ public class MyHashMap<K, V> implements Map<K, V> {
 
     @Override
     public V get(Object key) {
+        Node<K, V> e;
+        return (e = getNode(hashOf(key), key)) == null ? null : e.value;
+    }
+
+    /**
+     * 根据hash与key查找节点, 槽位是红黑树时走树查找
+     *
+     * @param hash key的hash值
+     * @param key  key
+     * @return 找到的节点, 没有返回null
+     */
+    final Node<K, V> getNode(int hash, Object key) {
+        Node<K, V>[] tab;
+        Node<K, V> e;
+        int n;
+        K k;
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+                (e = tab[(n - 1) & hash]) != null) {
+            if (e instanceof TreeBin) {
+                return ((TreeBin<K, V>) e).find(hash, key);
+            }
+            if (HashTableStats.ENABLED && stats != null) {
+                return findRecorded(e, hash, key, n);
+            }
+            do {
+                if (e.hash == hash &&
+                        ((k = e.key) == key || keyEquals(strategy, key, k))) {
+                    return e;
+                }
+            } while ((e = e.next) != null);
+        }
         return null;
     }
 
+    /**
+     * 与getNode中的链表查找相同, 额外记录走过的节点数
+     */
+    private Node<K, V> findRecorded(Node<K, V> e, int hash, Object key, int n) {
+        int walk = 0;
+        K k;
+        do {
+            walk++;
+            if (e.hash == hash &&
+                    ((k = e.key) == key || keyEquals(strategy, key, k))) {
+                break;
+            }
+        } while ((e = e.next) != null);
+        stats.recordLookup(walk, (n - 1) & hash, n);
+        return e;
+    }
+
     @Override
     public V put(K key, V value) {
-        return putVal(hash(key), key, value, false, true);
+        return putVal(hashOf(key), key, value, false, true);
     }
 
     /**
@@ -145,21 +254,28 @@ public class MyHashMap<K, V> implements Map<K, V> {
             Node<K, V> e;
             K k;
 
-            // 要插入的元素 hash 和 key都相等, 直接替换元素
-            if (p.hash == hash &&
-                    ((k = p.key) == key || (key != null && key.equals(k)))) {
+            // 槽位已经树化, 交给红黑树插入
+            if (p instanceof TreeBin) {
+                e = ((TreeBin<K, V>) p).putTreeVal(hash, key, value);
+            } else if (p.hash == hash &&
+                    ((k = p.key) == key || keyEquals(strategy, key, k))) {
+                // 要插入的元素 hash 和 key都相等, 直接替换元素
                 e = p;
             } else { // 槽位上的元素不等于要插入的元素 拉链
-                while (true) {
+                for (int binCount = 0; ; ++binCount) {
                     // p下面没有
                     if ((e = p.next) == null) { // break 后e为null
                         p.next = new Node<>(hash, key, value, null);
+                        // 加上新节点后链表长度达到树化阈值
+                        if (binCount >= TREEIFY_THRESHOLD - 1) {
+                            treeifyBin(tab, hash);
+                        }
                         break;
                     }
 
                     // 拉链过程中发现元素相等, 直接替换
                     if (e.hash == hash &&
-                            ((k = e.key) == key || (key != null && key.equals(k)))) {
+                            ((k = e.key) == key || keyEquals(strategy, key, k))) {
                         break; // break 后e不为null
                     }
                     p = e;
@@ -180,7 +296,210 @@ public class MyHashMap<K, V> implements Map<K, V> {
         return null;
     }
 
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        Node<K, V> e;
+        return (e = getNode(hashOf(key), key)) == null ? defaultValue : e.value;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(hashOf(key), key, value, true, true);
+    }
+
+    /**
+     * 只遍历一次槽位: locate返回key所在节点或插入位置, 不存在时把计算出的value直接挂到插入位置上
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null) {
+            throw new NullPointerException();
+        }
+        int hash = hashOf(key);
+        Node<K, V> p = locate(hash, key);
+        Node<K, V>[] tab = table;
+        V oldValue;
+        boolean found = matches(p, hash, key);
+        if (found && (oldValue = p.value) != null) {
+            return oldValue;
+        }
+        int s = size;
+        V v = mappingFunction.apply(key);
+        checkUnmodified(tab, s);
+        if (v == null) {
+            return null;
+        }
+        if (found) {
+            p.value = v;
+        } else {
+            insertNode(tab, p, hash, key, v);
+        }
+        return v;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        int hash = hashOf(key);
+        Node<K, V> e;
+        V oldValue;
+        if ((e = getNode(hash, key)) != null && (oldValue = e.value) != null) {
+            V v = remappingFunction.apply(key, oldValue);
+            if (v != null) {
+                e.value = v;
+            } else {
+                removeNode(hash, key);
+            }
+            return v;
+        }
+        return null;
+    }
+
+    /**
+     * 查找与插入在同一次遍历中完成, 只有结果为null需要删除节点时才会再走一遍removeNode
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        int hash = hashOf(key);
+        Node<K, V> p = locate(hash, key);
+        Node<K, V>[] tab = table;
+        boolean found = matches(p, hash, key);
+        int s = size;
+        V v = remappingFunction.apply(key, found ? p.value : null);
+        checkUnmodified(tab, s);
+        if (found) {
+            if (v != null) {
+                p.value = v;
+            } else {
+                removeNode(hash, key);
+            }
+        } else if (v != null) {
+            insertNode(tab, p, hash, key, v);
+        }
+        return v;
+    }
+
+    /**
+     * 计数等场景的map.merge(k, 1, Integer::sum), key已存在时只遍历一次并原地修改value
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        int hash = hashOf(key);
+        Node<K, V> p = locate(hash, key);
+        Node<K, V>[] tab = table;
+        if (!matches(p, hash, key)) {
+            insertNode(tab, p, hash, key, value);
+            return value;
+        }
+        V v;
+        if (p.value == null) {
+            v = value;
+        } else {
+            int s = size;
+            v = remappingFunction.apply(p.value, value);
+            checkUnmodified(tab, s);
+        }
+        if (v != null) {
+            p.value = v;
+        } else {
+            removeNode(hash, key);
+        }
+        return v;
+    }
+
+    /**
+     * computeIfAbsent/compute/merge共用的一次遍历, 表为空时先初始化
+     * <p>
+     * 返回key所在节点; 不存在时返回插入位置: 链表的尾节点, 或红黑树中新节点的父节点, 槽位为空时返回null.
+     * 两种结果用matches区分, 不需要额外的对象
+     * <p>
+     * 链表已经有TREEIFY_THRESHOLD个节点时再插入就要树化(与putVal相同), 所以没找到时提前树化, 返回树中的插入位置
+     */
+    private Node<K, V> locate(int hash, Object key) {
+        Node<K, V>[] tab;
+        Node<K, V> p;
+        int n, binCount = 0;
+        K k;
+        if ((tab = table) == null || (n = tab.length) == 0) {
+            n = (tab = resize()).length;
+        }
+        if ((p = tab[(n - 1) & hash]) == null) {
+            return null;
+        }
+        if (p instanceof TreeBin) {
+            return ((TreeBin<K, V>) p).findOrParent(hash, key);
+        }
+        for (; ; ++binCount) {
+            if (p.hash == hash && ((k = p.key) == key || keyEquals(strategy, key, k))) {
+                return p;
+            }
+            if (p.next == null) {
+                break;
+            }
+            p = p.next;
+        }
+        if (binCount >= TREEIFY_THRESHOLD - 1) {
+            // 表太小时treeifyBin会扩容, 重新定位
+            treeifyBin(tab, hash);
+            return locate(hash, key);
+        }
+        return p;
+    }
+
+    /**
+     * locate的结果是否就是key所在节点
+     */
+    private boolean matches(Node<K, V> p, int hash, Object key) {
+        K k;
+        return p != null && p.hash == hash && ((k = p.key) == key || keyEquals(strategy, key, k));
+    }
+
+    /**
+     * 把已确认不存在的key插入到locate返回的位置: 槽位为空时成为头节点, 链表时挂在尾节点之后, 红黑树时挂在父节点下
+     */
+    private void insertNode(Node<K, V>[] tab, Node<K, V> p, int hash, K key, V value) {
+        int i = (tab.length - 1) & hash;
+        if (p == null) {
+            tab[i] = new Node<>(hash, key, value, null);
+        } else if (p instanceof TreeNode) {
+            ((TreeBin<K, V>) tab[i]).insertAt((TreeNode<K, V>) p, hash, key, value);
+        } else {
+            p.next = new Node<>(hash, key, value, null);
+        }
+        if (++size > threshold) {
+            resize();
+        }
+    }
+
+    /**
+     * 没有modCount, 用表和元素数量判断回调函数中是否修改了map, 修改过之前查找的结果就不可靠了
+     */
+    private void checkUnmodified(Node<K, V>[] tab, int s) {
+        if (table != tab || size != s) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
     private Node<K, V>[] resize() {
+        if (HashTableStats.ENABLED && stats != null) {
+            int oldCap = table == null ? 0 : table.length;
+            long start = stats.beginResize(size, oldCap);
+            Node<K, V>[] newTab = doResize();
+            stats.endResize(start, oldCap, newTab.length, size);
+            return newTab;
+        }
+        return doResize();
+    }
+
+    private Node<K, V>[] doResize() {
         Node<K, V>[] oldTab = table;
         // 扩容前容量
         int oldCap = oldTab == null ? 0 : oldTab.length;
@@ -220,7 +539,9 @@ public class MyHashMap<K, V> implements Map<K, V> {
                 if ((e = oldTab[i]) != null) { // 槽位上有数据的话
                     oldTab[i] = null; // 置空旧表, help gc
                     // 没有形成链表直接替换
-                    if (e.next == null) {
+                    if (e instanceof TreeBin) { // 红黑树按lo hi拆分, 节点太少的退化为链表
+                        ((TreeBin<K, V>) e).split(newTab, i, oldCap);
+                    } else if (e.next == null) {
                         newTab[e.hash & (newCap - 1)] = e;
                     } else { // 处理链表
                         // 为了保持顺序, 分成low high
@@ -259,8 +580,123 @@ public class MyHashMap<K, V> implements Map<K, V> {
         return newTab;
     }
 
+    /**
+     * 开启运行统计, 需要启动时加上 -Dcom.lcw.datastructure.hash.stats=true
+     *
+     * @see HashTableStats
+     */
+    public HashTableStats enableStats() {
+        if (stats == null) {
+            stats = new HashTableStats(getClass().getSimpleName());
+        }
+        return stats;
+    }
+
+    /**
+     * @return 运行统计, 没有开启返回null
+     */
+    public HashTableStats stats() {
+        return stats;
+    }
+
+    /**
+     * 统计每个槽位的链表长度, 红黑树槽位按节点数量计算
+     *
+     * @return 下标为链表长度, 值为该长度的槽位数量
+     */
+    public int[] chainLengthHistogram() {
+        int[] histogram = new int[1];
+        Node<K, V>[] tab = table;
+        if (tab != null) {
+            for (Node<K, V> e : tab) {
+                int len = 0;
+                if (e instanceof TreeBin) {
+                    len = ((TreeBin<K, V>) e).count;
+                } else {
+                    for (; e != null; e = e.next) {
+                        len++;
+                    }
+                }
+                histogram = HashTableStats.addToHistogram(histogram, len);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * 将槽位上的链表转换为红黑树, 表太小时优先扩容
+     */
+    private void treeifyBin(Node<K, V>[] tab, int hash) {
+        int n, index;
+        Node<K, V> e;
+        if (tab == null || (n = tab.length) < MIN_TREEIFY_CAPACITY) {
+            resize();
+        } else if ((e = tab[index = (n - 1) & hash]) != null && !(e instanceof TreeBin)) {
+            // 先把Node链表替换为TreeNode双向链表, 再统一建树
+            TreeNode<K, V> hd = null, tl = null;
+            do {
+                TreeNode<K, V> p = new TreeNode<>(e.hash, e.key, e.value, null);
+                if ((p.prev = tl) == null) {
+                    hd = p;
+                } else {
+                    tl.next = p;
+                }
+                tl = p;
+            } while ((e = e.next) != null);
+            tab[index] = new TreeBin<>(hd, strategy);
+        }
+    }
+
     @Override
     public V remove(Object key) {
+        Node<K, V> e;
+        return (e = removeNode(hashOf(key), key)) == null ? null : e.value;
+    }
+
+    /**
+     * 删除给定key的节点, 红黑树节点太少时退化为链表
+     *
+     * @return 被删除的节点, 不存在返回null
+     */
+    final Node<K, V> removeNode(int hash, Object key) {
+        Node<K, V>[] tab;
+        Node<K, V> p;
+        int n, index;
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+                (p = tab[index = (n - 1) & hash]) != null) {
+            Node<K, V> node = null;
+            if (p instanceof TreeBin) {
+                TreeBin<K, V> bin = (TreeBin<K, V>) p;
+                if ((node = bin.find(hash, key)) != null) {
+                    bin.removeTreeNode((TreeNode<K, V>) node);
+                    if (bin.count <= UNTREEIFY_THRESHOLD) {
+                        tab[index] = bin.untreeify();
+                    }
+                }
+            } else {
+                Node<K, V> pre = null, e = p;
+                K k;
+                do {
+                    if (e.hash == hash &&
+                            ((k = e.key) == key || keyEquals(strategy, key, k))) {
+                        node = e;
+                        break;
+                    }
+                    pre = e;
+                } while ((e = e.next) != null);
+                if (node != null) {
+                    if (pre == null) {
+                        tab[index] = node.next;
+                    } else {
+                        pre.next = node.next;
+                    }
+                }
+            }
+            if (node != null) {
+                --size;
+                return node;
+            }
+        }
         return null;
     }
 
@@ -271,21 +707,919 @@ public class MyHashMap<K, V> implements Map<K, V> {
 
     @Override
     public void clear() {
-
+        Node<K, V>[] tab;
+        if ((tab = table) != null && size > 0) {
+            size = 0;
+            Arrays.fill(tab, null);
+        }
     }
 
     @Override
     public Set<K> keySet() {
-        return null;
+        Set<K> ks;
+        return (ks = keySet) == null ? (keySet = new KeySet()) : ks;
     }
 
     @Override
     public Collection<V> values() {
-        return null;
+        Collection<V> vs;
+        return (vs = values) == null ? (values = new Values()) : vs;
     }
 
     @Override
     public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    /**
+     * 槽位上链表的第一个节点, 红黑树槽位返回TreeNode链表的头节点
+     */
+    static <K, V> Node<K, V> binFirst(Node<K, V> e) {
+        return e instanceof TreeBin ? ((TreeBin<K, V>) e).first : e;
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            MyHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            return removeNode(hashOf(key), key) != null;
+        }
+
+        @Override
+        public Spliterator<K> spliterator() {
+            return new KeySpliterator<>(MyHashMap.this, 0, -1, 0);
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            MyHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public Spliterator<V> spliterator() {
+            return new ValueSpliterator<>(MyHashMap.this, 0, -1, 0);
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            MyHashMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey();
+            Node<K, V> candidate = getNode(hashOf(key), key);
+            return candidate != null && Objects.equals(candidate.value, e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return contains(o) && removeNode(hashOf(((Entry<?, ?>) o).getKey()), ((Entry<?, ?>) o).getKey()) != null;
+        }
+
+        @Override
+        public Spliterator<Entry<K, V>> spliterator() {
+            return new EntrySpliterator<>(MyHashMap.this, 0, -1, 0);
+        }
+    }
+
+    /**
+     * 直接遍历table, 按槽位顺序访问每个链表(红黑树槽位访问TreeNode链表)
+     */
+    abstract class HashIterator {
+        Node<K, V> next;
+
+        Node<K, V> current;
+
+        int index;
+
+        HashIterator() {
+            Node<K, V>[] t = table;
+            if (t != null && size > 0) {
+                do {
+                } while (index < t.length && (next = binFirst(t[index++])) == null);
+            }
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        final Node<K, V> nextNode() {
+            Node<K, V>[] t;
+            Node<K, V> e = next;
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            if ((next = (current = e).next) == null && (t = table) != null) {
+                do {
+                } while (index < t.length && (next = binFirst(t[index++])) == null);
+            }
+            return e;
+        }
+
+        public final void remove() {
+            Node<K, V> p = current;
+            if (p == null) {
+                throw new IllegalStateException();
+            }
+            current = null;
+            removeNode(p.hash, p.key);
+        }
+    }
+
+    final class KeyIterator extends HashIterator implements Iterator<K> {
+        @Override
+        public K next() {
+            return nextNode().key;
+        }
+    }
+
+    final class ValueIterator extends HashIterator implements Iterator<V> {
+        @Override
+        public V next() {
+            return nextNode().value;
+        }
+    }
+
+    final class EntryIterator extends HashIterator implements Iterator<Entry<K, V>> {
+        @Override
+        public Entry<K, V> next() {
+            return nextNode();
+        }
+    }
+
+    /**
+     * 按槽位范围[index, fence)切分的Spliterator, 每次从中间一分为二
+     * 第一次使用时才确定fence与元素数量, 只有没切分过时元素数量是准确的, 此时报告SIZED
+     */
+    abstract static class HashSpliterator<K, V, T> implements Spliterator<T> {
+        final MyHashMap<K, V> map;
+
+        // 当前链表中的下一个节点
+        Node<K, V> current;
+
+        // 下一个要访问的槽位
+        int index;
+
+        // 最后一个槽位 + 1, 为-1表示还没有初始化
+        int fence;
+
+        // 元素数量估计值
+        int est;
+
+        HashSpliterator(MyHashMap<K, V> map, int origin, int fence, int est) {
+            this.map = map;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+        }
+
+        final int getFence() {
+            int hi;
+            if ((hi = fence) < 0) {
+                Node<K, V>[] tab = map.table;
+                est = map.size;
+                hi = fence = tab == null ? 0 : tab.length;
+            }
+            return hi;
+        }
+
+        abstract T element(Node<K, V> e);
+
+        abstract HashSpliterator<K, V, T> split(int lo, int mid, int est);
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid || current != null) ? null : split(lo, index = mid, est >>>= 1);
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            int hi = getFence(), i = index;
+            Node<K, V>[] tab = map.table;
+            Node<K, V> p = current;
+            index = hi;
+            current = null;
+            if (tab != null && tab.length >= hi && i >= 0 && (i < hi || p != null)) {
+                do {
+                    if (p == null) {
+                        p = binFirst(tab[i++]);
+                    } else {
+                        action.accept(element(p));
+                        p = p.next;
+                    }
+                } while (p != null || i < hi);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            int hi = getFence();
+            Node<K, V>[] tab = map.table;
+            if (tab != null && tab.length >= hi && index >= 0) {
+                while (current != null || index < hi) {
+                    if (current == null) {
+                        current = binFirst(tab[index++]);
+                    } else {
+                        Node<K, V> e = current;
+                        current = e.next;
+                        action.accept(element(e));
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long estimateSize() {
+            getFence();
+            return est;
+        }
+
+        @Override
+        public int characteristics() {
+            return fence < 0 || est == map.size ? SIZED : 0;
+        }
+    }
+
+    static final class KeySpliterator<K, V> extends HashSpliterator<K, V, K> {
+        KeySpliterator(MyHashMap<K, V> map, int origin, int fence, int est) {
+            super(map, origin, fence, est);
+        }
+
+        @Override
+        K element(Node<K, V> e) {
+            return e.key;
+        }
+
+        @Override
+        HashSpliterator<K, V, K> split(int lo, int mid, int est) {
+            return new KeySpliterator<>(map, lo, mid, est);
+        }
+
+        @Override
+        public int characteristics() {
+            return super.characteristics() | DISTINCT;
+        }
+    }
+
+    static final class ValueSpliterator<K, V> extends HashSpliterator<K, V, V> {
+        ValueSpliterator(MyHashMap<K, V> map, int origin, int fence, int est) {
+            super(map, origin, fence, est);
+        }
+
+        @Override
+        V element(Node<K, V> e) {
+            return e.value;
+        }
+
+        @Override
+        HashSpliterator<K, V, V> split(int lo, int mid, int est) {
+            return new ValueSpliterator<>(map, lo, mid, est);
+        }
+    }
+
+    static final class EntrySpliterator<K, V> extends HashSpliterator<K, V, Entry<K, V>> {
+        EntrySpliterator(MyHashMap<K, V> map, int origin, int fence, int est) {
+            super(map, origin, fence, est);
+        }
+
+        @Override
+        Entry<K, V> element(Node<K, V> e) {
+            return e;
+        }
+
+        @Override
+        HashSpliterator<K, V, Entry<K, V>> split(int lo, int mid, int est) {
+            return new EntrySpliterator<>(map, lo, mid, est);
+        }
+
+        @Override
+        public int characteristics() {
+            return super.characteristics() | DISTINCT;
+        }
+    }
+
+    /**
+     * 如果x实现了Comparable<x的类型>, 返回x的类型, 否则返回null
+     */
+    static Class<?> comparableClassFor(Object x) {
+        if (x instanceof Comparable) {
+            Class<?> c;
+            if ((c = x.getClass()) == String.class) {
+                return c;
+            }
+            for (java.lang.reflect.Type t : c.getGenericInterfaces()) {
+                if (t instanceof java.lang.reflect.ParameterizedType) {
+                    java.lang.reflect.ParameterizedType p = (java.lang.reflect.ParameterizedType) t;
+                    java.lang.reflect.Type[] as;
+                    if (p.getRawType() == Comparable.class &&
+                            (as = p.getActualTypeArguments()) != null &&
+                            as.length == 1 && as[0] == c) {
+                        return c;
+                    }
+                }
+            }
+        }
         return null;
     }
+
+    /**
+     * x与k类型相同时返回k.compareTo(x), 否则返回0
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static int compareComparables(Class<?> kc, Object k, Object x) {
+        return (x == null || x.getClass() != kc ? 0 : ((Comparable) k).compareTo(x));
+    }
+
+    /**
+     * hash相等且无法比较时, 用类名和identityHashCode决定插入方向, 只要求树内顺序一致
+     */
+    static int tieBreakOrder(Object a, Object b) {
+        int d;
+        if (a == null || b == null ||
+                (d = a.getClass().getName().compareTo(b.getClass().getName())) == 0) {
+            d = (System.identityHashCode(a) <= System.identityHashCode(b) ? -1 : 1);
+        }
+        return d;
+    }
+
+    private static final boolean RED = false;
+    private static final boolean BLACK = true;
+
+    /**
+     * 红黑树节点, 同时通过next/prev串成双向链表, 方便遍历、扩容拆分与退化
+     */
+    static final class TreeNode<K, V> extends Node<K, V> {
+        TreeNode<K, V> parent;
+        TreeNode<K, V> left;
+        TreeNode<K, V> right;
+        TreeNode<K, V> prev;
+        boolean color = BLACK;
+
+        TreeNode(int hash, K key, V value, Node<K, V> next) {
+            super(hash, key, value, next);
+        }
+
+        /**
+         * 从当前节点开始查找, 先比较hash, hash相等再用compareTo, 都分不出方向时左右子树都要找
+         */
+        TreeNode<K, V> find(int h, Object k, Class<?> kc, HashingStrategy<?> strategy) {
+            TreeNode<K, V> p = this;
+            do {
+                int ph, dir;
+                K pk;
+                TreeNode<K, V> pl = p.left, pr = p.right, q;
+                if ((ph = p.hash) > h) {
+                    p = pl;
+                } else if (ph < h) {
+                    p = pr;
+                } else if ((pk = p.key) == k || keyEquals(strategy, k, pk)) {
+                    return p;
+                } else if (pl == null) {
+                    p = pr;
+                } else if (pr == null) {
+                    p = pl;
+                } else if ((kc != null || (strategy == null && (kc = comparableClassFor(k)) != null)) &&
+                        (dir = compareComparables(kc, k, pk)) != 0) {
+                    p = (dir < 0) ? pl : pr;
+                } else if ((q = pr.find(h, k, kc, strategy)) != null) {
+                    return q;
+                } else {
+                    p = pl;
+                }
+            } while (p != null);
+            return null;
+        }
+    }
+
+    /**
+     * 树化后放在槽位上的容器节点, 持有红黑树的根节点和链表头节点
+     * 本身不存储k-v, 查找时通过instanceof区分
+     */
+    static final class TreeBin<K, V> extends Node<K, V> {
+        TreeNode<K, V> root;
+
+        TreeNode<K, V> first;
+
+        // 树中节点数量, 用于判断是否需要退化为链表
+        int count;
+
+        // 与所在MyHashMap相同, 有HashingStrategy时不用compareTo决定方向, 因为它可能与自定义的equals不一致
+        final HashingStrategy<?> strategy;
+
+        TreeBin(TreeNode<K, V> head, HashingStrategy<?> strategy) {
+            super(0, null, null, null);
+            this.first = head;
+            this.strategy = strategy;
+            for (TreeNode<K, V> x = head; x != null; x = (TreeNode<K, V>) x.next) {
+                x.left = x.right = x.parent = null;
+                insertNode(x);
+            }
+        }
+
+        TreeNode<K, V> find(int h, Object k) {
+            return root == null ? null : root.find(h, k, null, strategy);
+        }
+
+        /**
+         * 已知x在树中不存在, 直接找到插入位置挂上去
+         */
+        private void insertNode(TreeNode<K, V> x) {
+            K k = x.key;
+            int h = x.hash;
+            Class<?> kc = null;
+            TreeNode<K, V> p = root, parent = null;
+            int dir = 0;
+            while (p != null) {
+                int ph;
+                K pk = p.key;
+                parent = p;
+                if ((ph = p.hash) > h) {
+                    dir = -1;
+                } else if (ph < h) {
+                    dir = 1;
+                } else if ((kc == null && (strategy != null || (kc = comparableClassFor(k)) == null)) ||
+                        (dir = compareComparables(kc, k, pk)) == 0) {
+                    dir = tieBreakOrder(k, pk);
+                }
+                p = dir <= 0 ? p.left : p.right;
+            }
+            linkEntry(x, parent, dir);
+        }
+
+        /**
+         * 向树中插入k-v
+         *
+         * @return key已经存在时返回已存在的节点, 新插入返回null
+         */
+        TreeNode<K, V> putTreeVal(int h, K k, V v) {
+            TreeNode<K, V> p = findOrParent(h, k);
+            K pk;
+            if (p != null && p.hash == h && ((pk = p.key) == k || keyEquals(strategy, k, pk))) {
+                return p;
+            }
+            insertAt(p, h, k, v);
+            return null;
+        }
+
+        /**
+         * 从根节点向下查找k, 找到时返回所在节点, 否则返回新节点的父节点, 树为空时返回null
+         */
+        TreeNode<K, V> findOrParent(int h, Object k) {
+            Class<?> kc = null;
+            boolean searched = false;
+            TreeNode<K, V> p = root, parent = null;
+            int dir;
+            while (p != null) {
+                int ph;
+                K pk;
+                parent = p;
+                if ((ph = p.hash) > h) {
+                    dir = -1;
+                } else if (ph < h) {
+                    dir = 1;
+                } else if ((pk = p.key) == k || keyEquals(strategy, k, pk)) {
+                    return p;
+                } else if ((kc == null && (strategy != null || (kc = comparableClassFor(k)) == null)) ||
+                        (dir = compareComparables(kc, k, pk)) == 0) {
+                    // 分不出方向, 先把两棵子树完整找一遍, 确认不存在后再用tieBreakOrder
+                    if (!searched) {
+                        TreeNode<K, V> q, ch;
+                        searched = true;
+                        if (((ch = p.left) != null && (q = ch.find(h, k, kc, strategy)) != null) ||
+                                ((ch = p.right) != null && (q = ch.find(h, k, kc, strategy)) != null)) {
+                            return q;
+                        }
+                    }
+                    dir = tieBreakOrder(k, pk);
+                }
+                p = dir <= 0 ? p.left : p.right;
+            }
+            return parent;
+        }
+
+        /**
+         * 把已确认不存在的k挂在findOrParent返回的父节点下, 方向与findOrParent最后一步的比较结果相同
+         */
+        void insertAt(TreeNode<K, V> parent, int h, K k, V v) {
+            int dir = 0;
+            if (parent != null) {
+                int ph;
+                Class<?> kc;
+                K pk = parent.key;
+                if ((ph = parent.hash) > h) {
+                    dir = -1;
+                } else if (ph < h) {
+                    dir = 1;
+                } else if (strategy != null || (kc = comparableClassFor(k)) == null ||
+                        (dir = compareComparables(kc, k, pk)) == 0) {
+                    dir = tieBreakOrder(k, pk);
+                }
+            }
+            // 新节点挂在链表头部
+            TreeNode<K, V> x = new TreeNode<>(h, k, v, first);
+            if (first != null) {
+                first.prev = x;
+            }
+            first = x;
+            linkEntry(x, parent, dir);
+        }
+
+        private void linkEntry(TreeNode<K, V> x, TreeNode<K, V> parent, int dir) {
+            x.parent = parent;
+            if (parent == null) {
+                root = x;
+            } else if (dir <= 0) {
+                parent.left = x;
+            } else {
+                parent.right = x;
+            }
+            fixAfterInsertion(x);
+            count++;
+        }
+
+        /**
+         * 删除给定节点, 节点必须在树中
+         * 与RBTree不同, 节点的hash和key是final的, 有两个子节点时交换节点位置而不是交换内容
+         */
+        void removeTreeNode(TreeNode<K, V> p) {
+            // 先从链表中摘除
+            TreeNode<K, V> succ = (TreeNode<K, V>) p.next, pred = p.prev;
+            if (pred == null) {
+                first = succ;
+            } else {
+                pred.next = succ;
+            }
+            if (succ != null) {
+                succ.prev = pred;
+            }
+            p.prev = null;
+            count--;
+
+            if (p.left != null && p.right != null) {
+                TreeNode<K, V> s = p.right;
+                while (s.left != null) {
+                    s = s.left;
+                }
+                swapPosition(p, s);
+            }
+
+            TreeNode<K, V> replacement = p.left != null ? p.left : p.right;
+            if (replacement != null) {
+                replacement.parent = p.parent;
+                if (p.parent == null) {
+                    root = replacement;
+                } else if (p == p.parent.left) {
+                    p.parent.left = replacement;
+                } else {
+                    p.parent.right = replacement;
+                }
+                p.left = p.right = p.parent = null;
+                if (p.color == BLACK) {
+                    fixAfterDeletion(replacement);
+                }
+            } else if (p.parent == null) {
+                root = null;
+            } else {
+                // 没有子节点, 先把自己当作虚拟节点修复, 再从父节点上摘除
+                if (p.color == BLACK) {
+                    fixAfterDeletion(p);
+                }
+                if (p.parent != null) {
+                    if (p == p.parent.left) {
+                        p.parent.left = null;
+                    } else if (p == p.parent.right) {
+                        p.parent.right = null;
+                    }
+                    p.parent = null;
+                }
+            }
+        }
+
+        /**
+         * 交换p与其后继节点s在树中的位置和颜色, s一定没有左子节点
+         */
+        private void swapPosition(TreeNode<K, V> p, TreeNode<K, V> s) {
+            boolean c = s.color;
+            s.color = p.color;
+            p.color = c;
+            TreeNode<K, V> sr = s.right;
+            TreeNode<K, V> pl = p.left;
+            TreeNode<K, V> pp = p.parent;
+            if (s == p.right) { // s是p的直接右子节点
+                p.parent = s;
+                s.right = p;
+            } else {
+                TreeNode<K, V> sp = s.parent;
+                p.parent = sp;
+                if (s == sp.left) {
+                    sp.left = p;
+                } else {
+                    sp.right = p;
+                }
+                TreeNode<K, V> pr = p.right;
+                s.right = pr;
+                pr.parent = s;
+            }
+            p.left = null;
+            p.right = sr;
+            if (sr != null) {
+                sr.parent = p;
+            }
+            s.left = pl;
+            pl.parent = s;
+            s.parent = pp;
+            if (pp == null) {
+                root = s;
+            } else if (p == pp.left) {
+                pp.left = s;
+            } else {
+                pp.right = s;
+            }
+        }
+
+        /**
+         * 扩容时把树拆分为lo hi两部分, 节点少的退化为链表
+         *
+         * @param tab   新表
+         * @param index 旧表中的索引
+         * @param bit   旧表容量
+         */
+        void split(Node<K, V>[] tab, int index, int bit) {
+            TreeNode<K, V> loHead = null, loTail = null, hiHead = null, hiTail = null;
+            int lc = 0, hc = 0;
+            TreeNode<K, V> next;
+            for (TreeNode<K, V> e = first; e != null; e = next) {
+                next = (TreeNode<K, V>) e.next;
+                e.next = null;
+                if ((e.hash & bit) == 0) {
+                    if ((e.prev = loTail) == null) {
+                        loHead = e;
+                    } else {
+                        loTail.next = e;
+                    }
+                    loTail = e;
+                    ++lc;
+                } else {
+                    if ((e.prev = hiTail) == null) {
+                        hiHead = e;
+                    } else {
+                        hiTail.next = e;
+                    }
+                    hiTail = e;
+                    ++hc;
+                }
+            }
+            if (loHead != null) {
+                tab[index] = lc <= UNTREEIFY_THRESHOLD ? untreeify(loHead) : new TreeBin<>(loHead, strategy);
+            }
+            if (hiHead != null) {
+                tab[index + bit] = hc <= UNTREEIFY_THRESHOLD ? untreeify(hiHead) : new TreeBin<>(hiHead, strategy);
+            }
+        }
+
+        Node<K, V> untreeify() {
+            return untreeify(first);
+        }
+
+        /**
+         * 把TreeNode链表转换为普通Node链表
+         */
+        static <K, V> Node<K, V> untreeify(Node<K, V> head) {
+            Node<K, V> hd = null, tl = null;
+            for (Node<K, V> q = head; q != null; q = q.next) {
+                Node<K, V> p = new Node<>(q.hash, q.key, q.value, null);
+                if (tl == null) {
+                    hd = p;
+                } else {
+                    tl.next = p;
+                }
+                tl = p;
+            }
+            return hd;
+        }
+
+        // 以下红黑树修复逻辑与tree.RBTree保持一致
+
+        private void fixAfterInsertion(TreeNode<K, V> x) {
+            // 新插入的节点只能是红色
+            x.color = RED;
+
+            while (x != null && x != root && x.parent.color == RED) {
+                if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                    TreeNode<K, V> y = rightOf(parentOf(parentOf(x)));
+                    if (colorOf(y) == RED) {
+                        setColor(parentOf(x), BLACK);
+                        setColor(y, BLACK);
+                        setColor(parentOf(parentOf(x)), RED);
+                        x = parentOf(parentOf(x));
+                    } else { // 叔叔节点是黑色
+                        if (x == rightOf(parentOf(x))) {
+                            x = parentOf(x);
+                            leftRotate(x);
+                        }
+                        setColor(parentOf(x), BLACK);
+                        setColor(parentOf(parentOf(x)), RED);
+                        rightRotate(parentOf(parentOf(x)));
+                    }
+                } else {
+                    TreeNode<K, V> y = leftOf(parentOf(parentOf(x)));
+                    if (colorOf(y) == RED) {
+                        setColor(parentOf(x), BLACK);
+                        setColor(y, BLACK);
+                        setColor(parentOf(parentOf(x)), RED);
+                        x = parentOf(parentOf(x));
+                    } else {
+                        if (x == leftOf(parentOf(x))) {
+                            x = parentOf(x);
+                            rightRotate(x);
+                        }
+                        setColor(parentOf(x), BLACK);
+                        setColor(parentOf(parentOf(x)), RED);
+                        leftRotate(parentOf(parentOf(x)));
+                    }
+                }
+            }
+
+            root.color = BLACK;
+        }
+
+        private void fixAfterDeletion(TreeNode<K, V> x) {
+            while (x != root && colorOf(x) == BLACK) {
+                if (x == leftOf(parentOf(x))) {
+                    TreeNode<K, V> sib = rightOf(parentOf(x));
+
+                    if (colorOf(sib) == RED) {
+                        setColor(sib, BLACK);
+                        setColor(parentOf(x), RED);
+                        leftRotate(parentOf(x));
+                        sib = rightOf(parentOf(x));
+                    }
+
+                    if (colorOf(leftOf(sib)) == BLACK &&
+                            colorOf(rightOf(sib)) == BLACK) {
+                        setColor(sib, RED);
+                        x = parentOf(x);
+                    } else {
+                        if (colorOf(rightOf(sib)) == BLACK) {
+                            setColor(leftOf(sib), BLACK);
+                            setColor(sib, RED);
+                            rightRotate(sib);
+                            sib = rightOf(parentOf(x));
+                        }
+                        setColor(sib, colorOf(parentOf(x)));
+                        setColor(parentOf(x), BLACK);
+                        setColor(rightOf(sib), BLACK);
+                        leftRotate(parentOf(x));
+                        x = root;
+                    }
+                } else { // symmetric
+                    TreeNode<K, V> sib = leftOf(parentOf(x));
+
+                    if (colorOf(sib) == RED) {
+                        setColor(sib, BLACK);
+                        setColor(parentOf(x), RED);
+                        rightRotate(parentOf(x));
+                        sib = leftOf(parentOf(x));
+                    }
+
+                    if (colorOf(rightOf(sib)) == BLACK &&
+                            colorOf(leftOf(sib)) == BLACK) {
+                        setColor(sib, RED);
+                        x = parentOf(x);
+                    } else {
+                        if (colorOf(leftOf(sib)) == BLACK) {
+                            setColor(rightOf(sib), BLACK);
+                            setColor(sib, RED);
+                            leftRotate(sib);
+                            sib = leftOf(parentOf(x));
+                        }
+                        setColor(sib, colorOf(parentOf(x)));
+                        setColor(parentOf(x), BLACK);
+                        setColor(leftOf(sib), BLACK);
+                        rightRotate(parentOf(x));
+                        x = root;
+                    }
+                }
+            }
+
+            setColor(x, BLACK);
+        }
+
+        private void rightRotate(TreeNode<K, V> e) {
+            if (e != null) {
+                TreeNode<K, V> l = e.left;
+                e.left = l.right;
+                if (l.right != null) {
+                    l.right.parent = e;
+                }
+                l.parent = e.parent;
+                if (e.parent == null) {
+                    root = l;
+                } else if (e.parent.left == e) {
+                    e.parent.left = l;
+                } else {
+                    e.parent.right = l;
+                }
+                l.right = e;
+                e.parent = l;
+            }
+        }
+
+        private void leftRotate(TreeNode<K, V> e) {
+            if (e != null) {
+                TreeNode<K, V> r = e.right;
+                e.right = r.left;
+                if (r.left != null) {
+                    r.left.parent = e;
+                }
+                r.parent = e.parent;
+                if (e.parent == null) {
+                    root = r;
+                } else if (e.parent.left == e) {
+                    e.parent.left = r;
+                } else {
+                    e.parent.right = r;
+                }
+                r.left = e;
+                e.parent = r;
+            }
+        }
+
+        private static <K, V> TreeNode<K, V> parentOf(TreeNode<K, V> e) {
+            return e == null ? null : e.parent;
+        }
+
+        private static <K, V> TreeNode<K, V> leftOf(TreeNode<K, V> e) {
+            return e == null ? null : e.left;
+        }
+
+        private static <K, V> TreeNode<K, V> rightOf(TreeNode<K, V> e) {
+            return e == null ? null : e.right;
+        }
+
+        private static boolean colorOf(TreeNode<?, ?> e) {
+            return e == null ? BLACK : e.color;
+        }
+
+        private static void setColor(TreeNode<?, ?> e, boolean color) {
+            if (e != null) {
+                e.color = color;
+            }
+        }
+    }
 }
@@ -0,0 +1,759 @@
+package com.lcw.datastructure;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的开放寻址并发k-v容器, 算法来自Cliff Click的NonBlockingHashMap
+ * <p>
+ * key与value交替存放在一个Object数组中, 线性探测, 下标由spread(key)决定.
+ * 每个槽位是一个只能单向变化的状态机, 所有修改都是对单个引用的CAS, 不需要锁:
+ * <pre>
+ * key:   null -> key(之后不再改变)
+ *        null -> TOMBSTONE(扩容复制时封住空槽位, 让新key只能去新表)
+ * value: null/旧值 -> 新值/TOMBSTONE(删除)
+ *        任意值 -> Prime(value)(复制中, 旧表中不能再修改) -> TOMBPRIME(已复制到新表)
+ * </pre>
+ * 扩容时新表挂在旧表的newTable上, 遇到Prime或被封住的槽位的线程都会帮忙复制, 每个线程一次领取一段槽位,
+ * 全部复制完成后把map的table换成新表. 读操作没有任何写, 遇到正在复制的槽位才会参与复制
+ * <p>
+ * 每张表有自己的最大探测次数, 探测次数超限引起的扩容会让新表的上限翻倍,
+ * 大量key的hash相同时同样大小的新表也能放下, 不会一直创建放不下的新表; 在表之间跳转用循环而不是递归
+ * <p>
+ * clear同样通过复制协议进行: 挂上一张空的新表, 复制时直接丢弃旧表的元素, 复制期间并发的写会转到新表, 不会丢失
+ * <p>
+ * 不支持null key与null value
+ */
+public class NonBlockingHashMap<K, V> implements ConcurrentMap<K, V> {
+
+    // 最小表容量
+    static final int MIN_SIZE = 8;
+
+    static final int MAXIMUM_CAPACITY = 1 << 29;
+
+    // 至少允许的探测次数, 表越大允许的越多
+    static final int REPROBE_LIMIT = 10;
+
+    // 每个线程一次领取的复制槽位数
+    static final int MIN_COPY_WORK = 1024;
+
+    // 表中大部分是删除留下的墓碑时, 距上次扩容不到这么久就仍然翻倍, 避免同样大小的表反复复制
+    static final long RESIZE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // 删除的value, 也用来封住复制时的空key槽位
+    static final Object TOMBSTONE = new Object();
+
+    // 已经复制到新表或删除的槽位
+    static final Prime TOMBPRIME = new Prime(TOMBSTONE);
+
+    // putIfMatch的expVal: 不关心旧值
+    static final Object NO_MATCH_OLD = new Object();
+
+    // putIfMatch的expVal: 旧值存在就匹配
+    static final Object MATCH_ANY = new Object();
+
+    volatile Table table;
+
+    // 上次切换到新表的时间
+    volatile long lastResizeNanos;
+
+    private static final VarHandle KVS;
+    private static final VarHandle TABLE;
+    private static final VarHandle NEW_TABLE;
+    private static final VarHandle COPY_IDX;
+    private static final VarHandle COPY_DONE;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            KVS = MethodHandles.arrayElementVarHandle(Object[].class);
+            TABLE = l.findVarHandle(NonBlockingHashMap.class, "table", Table.class);
+            NEW_TABLE = l.findVarHandle(Table.class, "newTable", Table.class);
+            COPY_IDX = l.findVarHandle(Table.class, "copyIdx", long.class);
+            COPY_DONE = l.findVarHandle(Table.class, "copyDone", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public NonBlockingHashMap() {
+        this(MIN_SIZE);
+    }
+
+    public NonBlockingHashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        int len = MIN_SIZE;
+        // 保持表最多1/4满
+        while (len < MAXIMUM_CAPACITY && len < (long) initialCapacity << 2) {
+            len <<= 1;
+        }
+        table = new Table(len, new LongAdder());
+        lastResizeNanos = System.nanoTime();
+    }
+
+    /**
+     * 复制中的value, 旧表中的槽位一旦变成Prime就不能再修改, 只能到新表中修改
+     */
+    static final class Prime {
+        final Object v;
+
+        Prime(Object v) {
+            this.v = v;
+        }
+    }
+
+    static final class Table {
+        // key在2i, value在2i+1
+        final Object[] kvs;
+
+        // 缓存的hash值, 0表示还没写入, 比较key前先比较它
+        final int[] hashes;
+
+        // 元素数量, 与扩容出的新表共享同一个计数器
+        final LongAdder size;
+
+        // 已占用的key槽位数量, 包括删除后留下的
+        final LongAdder slots = new LongAdder();
+
+        volatile Table newTable;
+
+        // 下一个要领取的复制槽位
+        volatile long copyIdx;
+
+        // 已经复制完成的槽位数量
+        volatile long copyDone;
+
+        // 最大探测次数, 超过后转到新表
+        final int reprobeLimit;
+
+        // 由clear创建, 复制时丢弃旧表中的元素
+        final boolean clearing;
+
+        Table(int len, LongAdder size) {
+            this(len, size, reprobeLimit(len), false);
+        }
+
+        Table(int len, LongAdder size, int reprobeLimit, boolean clearing) {
+            this.kvs = new Object[len << 1];
+            this.hashes = new int[len];
+            this.size = size;
+            this.reprobeLimit = reprobeLimit;
+            this.clearing = clearing;
+        }
+
+        int length() {
+            return hashes.length;
+        }
+
+        /**
+         * 探测次数过多, 或者已占用的key槽位超过一半
+         */
+        boolean tableFull(int reprobe, int len) {
+            return reprobe >= REPROBE_LIMIT && (reprobe >= reprobeLimit || slots.sum() >= (len >> 1));
+        }
+    }
+
+    static int reprobeLimit(int len) {
+        return Math.min(REPROBE_LIMIT + (len >> 4), len);
+    }
+
+    static Object key(Object[] kvs, int idx) {
+        return KVS.getVolatile(kvs, idx << 1);
+    }
+
+    static Object val(Object[] kvs, int idx) {
+        return KVS.getVolatile(kvs, (idx << 1) + 1);
+    }
+
+    static boolean casKey(Object[] kvs, int idx, Object old, Object key) {
+        return KVS.compareAndSet(kvs, idx << 1, old, key);
+    }
+
+    static boolean casVal(Object[] kvs, int idx, Object old, Object val) {
+        return KVS.compareAndSet(kvs, (idx << 1) + 1, old, val);
+    }
+
+    /**
+     * 在MyHashMap.hash()的基础上乘以黄金分割数再折叠高位,
+     * 线性探测对连续的hash值很敏感, 连续的Integer key会连成一大片, 落在其中的key要探测很远
+     */
+    static int spread(Object key) {
+        int h = MyHashMap.hash(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static boolean keyEq(Object k, Object key, int[] hashes, int idx, int fullhash) {
+        int h;
+        return k == key || (((h = hashes[idx]) == 0 || h == fullhash) && k != TOMBSTONE && key.equals(k));
+    }
+
+    @Override
+    public int size() {
+        long n = table.size.sum();
+        return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(n, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        for (V v : values()) {
+            if (v == value || v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return (V) getImpl(table, key, spread(key));
+    }
+
+    private Object getImpl(Table t, Object key, int fullhash) {
+        outer:
+        while (true) {
+            Object[] kvs = t.kvs;
+            int[] hashes = t.hashes;
+            int len = hashes.length;
+            int idx = fullhash & (len - 1);
+            int reprobe = 0;
+            while (true) {
+                Object k = key(kvs, idx), v = val(kvs, idx);
+                if (k == null) {
+                    return null;
+                }
+                // 先读key再读newTable, 读到被封住的key时一定能看到新表
+                Table nt = t.newTable;
+                if (keyEq(k, key, hashes, idx, fullhash)) {
+                    if (!(v instanceof Prime)) {
+                        return v == TOMBSTONE ? null : v;
+                    }
+                    // 正在复制, 先把这个槽位复制完再去新表读
+                    t = copySlotAndCheck(t, idx, key);
+                    continue outer;
+                }
+                if (++reprobe >= t.reprobeLimit || k == TOMBSTONE) {
+                    if (nt == null) {
+                        return null;
+                    }
+                    t = helpCopy(nt);
+                    continue outer;
+                }
+                idx = (idx + 1) & (len - 1);
+            }
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putIfMatch(key, value, NO_MATCH_OLD);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putIfMatch(key, value, TOMBSTONE);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return putIfMatch(key, TOMBSTONE, NO_MATCH_OLD);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (value == null) {
+            return false;
+        }
+        return Objects.equals(putIfMatch(key, TOMBSTONE, value), value);
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return putIfMatch(key, value, MATCH_ANY);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (oldValue == null) {
+            throw new NullPointerException();
+        }
+        return Objects.equals(putIfMatch(key, newValue, oldValue), oldValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V putIfMatch(Object key, Object newVal, Object expVal) {
+        if (key == null || newVal == null) {
+            throw new NullPointerException();
+        }
+        Object res = putIfMatch(table, key, spread(key), newVal, expVal);
+        return res == TOMBSTONE ? null : (V) res;
+    }
+
+    /**
+     * 所有写操作的核心: 当前value与expVal匹配时才把它改为putval
+     *
+     * @param expVal NO_MATCH_OLD: 总是写入; TOMBSTONE: 不存在时写入; MATCH_ANY: 存在时写入;
+     *               null: 复制专用, 新表中没有value时写入; 其他: 与旧值equals时写入
+     * @return 旧value, 不存在时返回TOMBSTONE, 复制时返回null表示由本线程完成了写入
+     */
+    private Object putIfMatch(Table t, Object key, int fullhash, Object putval, Object expVal) {
+        // 需要转到新表时换掉t重新开始
+        outer:
+        while (true) {
+            Object[] kvs = t.kvs;
+            int[] hashes = t.hashes;
+            int len = hashes.length;
+            int idx = fullhash & (len - 1);
+            int reprobe = 0;
+            Object k, v;
+            Table nt = null;
+            // 找到或占用key槽位
+            while (true) {
+                v = val(kvs, idx);
+                k = key(kvs, idx);
+                if (k == null) {
+                    // key从没在这张表中出现过, 删除与replace不需要占用槽位
+                    if (putval == TOMBSTONE || expVal == MATCH_ANY) {
+                        return TOMBSTONE;
+                    }
+                    if (casKey(kvs, idx, null, key)) {
+                        t.slots.increment();
+                        hashes[idx] = fullhash;
+                        break;
+                    }
+                    k = key(kvs, idx);
+                }
+                nt = t.newTable;
+                if (keyEq(k, key, hashes, idx, fullhash)) {
+                    break;
+                }
+                if (++reprobe >= t.reprobeLimit || k == TOMBSTONE) {
+                    // 这张表放不下了, 到新表中写, 普通写操作顺便帮忙复制一段
+                    nt = resize(t, k != TOMBSTONE);
+                    if (expVal != null) {
+                        helpCopy(nt);
+                    }
+                    t = nt;
+                    continue outer;
+                }
+                idx = (idx + 1) & (len - 1);
+            }
+
+            if (putval == v) {
+                return v;
+            }
+            // 新key使表太满, 或者槽位正在复制, 都要转到新表
+            if (nt == null && ((v == null && t.tableFull(reprobe, len)) || v instanceof Prime)) {
+                nt = resize(t, false);
+            }
+            if (nt != null) {
+                t = copySlotAndCheck(t, idx, expVal);
+                continue;
+            }
+
+            // 在当前表中修改value
+            while (true) {
+                if (expVal != NO_MATCH_OLD && v != expVal &&
+                        (expVal != MATCH_ANY || v == TOMBSTONE || v == null) &&
+                        !(v == null && expVal == TOMBSTONE) &&
+                        (expVal == null || !expVal.equals(v))) {
+                    return v == null ? TOMBSTONE : v;
+                }
+                if (casVal(kvs, idx, v, putval)) {
+                    // 复制不改变元素数量
+                    if (expVal != null) {
+                        if ((v == null || v == TOMBSTONE) && putval != TOMBSTONE) {
+                            t.size.increment();
+                        } else if (!(v == null || v == TOMBSTONE) && putval == TOMBSTONE) {
+                            t.size.decrement();
+                        }
+                    }
+                    return (v == null && expVal != null) ? TOMBSTONE : v;
+                }
+                v = val(kvs, idx);
+                if (v instanceof Prime) {
+                    t = copySlotAndCheck(t, idx, expVal);
+                    continue outer;
+                }
+            }
+        }
+    }
+
+    /**
+     * 创建新表, 多个线程同时扩容时只有一个CAS成功, 其他线程使用它的结果
+     *
+     * @param probeOverflow 是否因为探测次数超限而扩容, 此时新表的探测上限至少翻倍
+     */
+    private Table resize(Table t, boolean probeOverflow) {
+        Table nt = t.newTable;
+        if (nt != null) {
+            return nt;
+        }
+        int oldlen = t.length();
+        long sz = t.size.sum();
+        long newsz = sz;
+        if (sz >= (oldlen >> 2)) {
+            newsz = oldlen << 1;
+            if (4L * sz >= (oldlen >> 1) + (oldlen >> 2)) {
+                newsz = oldlen << 2;
+            }
+        }
+        if (newsz <= oldlen && System.nanoTime() - lastResizeNanos <= RESIZE_INTERVAL_NANOS && t.slots.sum() >= (sz << 1)) {
+            newsz = oldlen << 1;
+        }
+        if (newsz < oldlen) {
+            newsz = oldlen;
+        }
+        int newlen = MIN_SIZE;
+        while (newlen < newsz && newlen < MAXIMUM_CAPACITY) {
+            newlen <<= 1;
+        }
+        if ((nt = t.newTable) != null) {
+            return nt;
+        }
+        int limit = reprobeLimit(newlen);
+        if (probeOverflow) {
+            // 同一段探测序列放不下时, 多半是很多key的hash相同, 只扩大容量不会让它们分开
+            limit = Math.min(Math.max(limit, t.reprobeLimit << 1), newlen);
+        }
+        nt = new Table(newlen, t.size, limit, false);
+        return NEW_TABLE.compareAndSet(t, null, nt) ? nt : t.newTable;
+    }
+
+    /**
+     * 当前有复制在进行时帮忙复制一段, 返回参数本身方便调用方继续使用
+     */
+    private Table helpCopy(Table helper) {
+        Table top = table;
+        if (top.newTable != null) {
+            helpCopyImpl(top, false);
+        }
+        return helper;
+    }
+
+    /**
+     * 领取一段槽位复制到新表, 所有段都被领取后仍未完成时, 从头开始帮忙复制(panic), 直到全部完成
+     *
+     * @param copyAll 为true时一直复制到完成, 遍历前使用
+     */
+    private void helpCopyImpl(Table t, boolean copyAll) {
+        Table nt = t.newTable;
+        int oldlen = t.length();
+        int work = Math.min(oldlen, MIN_COPY_WORK);
+        boolean panic = false;
+        long copyidx = 0;
+        while (t.copyDone < oldlen) {
+            if (!panic) {
+                copyidx = t.copyIdx;
+                while (copyidx < ((long) oldlen << 1) && !COPY_IDX.compareAndSet(t, copyidx, copyidx + work)) {
+                    copyidx = t.copyIdx;
+                }
+                if (copyidx >= ((long) oldlen << 1)) {
+                    panic = true;
+                }
+            }
+            int workdone = 0;
+            for (int i = 0; i < work; i++) {
+                if (copySlot(t, (int) ((copyidx + i) & (oldlen - 1)), nt)) {
+                    workdone++;
+                }
+            }
+            if (workdone > 0) {
+                copyCheckAndPromote(t, workdone);
+            }
+            copyidx += work;
+            if (!copyAll && !panic) {
+                return;
+            }
+        }
+        // 完成复制的线程可能因为上一级表还没切换而没能切换, 这里再检查一次
+        copyCheckAndPromote(t, 0);
+    }
+
+    /**
+     * 复制单个槽位, 需要帮忙时再复制一段
+     */
+    private Table copySlotAndCheck(Table t, int idx, Object shouldHelp) {
+        Table nt = t.newTable;
+        if (copySlot(t, idx, nt)) {
+            copyCheckAndPromote(t, 1);
+        }
+        return shouldHelp == null ? nt : helpCopy(nt);
+    }
+
+    /**
+     * 累加复制完成的槽位数, 全部完成且t是当前表时切换到新表
+     */
+    private void copyCheckAndPromote(Table t, int workdone) {
+        int oldlen = t.length();
+        long done = t.copyDone;
+        if (workdone > 0) {
+            while (!COPY_DONE.compareAndSet(t, done, done + workdone)) {
+                done = t.copyDone;
+            }
+        }
+        if (done + workdone == oldlen && table == t && TABLE.compareAndSet(this, t, t.newTable)) {
+            lastResizeNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 把旧表的一个槽位复制到新表, 每个槽位只会被一个线程计为复制完成
+     *
+     * @return 本线程是否完成了这个槽位
+     */
+    private boolean copySlot(Table old, int idx, Table nt) {
+        Object[] kvs = old.kvs;
+        Object key;
+        // 封住空槽位, 之后新key只能写到新表
+        while ((key = key(kvs, idx)) == null) {
+            casKey(kvs, idx, null, TOMBSTONE);
+        }
+        // 用Prime包装value, 之后旧表中的value不能再修改
+        Object oldval = val(kvs, idx);
+        if (nt.clearing) {
+            // clear: 直接标记为已复制, 不写入新表
+            while (!(oldval instanceof Prime)) {
+                if (casVal(kvs, idx, oldval, TOMBPRIME)) {
+                    return true;
+                }
+                oldval = val(kvs, idx);
+            }
+            return false;
+        }
+        while (!(oldval instanceof Prime)) {
+            Prime box = (oldval == null || oldval == TOMBSTONE) ? TOMBPRIME : new Prime(oldval);
+            if (casVal(kvs, idx, oldval, box)) {
+                if (box == TOMBPRIME) {
+                    return true;
+                }
+                oldval = box;
+                break;
+            }
+            oldval = val(kvs, idx);
+        }
+        if (oldval == TOMBPRIME) {
+            return false;
+        }
+        int h = old.hashes[idx];
+        // 新表中还没有value时才写入, 否则新表中已经有了更新的值
+        boolean copied = putIfMatch(nt, key, h != 0 ? h : spread(key), ((Prime) oldval).v, null) == null;
+        while (oldval != TOMBPRIME && !casVal(kvs, idx, oldval, TOMBPRIME)) {
+            oldval = val(kvs, idx);
+        }
+        return copied;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * 把一张空表挂为当前表的新表, 再走一遍复制, 复制时丢弃所有元素
+     * 有扩容正在进行时先帮忙完成, 再清空扩容后的表
+     */
+    @Override
+    public void clear() {
+        Table empty = new Table(MIN_SIZE, new LongAdder(), reprobeLimit(MIN_SIZE), true);
+        while (true) {
+            Table top = table;
+            if (top.newTable == null && NEW_TABLE.compareAndSet(top, null, empty)) {
+                helpCopyImpl(top, true);
+                return;
+            }
+            helpCopyImpl(top, true);
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new SnapshotIterator<K>() {
+                    @Override
+                    K element(K k, V v) {
+                        return k;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return NonBlockingHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SnapshotIterator<V>() {
+                    @Override
+                    V element(K k, V v) {
+                        return v;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return NonBlockingHashMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new SnapshotIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(K k, V v) {
+                        return new WriteThroughEntry<>(NonBlockingHashMap.this, k, v);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return NonBlockingHashMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * 先帮忙完成所有进行中的复制, 再遍历当前表的key, value通过get读取最新值, 弱一致
+     */
+    abstract class SnapshotIterator<E> implements Iterator<E> {
+        final Table t;
+
+        int idx;
+
+        K nextK, lastK;
+
+        V nextV;
+
+        SnapshotIterator() {
+            Table top;
+            while ((top = table).newTable != null) {
+                helpCopyImpl(top, true);
+            }
+            t = top;
+            advance();
+        }
+
+        abstract E element(K k, V v);
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            nextK = null;
+            while (idx < t.length()) {
+                Object k = key(t.kvs, idx++);
+                if (k != null && k != TOMBSTONE && (nextV = get(k)) != null) {
+                    nextK = (K) k;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextK != null;
+        }
+
+        @Override
+        public E next() {
+            if (nextK == null) {
+                throw new NoSuchElementException();
+            }
+            E e = element(lastK = nextK, nextV);
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (lastK == null) {
+                throw new IllegalStateException();
+            }
+            NonBlockingHashMap.this.remove(lastK);
+            lastK = null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final NonBlockingHashMap<Integer, Integer> map = new NonBlockingHashMap<>();
+        final int threads = 8, perThread = 100000;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            pool.execute(() -> {
+                for (int i = base; i < base + perThread; i++) {
+                    map.put(i, i);
+                }
+                for (int i = base; i < base + perThread; i += 2) {
+                    map.remove(i);
+                }
+                // 所有线程在同一组热点key上计数
+                for (int i = 0; i < perThread; i++) {
+                    Integer k = -1 - (i & 15), v;
+                    do {
+                        v = map.get(k);
+                    } while (v == null ? map.putIfAbsent(k, 1) != null : !map.replace(k, v, v + 1));
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        if (map.size() != threads * perThread / 2 + 16) throw new Exception("size: " + map.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            if ((i % 2 == 0) == map.containsKey(i)) throw new Exception("key: " + i);
+        }
+        long counted = 0;
+        for (int k = -16; k < 0; k++) {
+            counted += map.get(k);
+        }
+        if (counted != (long) threads * perThread) throw new Exception("counter: " + counted);
+        int n = 0;
+        for (Integer ignored : map.keySet()) n++;
+        if (n != map.size()) throw new Exception("iterate: " + n);
+        System.out.println("success! size: " + map.size());
+    }
+}
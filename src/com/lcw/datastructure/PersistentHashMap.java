@@ -0,0 +1,696 @@
+package com.lcw.datastructure;
+
+import java.util.*;
+
+/**
+ * 持久化的hash array mapped trie(HAMT), 按MyHashMap.hash()的位逐层分支, 每层5位, 最多32个分支
+ * <p>
+ * 不可变: with/without返回新版本, 只复制从根到修改位置的路径上的节点, 其余节点新旧版本共享,
+ * 所以保存一个版本(快照)只需要保存引用, 是O(1)的
+ * <p>
+ * 节点采用CHAMP布局: dataMap标记直接存放k-v的分支, nodeMap标记指向子节点的分支,
+ * array中先按分支顺序存放k-v对, 后面再存放子节点. 32位hash全部相同的key放在CollisionNode中
+ * <p>
+ * 批量加载时使用asTransient()得到Builder, Builder创建的节点带有它的edit标记, 之后可以原地修改, 不需要每次复制路径,
+ * 调用persistent()后标记失效, 这些节点就和普通节点一样不可变
+ */
+public final class PersistentHashMap<K, V> implements Map<K, V> {
+
+    static final int BITS = 5;
+
+    static final int MASK = (1 << BITS) - 1;
+
+    // 32位hash每层5位共7层, 再加上最底层的CollisionNode
+    static final int MAX_DEPTH = 8;
+
+    static final Object NOT_FOUND = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap<>(new BitmapNode<>(null, 0, 0, new Object[0]), 0);
+
+    final TrieNode<K, V> root;
+
+    final int size;
+
+    private PersistentHashMap(TrieNode<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * 通过Builder批量加载m中的所有元素
+     */
+    public static <K, V> PersistentHashMap<K, V> from(Map<? extends K, ? extends V> m) {
+        Builder<K, V> builder = PersistentHashMap.<K, V>empty().asTransient();
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            builder.put(e.getKey(), e.getValue());
+        }
+        return builder.persistent();
+    }
+
+    static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * 记录一次修改的结果
+     */
+    static final class Change {
+        // 新增了一个key
+        boolean added;
+
+        // 删除了一个key
+        boolean removed;
+
+        Object oldValue;
+    }
+
+    abstract static class TrieNode<K, V> {
+        // 创建该节点的Builder的标记, 与当前Builder相同时可以原地修改
+        final Object edit;
+
+        TrieNode(Object edit) {
+            this.edit = edit;
+        }
+
+        final boolean editable(Object edit) {
+            return edit != null && this.edit == edit;
+        }
+
+        /**
+         * @return 不存在返回NOT_FOUND
+         */
+        abstract Object find(int hash, Object key, int shift);
+
+        abstract TrieNode<K, V> put(Object edit, int hash, K key, V val, int shift, Change change);
+
+        abstract TrieNode<K, V> remove(Object edit, int hash, Object key, int shift, Change change);
+
+        abstract int dataArity();
+
+        abstract int nodeArity();
+
+        abstract K keyAt(int i);
+
+        abstract V valAt(int i);
+
+        abstract TrieNode<K, V> nodeAt(int i);
+
+        /**
+         * 只剩一个k-v且没有子节点时, 父节点会把它内联
+         */
+        final boolean isSingleton() {
+            return dataArity() == 1 && nodeArity() == 0;
+        }
+    }
+
+    static final class BitmapNode<K, V> extends TrieNode<K, V> {
+        final int dataMap;
+
+        final int nodeMap;
+
+        // [k0, v0, k1, v1, ..., 子节点0, 子节点1, ...]
+        final Object[] array;
+
+        BitmapNode(Object edit, int dataMap, int nodeMap, Object[] array) {
+            super(edit);
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.array = array;
+        }
+
+        static int index(int map, int bit) {
+            return Integer.bitCount(map & (bit - 1));
+        }
+
+        @Override
+        int dataArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        int nodeArity() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        K keyAt(int i) {
+            return (K) array[i << 1];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        V valAt(int i) {
+            return (V) array[(i << 1) + 1];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        TrieNode<K, V> nodeAt(int i) {
+            return (TrieNode<K, V>) array[(dataArity() << 1) + i];
+        }
+
+        @Override
+        Object find(int hash, Object key, int shift) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = index(dataMap, bit) << 1;
+                return Objects.equals(array[i], key) ? array[i + 1] : NOT_FOUND;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(index(nodeMap, bit)).find(hash, key, shift + BITS);
+            }
+            return NOT_FOUND;
+        }
+
+        @Override
+        TrieNode<K, V> put(Object edit, int hash, K key, V val, int shift, Change change) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = index(dataMap, bit);
+                Object k = array[i << 1], v = array[(i << 1) + 1];
+                if (Objects.equals(k, key)) {
+                    change.oldValue = v;
+                    return v == val ? this : copyAndSet(edit, (i << 1) + 1, val);
+                }
+                // 两个key在这一层落到同一个分支, 下沉到新的子节点
+                @SuppressWarnings("unchecked")
+                TrieNode<K, V> sub = merge(edit, (K) k, (V) v, MyHashMap.hash(k), key, val, hash, shift + BITS);
+                change.added = true;
+                return copyAndMigrateToNode(edit, bit, i, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                int j = index(nodeMap, bit);
+                TrieNode<K, V> sub = nodeAt(j);
+                TrieNode<K, V> newSub = sub.put(edit, hash, key, val, shift + BITS, change);
+                return newSub == sub ? this : copyAndSet(edit, (dataArity() << 1) + j, newSub);
+            }
+            change.added = true;
+            return copyAndInsertValue(edit, bit, key, val);
+        }
+
+        @Override
+        TrieNode<K, V> remove(Object edit, int hash, Object key, int shift, Change change) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = index(dataMap, bit);
+                if (!Objects.equals(array[i << 1], key)) {
+                    return this;
+                }
+                change.removed = true;
+                change.oldValue = array[(i << 1) + 1];
+                return copyAndRemoveValue(edit, bit, i);
+            }
+            if ((nodeMap & bit) != 0) {
+                int j = index(nodeMap, bit);
+                TrieNode<K, V> sub = nodeAt(j);
+                TrieNode<K, V> newSub = sub.remove(edit, hash, key, shift + BITS, change);
+                if (newSub == sub) {
+                    return this;
+                }
+                if (newSub.isSingleton()) {
+                    // 本节点也只剩这一个元素, 继续交给上一层内联
+                    if (shift > 0 && dataMap == 0 && nodeMap == bit) {
+                        return newSub;
+                    }
+                    return copyAndMigrateToInline(edit, bit, j, newSub.keyAt(0), newSub.valAt(0));
+                }
+                return copyAndSet(edit, (dataArity() << 1) + j, newSub);
+            }
+            return this;
+        }
+
+        /**
+         * 两个key从shift这一层开始分开, hash完全相同时创建CollisionNode
+         */
+        static <K, V> TrieNode<K, V> merge(Object edit, K k0, V v0, int h0, K k1, V v1, int h1, int shift) {
+            if (shift >= Integer.SIZE) {
+                return new CollisionNode<>(edit, h0, new Object[]{k0, v0, k1, v1});
+            }
+            int m0 = (h0 >>> shift) & MASK, m1 = (h1 >>> shift) & MASK;
+            if (m0 != m1) {
+                Object[] array = m0 < m1 ? new Object[]{k0, v0, k1, v1} : new Object[]{k1, v1, k0, v0};
+                return new BitmapNode<>(edit, (1 << m0) | (1 << m1), 0, array);
+            }
+            return new BitmapNode<>(edit, 0, 1 << m0, new Object[]{merge(edit, k0, v0, h0, k1, v1, h1, shift + BITS)});
+        }
+
+        private BitmapNode<K, V> copyAndSet(Object edit, int idx, Object o) {
+            if (editable(edit)) {
+                array[idx] = o;
+                return this;
+            }
+            Object[] a = array.clone();
+            a[idx] = o;
+            return new BitmapNode<>(edit, dataMap, nodeMap, a);
+        }
+
+        private BitmapNode<K, V> copyAndInsertValue(Object edit, int bit, K key, V val) {
+            int i = index(dataMap, bit) << 1;
+            Object[] a = new Object[array.length + 2];
+            System.arraycopy(array, 0, a, 0, i);
+            a[i] = key;
+            a[i + 1] = val;
+            System.arraycopy(array, i, a, i + 2, array.length - i);
+            return new BitmapNode<>(edit, dataMap | bit, nodeMap, a);
+        }
+
+        private BitmapNode<K, V> copyAndRemoveValue(Object edit, int bit, int i) {
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, i << 1);
+            System.arraycopy(array, (i << 1) + 2, a, i << 1, array.length - (i << 1) - 2);
+            return new BitmapNode<>(edit, dataMap ^ bit, nodeMap, a);
+        }
+
+        /**
+         * 把第i个k-v替换为子节点sub
+         */
+        private BitmapNode<K, V> copyAndMigrateToNode(Object edit, int bit, int i, TrieNode<K, V> sub) {
+            int dataEnd = dataArity() << 1;
+            int j = index(nodeMap, bit);
+            Object[] a = new Object[array.length - 1];
+            System.arraycopy(array, 0, a, 0, i << 1);
+            System.arraycopy(array, (i << 1) + 2, a, i << 1, dataEnd - (i << 1) - 2);
+            System.arraycopy(array, dataEnd, a, dataEnd - 2, j);
+            a[dataEnd - 2 + j] = sub;
+            System.arraycopy(array, dataEnd + j, a, dataEnd - 1 + j, array.length - dataEnd - j);
+            return new BitmapNode<>(edit, dataMap ^ bit, nodeMap | bit, a);
+        }
+
+        /**
+         * 把第j个子节点替换为它仅剩的k-v
+         */
+        private BitmapNode<K, V> copyAndMigrateToInline(Object edit, int bit, int j, K key, V val) {
+            int dataEnd = dataArity() << 1;
+            int i = index(dataMap, bit) << 1;
+            Object[] a = new Object[array.length + 1];
+            System.arraycopy(array, 0, a, 0, i);
+            a[i] = key;
+            a[i + 1] = val;
+            System.arraycopy(array, i, a, i + 2, dataEnd - i);
+            System.arraycopy(array, dataEnd, a, dataEnd + 2, j);
+            System.arraycopy(array, dataEnd + j + 1, a, dataEnd + 2 + j, array.length - dataEnd - j - 1);
+            return new BitmapNode<>(edit, dataMap | bit, nodeMap ^ bit, a);
+        }
+    }
+
+    /**
+     * 32位hash完全相同的key, 线性查找
+     */
+    static final class CollisionNode<K, V> extends TrieNode<K, V> {
+        final int hash;
+
+        // [k0, v0, k1, v1, ...]
+        final Object[] array;
+
+        CollisionNode(Object edit, int hash, Object[] array) {
+            super(edit);
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (Objects.equals(array[i], key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int dataArity() {
+            return array.length >> 1;
+        }
+
+        @Override
+        int nodeArity() {
+            return 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        K keyAt(int i) {
+            return (K) array[i << 1];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        V valAt(int i) {
+            return (V) array[(i << 1) + 1];
+        }
+
+        @Override
+        TrieNode<K, V> nodeAt(int i) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        Object find(int hash, Object key, int shift) {
+            int i = indexOf(key);
+            return i < 0 ? NOT_FOUND : array[i + 1];
+        }
+
+        @Override
+        TrieNode<K, V> put(Object edit, int hash, K key, V val, int shift, Change change) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                change.oldValue = array[i + 1];
+                if (array[i + 1] == val) {
+                    return this;
+                }
+                if (editable(edit)) {
+                    array[i + 1] = val;
+                    return this;
+                }
+                Object[] a = array.clone();
+                a[i + 1] = val;
+                return new CollisionNode<>(edit, hash, a);
+            }
+            change.added = true;
+            Object[] a = Arrays.copyOf(array, array.length + 2);
+            a[array.length] = key;
+            a[array.length + 1] = val;
+            return new CollisionNode<>(edit, hash, a);
+        }
+
+        @Override
+        TrieNode<K, V> remove(Object edit, int hash, Object key, int shift, Change change) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            change.removed = true;
+            change.oldValue = array[i + 1];
+            Object[] a = new Object[array.length - 2];
+            System.arraycopy(array, 0, a, 0, i);
+            System.arraycopy(array, i + 2, a, i, array.length - i - 2);
+            return new CollisionNode<>(edit, hash, a);
+        }
+    }
+
+    /**
+     * 返回增加或替换了key之后的新版本, 当前版本不变
+     */
+    public PersistentHashMap<K, V> with(K key, V value) {
+        Change change = new Change();
+        TrieNode<K, V> newRoot = root.put(null, MyHashMap.hash(key), key, value, 0, change);
+        return newRoot == root ? this : new PersistentHashMap<>(newRoot, change.added ? size + 1 : size);
+    }
+
+    /**
+     * 返回删除了key之后的新版本, 当前版本不变
+     */
+    public PersistentHashMap<K, V> without(Object key) {
+        Change change = new Change();
+        TrieNode<K, V> newRoot = root.remove(null, MyHashMap.hash(key), key, 0, change);
+        return newRoot == root ? this : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    public Builder<K, V> asTransient() {
+        return new Builder<>(root, size);
+    }
+
+    /**
+     * 可变的批量构建器, 只能在一个线程中使用
+     * 它创建的节点在persistent()之前可以原地修改, persistent()之后Builder不能再使用
+     */
+    public static final class Builder<K, V> {
+        private Object edit = new Object();
+
+        private TrieNode<K, V> root;
+
+        private int size;
+
+        Builder(TrieNode<K, V> root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        private void ensureEditable() {
+            if (edit == null) {
+                throw new IllegalStateException("Builder used after persistent()");
+            }
+        }
+
+        public Builder<K, V> put(K key, V value) {
+            ensureEditable();
+            Change change = new Change();
+            root = root.put(edit, MyHashMap.hash(key), key, value, 0, change);
+            if (change.added) {
+                size++;
+            }
+            return this;
+        }
+
+        public Builder<K, V> remove(Object key) {
+            ensureEditable();
+            Change change = new Change();
+            root = root.remove(edit, MyHashMap.hash(key), key, 0, change);
+            if (change.removed) {
+                size--;
+            }
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            ensureEditable();
+            Object v = root.find(MyHashMap.hash(key), key, 0);
+            return v == NOT_FOUND ? null : (V) v;
+        }
+
+        public int size() {
+            ensureEditable();
+            return size;
+        }
+
+        public PersistentHashMap<K, V> persistent() {
+            ensureEditable();
+            edit = null;
+            return new PersistentHashMap<>(root, size);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root.find(MyHashMap.hash(key), key, 0) != NOT_FOUND;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (V v : values()) {
+            if (Objects.equals(v, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Object v = root.find(MyHashMap.hash(key), key, 0);
+        return v == NOT_FOUND ? null : (V) v;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException("Use with()");
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException("Use without()");
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new TrieIterator<K>() {
+                    @Override
+                    K element(TrieNode<K, V> node, int i) {
+                        return node.keyAt(i);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new TrieIterator<V>() {
+                    @Override
+                    V element(TrieNode<K, V> node, int i) {
+                        return node.valAt(i);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new TrieIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(TrieNode<K, V> node, int i) {
+                        return new AbstractMap.SimpleImmutableEntry<>(node.keyAt(i), node.valAt(i));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * 泛型数组不能直接创建, 创建原始类型数组后强转, 数组中只会放入TrieNode<K, V>
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static <K, V> TrieNode<K, V>[] newNodeArray(int n) {
+        return (TrieNode<K, V>[]) new TrieNode[n];
+    }
+
+    /**
+     * 深度优先遍历, 每层先访问本节点的k-v, 再依次进入子节点, 用数组模拟栈
+     */
+    abstract class TrieIterator<E> implements Iterator<E> {
+        final TrieNode<K, V>[] nodes = newNodeArray(MAX_DEPTH);
+
+        final int[] dataCursor = new int[MAX_DEPTH];
+
+        final int[] nodeCursor = new int[MAX_DEPTH];
+
+        int depth;
+
+        TrieNode<K, V> nextNode;
+
+        int nextIndex;
+
+        TrieIterator() {
+            nodes[0] = root;
+            advance();
+        }
+
+        abstract E element(TrieNode<K, V> node, int i);
+
+        private void advance() {
+            while (depth >= 0) {
+                TrieNode<K, V> n = nodes[depth];
+                if (dataCursor[depth] < n.dataArity()) {
+                    nextNode = n;
+                    nextIndex = dataCursor[depth]++;
+                    return;
+                }
+                if (nodeCursor[depth] < n.nodeArity()) {
+                    TrieNode<K, V> child = n.nodeAt(nodeCursor[depth]++);
+                    nodes[++depth] = child;
+                    dataCursor[depth] = nodeCursor[depth] = 0;
+                } else {
+                    nodes[depth--] = null;
+                }
+            }
+            nextNode = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != null;
+        }
+
+        @Override
+        public E next() {
+            if (nextNode == null) {
+                throw new NoSuchElementException();
+            }
+            E e = element(nextNode, nextIndex);
+            advance();
+            return e;
+        }
+    }
+
+    public static void main(String[] args) {
+        final Builder<Integer, Integer> builder = PersistentHashMap.<Integer, Integer>empty().asTransient();
+        for (int i = 0; i < 100000; i++) {
+            builder.put(i, i);
+        }
+        final PersistentHashMap<Integer, Integer> v1 = builder.persistent();
+        // 快照只是一个引用
+        final PersistentHashMap<Integer, Integer> snapshot = v1;
+        PersistentHashMap<Integer, Integer> v2 = v1;
+        for (int i = 0; i < 100000; i += 2) {
+            v2 = v2.without(i);
+        }
+        v2 = v2.with(-1, -1);
+        if (snapshot.size() != 100000 || snapshot.get(0) != 0) throw new VerifyError("snapshot changed");
+        if (v2.size() != 50001 || v2.containsKey(0) || v2.get(1) != 1 || v2.get(-1) != -1) throw new VerifyError("v2");
+
+        final Map<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = empty();
+        final Random r = new Random();
+        for (int i = 0; i < 200000; i++) {
+            int k = r.nextInt(20000);
+            if (r.nextInt(3) == 0) {
+                expected.remove(k);
+                map = map.without(k);
+            } else {
+                expected.put(k, i);
+                map = map.with(k, i);
+            }
+        }
+        if (map.size() != expected.size() || !expected.equals(new HashMap<>(map))) throw new VerifyError("random");
+        System.out.println("success! size: " + map.size());
+    }
+}
@@ -0,0 +1,451 @@
+package com.lcw.datastructure;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * SwissTable风格的开放寻址k-v容器
+ * <p>
+ * 每个槽位对应一个控制字节(ctrl):
+ * EMPTY(0x80)表示空, DELETED(0xFE)表示已删除, 0~127表示有元素, 值为hash的低7位(h2)
+ * hash的高位(h1)决定从哪一组开始探测, 每次探测一组GROUP_WIDTH个控制字节,
+ * 先用h2在组内并行比较, 只有控制字节相等的槽位才去比较key, 大部分不命中的槽位连key都不用读
+ * <p>
+ * 组内比较使用SWAR(把8个控制字节当作一个long做位运算), 一次探测比较16个控制字节
+ */
+public class SwissHashMap<K, V> implements Map<K, V> {
+
+    static final int GROUP_WIDTH = 16;
+
+    static final byte EMPTY = (byte) 0x80;
+
+    static final byte DELETED = (byte) 0xFE;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final Object NULL_KEY = new Object();
+
+    private static final long LSBS = 0x0101010101010101L;
+
+    private static final long MSBS = 0x8080808080808080L;
+
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // 长度为 容量 + GROUP_WIDTH, 末尾GROUP_WIDTH个字节是开头的镜像, 读取跨越末尾的组时不需要回绕
+    byte[] ctrl;
+
+    Object[] keys;
+
+    Object[] vals;
+
+    int size;
+
+    // 还可以插入多少个元素(删除留下的DELETED也会占用), 为0时需要rehash
+    int growthLeft;
+
+    public SwissHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public SwissHashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        int cap = GROUP_WIDTH;
+        while (cap < MAXIMUM_CAPACITY && maxLoad(cap) < initialCapacity) {
+            cap <<= 1;
+        }
+        allocate(cap);
+    }
+
+    /**
+     * 最大负载为 7/8
+     */
+    static int maxLoad(int cap) {
+        return cap - (cap >>> 3);
+    }
+
+    private void allocate(int cap) {
+        ctrl = new byte[cap + GROUP_WIDTH];
+        Arrays.fill(ctrl, EMPTY);
+        keys = new Object[cap];
+        vals = new Object[cap];
+        growthLeft = maxLoad(cap);
+    }
+
+    /**
+     * hash的高25位, 决定探测起点
+     */
+    static int h1(int hash) {
+        return hash >>> 7;
+    }
+
+    /**
+     * hash的低7位, 存放在控制字节中
+     */
+    static byte h2(int hash) {
+        return (byte) (hash & 0x7F);
+    }
+
+    /**
+     * 组内等于b的字节, 每个匹配字节的最高位置1
+     * 可能会有假阳性(紧跟在真匹配之后的字节), 但调用方总会再比较key, 不影响正确性
+     */
+    private static long matchByte(long word, byte b) {
+        long x = word ^ (LSBS * (b & 0xFF));
+        return (x - LSBS) & ~x & MSBS;
+    }
+
+    /**
+     * 组内为EMPTY的字节: 最高位为1且第1位为0
+     */
+    private static long matchEmpty(long word) {
+        return word & (~word << 6) & MSBS;
+    }
+
+    /**
+     * 组内为EMPTY或DELETED的字节: 最高位为1
+     */
+    private static long matchEmptyOrDeleted(long word) {
+        return word & MSBS;
+    }
+
+    private static long wordAt(byte[] c, int i) {
+        return (long) LONG_VIEW.get(c, i);
+    }
+
+    private void setCtrl(int i, byte h) {
+        ctrl[i] = h;
+        // 开头的GROUP_WIDTH个字节需要同步到末尾的镜像
+        if (i < GROUP_WIDTH) {
+            ctrl[keys.length + i] = h;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        byte[] c = ctrl;
+        for (int i = 0; i < keys.length; i++) {
+            if (c[i] >= 0 && Objects.equals(value, vals[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = find(key);
+        return i >= 0 ? (V) vals[i] : null;
+    }
+
+    /**
+     * 查找key所在的槽位
+     *
+     * @return 槽位索引, 不存在返回-1
+     */
+    int find(Object key) {
+        int hash = MyHashMap.hash(key);
+        Object k = key == null ? NULL_KEY : key;
+        byte tag = h2(hash);
+        byte[] c = ctrl;
+        Object[] ks = keys;
+        int mask = ks.length - 1;
+        int pos = h1(hash) & mask;
+        for (int stride = 0; stride <= mask; ) {
+            for (int w = 0; w < GROUP_WIDTH; w += 8) {
+                long word = wordAt(c, pos + w);
+                for (long m = matchByte(word, tag); m != 0; m &= m - 1) {
+                    int i = (pos + w + (Long.numberOfTrailingZeros(m) >>> 3)) & mask;
+                    Object sk = ks[i];
+                    if (sk == k || (c[i] == tag && k.equals(sk))) {
+                        return i;
+                    }
+                }
+                // 组内有EMPTY, 说明探测序列到此结束
+                if (matchEmpty(word) != 0) {
+                    return -1;
+                }
+            }
+            stride += GROUP_WIDTH;
+            pos = (pos + stride) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 找到第一个EMPTY或DELETED的槽位
+     */
+    private int findInsertSlot(int hash) {
+        byte[] c = ctrl;
+        int mask = keys.length - 1;
+        int pos = h1(hash) & mask;
+        for (int stride = 0; ; ) {
+            for (int w = 0; w < GROUP_WIDTH; w += 8) {
+                long m = matchEmptyOrDeleted(wordAt(c, pos + w));
+                if (m != 0) {
+                    return (pos + w + (Long.numberOfTrailingZeros(m) >>> 3)) & mask;
+                }
+            }
+            stride += GROUP_WIDTH;
+            pos = (pos + stride) & mask;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int i = find(key);
+        if (i >= 0) {
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+        int hash = MyHashMap.hash(key);
+        i = findInsertSlot(hash);
+        // 占用EMPTY会消耗growthLeft, 复用DELETED不会
+        if (growthLeft == 0 && ctrl[i] == EMPTY) {
+            rehash();
+            i = findInsertSlot(hash);
+        }
+        if (ctrl[i] == EMPTY) {
+            growthLeft--;
+        }
+        setCtrl(i, h2(hash));
+        keys[i] = key == null ? NULL_KEY : key;
+        vals[i] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * growthLeft耗尽时调用: DELETED较多时原地大小重建即可清除它们, 否则容量扩大一倍
+     */
+    private void rehash() {
+        Object[] oldKeys = keys;
+        Object[] oldVals = vals;
+        byte[] oldCtrl = ctrl;
+        int oldCap = oldKeys.length;
+        int newCap = size < maxLoad(oldCap) / 2 ? oldCap : oldCap << 1;
+        if (newCap > MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Capacity exceeded");
+        }
+        allocate(newCap);
+        for (int j = 0; j < oldCap; j++) {
+            if (oldCtrl[j] >= 0) {
+                Object k = oldKeys[j];
+                int hash = MyHashMap.hash(k == NULL_KEY ? null : k);
+                int i = findInsertSlot(hash);
+                setCtrl(i, h2(hash));
+                keys[i] = k;
+                vals[i] = oldVals[j];
+                growthLeft--;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        V oldValue = (V) vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    private void removeAt(int i) {
+        // 查找遇到含EMPTY的8字节就会停止, 如果包含i的任意8字节窗口里都有EMPTY,
+        // 说明没有查找越过i继续探测, 可以直接置为EMPTY, 否则只能置为DELETED
+        int mask = keys.length - 1;
+        long after = matchEmpty(wordAt(ctrl, i));
+        long before = matchEmpty(wordAt(ctrl, (i - 8) & mask));
+        // i(含)之后与i之前连续的非EMPTY字节数
+        int fullAfter = after != 0 ? Long.numberOfTrailingZeros(after) >>> 3 : 8;
+        int fullBefore = before != 0 ? Long.numberOfLeadingZeros(before) >>> 3 : 8;
+        if (fullAfter + fullBefore < 8) {
+            setCtrl(i, EMPTY);
+            growthLeft++;
+        } else {
+            setCtrl(i, DELETED);
+        }
+        keys[i] = null;
+        vals[i] = null; // help gc
+        size--;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (size > 0 || growthLeft != maxLoad(keys.length)) {
+            size = 0;
+            Arrays.fill(ctrl, EMPTY);
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+            growthLeft = maxLoad(keys.length);
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    K element(int i) {
+                        Object k = keys[i];
+                        return k == NULL_KEY ? null : (K) k;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    V element(int i) {
+                        return (V) vals[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<Entry<K, V>> iterator() {
+                return new SlotIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(int i) {
+                        Object k = keys[i];
+                        return new WriteThroughEntry<>(SwissHashMap.this, k == NULL_KEY ? null : (K) k, (V) vals[i]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * 按槽位顺序遍历有元素的槽位, 支持通过迭代器删除(删除只修改控制字节, 不移动元素)
+     */
+    abstract class SlotIterator<E> implements Iterator<E> {
+        int next = -1;
+
+        int last = -1;
+
+        SlotIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                next++;
+            } while (next < keys.length && ctrl[next] < 0);
+        }
+
+        abstract E element(int i);
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E e = element(last = next);
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            last = -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        final SwissHashMap<Integer, Integer> map = new SwissHashMap<>();
+        final HashMap<Integer, Integer> expected = new HashMap<>();
+        final Random r = new Random();
+        for (int i = 0; i < 1000000; i++) {
+            int k = r.nextInt(100000);
+            if (r.nextInt(3) == 0) {
+                if (!Objects.equals(map.remove(k), expected.remove(k))) throw new VerifyError("remove");
+            } else {
+                if (!Objects.equals(map.put(k, i), expected.put(k, i))) throw new VerifyError("put");
+            }
+        }
+        expected.forEach((k, v) -> {
+            if (!v.equals(map.get(k))) throw new VerifyError("get");
+        });
+        if (map.size() != expected.size()) throw new VerifyError("size");
+        System.out.println("success! size: " + map.size());
+    }
+}
@@ -0,0 +1,60 @@
+package com.lcw.datastructure;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 没有Node可以直接修改的map在遍历时返回的entry, setValue通过map.put写回, 与ConcurrentHashMap.MapEntry相同
+ * <p>
+ * put的key已经存在, 不会改变map的结构, 所以遍历过程中调用setValue(以及基于它的Map.replaceAll)是安全的
+ */
+public final class WriteThroughEntry<K, V> implements Map.Entry<K, V> {
+    final Map<K, V> map;
+
+    final K key;
+
+    V val;
+
+    public WriteThroughEntry(Map<K, V> map, K key, V val) {
+        this.map = map;
+        this.key = key;
+        this.val = val;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return val;
+    }
+
+    @Override
+    public V setValue(V value) {
+        V oldVal = val;
+        map.put(key, value);
+        val = value;
+        return oldVal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Map.Entry)) {
+            return false;
+        }
+        Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+        return Objects.equals(key, e.getKey()) && Objects.equals(val, e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key) ^ Objects.hashCode(val);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + val;
+    }
+}
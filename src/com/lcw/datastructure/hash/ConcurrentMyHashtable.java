@@ -0,0 +1,724 @@
+package com.lcw.datastructure.hash;
+
+import com.lcw.datastructure.WriteThroughEntry;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 线程安全的拉链法k-v容器, 结构与MyHashtable一致
+ * <p>
+ * 1. 读不加锁: 槽位头节点通过VarHandle以volatile语义读取, 节点的val与next都是volatile
+ * 2. 写只锁槽位头节点, 空槽位直接CAS
+ * 3. 扩容时多个线程各自领取一段槽位(stride)迁移, 迁移完的槽位放一个ForwardingNode指向新表
+ * 4. size使用LongAdder计数, 避免所有写线程竞争同一个变量
+ * <p>
+ * 与ConcurrentHashMap一样, key和value都不允许为null
+ */
+public class ConcurrentMyHashtable<K, V> implements Map<K, V> {
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75F;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // 每个线程一次至少领取的槽位数量
+    static final int MIN_TRANSFER_STRIDE = 16;
+
+    // ForwardingNode的hash值, 普通节点的hash都会被HASH_BITS清掉符号位
+    static final int MOVED = -1;
+
+    static final int HASH_BITS = 0x7fffffff;
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    volatile Node<K, V>[] table;
+
+    // 当前正在进行的扩容, 没有扩容时为null
+    volatile Transfer<K, V> transfer;
+
+    // 扩容阈值 = 容量 * 负载因子
+    volatile int threshold;
+
+    // 负载因子
+    final float loadFactor;
+
+    final LongAdder count = new LongAdder();
+
+    private static final VarHandle TAB;
+    private static final VarHandle TABLE;
+    private static final VarHandle TRANSFER;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            TAB = MethodHandles.arrayElementVarHandle(Node[].class);
+            TABLE = l.findVarHandle(ConcurrentMyHashtable.class, "table", Node[].class);
+            TRANSFER = l.findVarHandle(ConcurrentMyHashtable.class, "transfer", Transfer.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public ConcurrentMyHashtable() {
+        this(DEFAULT_LOAD_FACTOR);
+    }
+
+    public ConcurrentMyHashtable(float loadFactor) {
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        this.threshold = (int) (loadFactor * DEFAULT_INITIAL_CAPACITY);
+    }
+
+    static class Node<K, V> implements Map.Entry<K, V> {
+        final int hash;
+
+        final K key;
+
+        volatile V val;
+
+        volatile Node<K, V> next;
+
+        Node(int hash, K key, V val, Node<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.val = val;
+            this.next = next;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return val;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * 从当前节点开始沿链表查找
+         */
+        Node<K, V> find(int h, Object k) {
+            Node<K, V> e = this;
+            do {
+                K ek;
+                if (e.hash == h && ((ek = e.key) == k || k.equals(ek))) {
+                    return e;
+                }
+            } while ((e = e.next) != null);
+            return null;
+        }
+    }
+
+    /**
+     * 迁移完成的槽位上放置的节点, 读写遇到它就转到新表上操作
+     */
+    static final class ForwardingNode<K, V> extends Node<K, V> {
+        final Node<K, V>[] nextTable;
+
+        ForwardingNode(Node<K, V>[] nextTable) {
+            super(MOVED, null, null, null);
+            this.nextTable = nextTable;
+        }
+
+        @Override
+        Node<K, V> find(int h, Object k) {
+            Node<K, V>[] tab = nextTable;
+            // 新表上的槽位也可能被下一次扩容迁移走, 所以需要循环
+            while (true) {
+                Node<K, V> e = tabAt(tab, (tab.length - 1) & h);
+                if (e == null) {
+                    return null;
+                }
+                if (e instanceof ForwardingNode) {
+                    tab = ((ForwardingNode<K, V>) e).nextTable;
+                    continue;
+                }
+                return e.find(h, k);
+            }
+        }
+    }
+
+    /**
+     * 一次扩容的状态, 每次扩容都是一个新对象, 避免帮助迁移的线程把数据搬到过期的新表
+     */
+    static final class Transfer<K, V> {
+        final Node<K, V>[] tab;
+
+        // 由发起扩容的线程分配, 为null时其他线程暂时不能帮忙
+        volatile Node<K, V>[] nextTab;
+
+        // 下一个可以领取的槽位上界, 从tab.length开始向0递减
+        final AtomicInteger transferIndex;
+
+        // 已迁移完成的槽位数量, 等于tab.length时扩容结束
+        final AtomicInteger migrated = new AtomicInteger();
+
+        Transfer(Node<K, V>[] tab) {
+            this.tab = tab;
+            this.transferIndex = new AtomicInteger(tab.length);
+        }
+    }
+
+    static int spread(Object key) {
+        return MyHashtable.hash(key) & HASH_BITS;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> Node<K, V> tabAt(Node<K, V>[] tab, int i) {
+        return (Node<K, V>) TAB.getVolatile(tab, i);
+    }
+
+    static <K, V> boolean casTabAt(Node<K, V>[] tab, int i, Node<K, V> c, Node<K, V> v) {
+        return TAB.compareAndSet(tab, i, c, v);
+    }
+
+    static <K, V> void setTabAt(Node<K, V>[] tab, int i, Node<K, V> v) {
+        TAB.setVolatile(tab, i, v);
+    }
+
+    /**
+     * 泛型数组不能直接创建, 创建原始类型数组后强转, 数组中只会放入Node<K, V>
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static <K, V> Node<K, V>[] newTable(int n) {
+        return (Node<K, V>[]) new Node[n];
+    }
+
+    @Override
+    public int size() {
+        long n = count.sum();
+        return n < 0 ? 0 : (n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count.sum() <= 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        for (Traverser<K, V> it = new Traverser<>(table); it.hasNext(); ) {
+            V v = it.next().val;
+            if (v == value || value.equals(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读操作不加锁
+     */
+    @Override
+    public V get(Object key) {
+        Node<K, V>[] tab;
+        Node<K, V> e;
+        int n;
+        int h = spread(key);
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+                (e = tabAt(tab, (n - 1) & h)) != null) {
+            if ((e = e.find(h, key)) != null) {
+                return e.val;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    /**
+     * 将给定key-val存入map
+     *
+     * @param onlyIfAbsent 为true表示只有在不存在的时候才存入map
+     */
+    final V putVal(K key, V val, boolean onlyIfAbsent) {
+        if (key == null || val == null) {
+            throw new NullPointerException();
+        }
+        int hash = spread(key);
+        for (Node<K, V>[] tab = table; ; ) {
+            Node<K, V> f;
+            int n, i;
+            if (tab == null || (n = tab.length) == 0) {
+                tab = initTable();
+            } else if ((f = tabAt(tab, i = (n - 1) & hash)) == null) {
+                // 空槽位, CAS放入, 失败说明有其他线程抢先, 重试
+                if (casTabAt(tab, i, null, new Node<>(hash, key, val, null))) {
+                    break;
+                }
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, (ForwardingNode<K, V>) f);
+            } else {
+                V oldVal = null;
+                boolean added = false;
+                synchronized (f) {
+                    // 加锁后再确认头节点没有变, 否则可能已经被迁移或删除
+                    if (tabAt(tab, i) == f) {
+                        for (Node<K, V> e = f; ; ) {
+                            K ek;
+                            if (e.hash == hash && ((ek = e.key) == key || key.equals(ek))) {
+                                oldVal = e.val;
+                                if (!onlyIfAbsent) {
+                                    e.val = val;
+                                }
+                                break;
+                            }
+                            Node<K, V> pred = e;
+                            if ((e = e.next) == null) {
+                                pred.next = new Node<>(hash, key, val, null);
+                                added = true;
+                                break;
+                            }
+                        }
+                    } else {
+                        continue;
+                    }
+                }
+                if (!added) {
+                    return oldVal;
+                }
+                break;
+            }
+        }
+        addCount(1);
+        return null;
+    }
+
+    private Node<K, V>[] initTable() {
+        Node<K, V>[] tab;
+        while ((tab = table) == null) {
+            TABLE.compareAndSet(this, null, newTable(DEFAULT_INITIAL_CAPACITY));
+        }
+        return tab;
+    }
+
+    /**
+     * 计数, 达到扩容阈值时发起或参与扩容
+     */
+    private void addCount(long x) {
+        count.add(x);
+        if (x > 0) {
+            Node<K, V>[] tab;
+            Transfer<K, V> t;
+            // 槽位都被领取完时不再自旋等待, 由正在迁移的线程完成收尾
+            while (count.sum() >= threshold && (tab = table) != null &&
+                    tab.length < MAXIMUM_CAPACITY && (t = startTransfer(tab)) != null &&
+                    t.transferIndex.get() > 0) {
+                transfer(t);
+            }
+        }
+    }
+
+    /**
+     * 发起对tab的扩容, 如果已经有线程在扩容tab就加入
+     *
+     * @return 扩容状态, tab已经过期或者别的扩容还没结束时返回null
+     */
+    private Transfer<K, V> startTransfer(Node<K, V>[] tab) {
+        Transfer<K, V> t = transfer;
+        if (t != null) {
+            return t.tab == tab ? t : null;
+        }
+        if (table != tab) {
+            return null;
+        }
+        t = new Transfer<>(tab);
+        if (!TRANSFER.compareAndSet(this, null, t)) {
+            return null;
+        }
+        // CAS成功后再检查一次, 防止table在上面两次读取之间已经完成了一次扩容
+        if (table != tab) {
+            transfer = null;
+            return null;
+        }
+        t.nextTab = newTable(tab.length << 1);
+        return t;
+    }
+
+    /**
+     * 写操作遇到ForwardingNode时帮助迁移
+     *
+     * @return 需要重试的新表
+     */
+    private Node<K, V>[] helpTransfer(Node<K, V>[] tab, ForwardingNode<K, V> f) {
+        Transfer<K, V> t = transfer;
+        if (t != null && t.tab == tab) {
+            transfer(t);
+        }
+        return f.nextTable;
+    }
+
+    /**
+     * 领取并迁移槽位, 直到没有可领取的槽位
+     */
+    private void transfer(Transfer<K, V> t) {
+        Node<K, V>[] tab = t.tab, nextTab = t.nextTab;
+        if (nextTab == null) {
+            return;
+        }
+        int n = tab.length;
+        int stride = Math.max(MIN_TRANSFER_STRIDE, NCPU > 1 ? (n >>> 3) / NCPU : n);
+        ForwardingNode<K, V> fwd = new ForwardingNode<>(nextTab);
+        while (true) {
+            int hi = t.transferIndex.get();
+            if (hi <= 0) {
+                return;
+            }
+            int lo = Math.max(0, hi - stride);
+            if (!t.transferIndex.compareAndSet(hi, lo)) {
+                continue;
+            }
+            for (int i = hi - 1; i >= lo; i--) {
+                migrate(tab, nextTab, i, fwd);
+            }
+            // 最后一个完成迁移的线程负责发布新表
+            if (t.migrated.addAndGet(hi - lo) == n) {
+                int newCap = n << 1;
+                float ft = newCap * loadFactor;
+                threshold = (newCap < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+                table = nextTab;
+                transfer = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 迁移一个槽位, 拆分方式与MyHashtable.resize的lo hi链表相同
+     * 区别是旧链表上可能还有不加锁的读线程在遍历, 不能修改旧节点的next,
+     * 所以只复用尾部连续落在同一侧的一段(lastRun), 前面的节点复制一份
+     */
+    private void migrate(Node<K, V>[] tab, Node<K, V>[] nextTab, int i, ForwardingNode<K, V> fwd) {
+        int n = tab.length;
+        while (true) {
+            Node<K, V> f = tabAt(tab, i);
+            if (f == null) {
+                if (casTabAt(tab, i, null, fwd)) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (f) {
+                if (tabAt(tab, i) != f) {
+                    continue;
+                }
+                int runBit = f.hash & n;
+                Node<K, V> lastRun = f;
+                for (Node<K, V> p = f.next; p != null; p = p.next) {
+                    int b = p.hash & n;
+                    if (b != runBit) {
+                        runBit = b;
+                        lastRun = p;
+                    }
+                }
+                Node<K, V> ln, hn;
+                if (runBit == 0) {
+                    ln = lastRun;
+                    hn = null;
+                } else {
+                    hn = lastRun;
+                    ln = null;
+                }
+                for (Node<K, V> p = f; p != lastRun; p = p.next) {
+                    if ((p.hash & n) == 0) {
+                        ln = new Node<>(p.hash, p.key, p.val, ln);
+                    } else {
+                        hn = new Node<>(p.hash, p.key, p.val, hn);
+                    }
+                }
+                setTabAt(nextTab, i, ln);
+                setTabAt(nextTab, i + n, hn);
+                setTabAt(tab, i, fwd);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        int hash = spread(key);
+        for (Node<K, V>[] tab = table; ; ) {
+            Node<K, V> f;
+            int n, i;
+            if (tab == null || (n = tab.length) == 0 ||
+                    (f = tabAt(tab, i = (n - 1) & hash)) == null) {
+                return null;
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, (ForwardingNode<K, V>) f);
+            } else {
+                V oldVal = null;
+                synchronized (f) {
+                    if (tabAt(tab, i) != f) {
+                        continue;
+                    }
+                    for (Node<K, V> e = f, pred = null; e != null; pred = e, e = e.next) {
+                        K ek;
+                        if (e.hash == hash && ((ek = e.key) == key || key.equals(ek))) {
+                            oldVal = e.val;
+                            if (pred == null) {
+                                setTabAt(tab, i, e.next);
+                            } else {
+                                pred.next = e.next;
+                            }
+                            break;
+                        }
+                    }
+                }
+                if (oldVal != null) {
+                    addCount(-1);
+                }
+                return oldVal;
+            }
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            putVal(e.getKey(), e.getValue(), false);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long delta = 0;
+        int i = 0;
+        Node<K, V>[] tab = table;
+        while (tab != null && i < tab.length) {
+            Node<K, V> f = tabAt(tab, i);
+            if (f == null) {
+                ++i;
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, (ForwardingNode<K, V>) f);
+                i = 0;
+            } else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        for (Node<K, V> p = f; p != null; p = p.next) {
+                            --delta;
+                        }
+                        setTabAt(tab, i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0) {
+            count.add(delta);
+        }
+    }
+
+    /**
+     * 弱一致性的遍历, 遇到ForwardingNode时到新表对应的两个槽位(i 和 i + n)继续遍历
+     */
+    static final class Traverser<K, V> implements Iterator<Node<K, V>> {
+        private final Node<K, V>[] base;
+
+        private int baseIndex;
+
+        // 待遍历的新表槽位
+        private final Deque<Node<K, V>[]> pendingTabs = new ArrayDeque<>();
+
+        private final Deque<Integer> pendingIndexes = new ArrayDeque<>();
+
+        private Node<K, V> next;
+
+        Traverser(Node<K, V>[] base) {
+            this.base = base;
+            advance();
+        }
+
+        private void advance() {
+            Node<K, V> e = next == null ? null : next.next;
+            while (e == null) {
+                Node<K, V>[] tab;
+                int i;
+                if (!pendingTabs.isEmpty()) {
+                    tab = pendingTabs.pop();
+                    i = pendingIndexes.pop();
+                } else if (base != null && baseIndex < base.length) {
+                    tab = base;
+                    i = baseIndex++;
+                } else {
+                    next = null;
+                    return;
+                }
+                e = tabAt(tab, i);
+                if (e instanceof ForwardingNode) {
+                    Node<K, V>[] nt = ((ForwardingNode<K, V>) e).nextTable;
+                    pendingTabs.push(nt);
+                    pendingIndexes.push(i + tab.length);
+                    pendingTabs.push(nt);
+                    pendingIndexes.push(i);
+                    e = null;
+                }
+            }
+            next = e;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Node<K, V> next() {
+            Node<K, V> e = next;
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return e;
+        }
+    }
+
+    abstract class BaseIterator<E> implements Iterator<E> {
+        final Traverser<K, V> it = new Traverser<>(table);
+
+        Node<K, V> lastReturned;
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        Node<K, V> nextNode() {
+            return lastReturned = it.next();
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            ConcurrentMyHashtable.this.remove(lastReturned.key);
+            lastReturned = null;
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new BaseIterator<K>() {
+                    @Override
+                    public K next() {
+                        return nextNode().key;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentMyHashtable.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new BaseIterator<V>() {
+                    @Override
+                    public V next() {
+                        return nextNode().val;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentMyHashtable.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new BaseIterator<Entry<K, V>>() {
+                    @Override
+                    public Entry<K, V> next() {
+                        Node<K, V> e = nextNode();
+                        return new WriteThroughEntry<>(ConcurrentMyHashtable.this, e.key, e.val);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ConcurrentMyHashtable.this.size();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        final ConcurrentMyHashtable<Integer, Integer> map = new ConcurrentMyHashtable<>();
+        final int threads = 8, perThread = 100000;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            pool.execute(() -> {
+                for (int i = base; i < base + perThread; i++) {
+                    map.put(i, i);
+                }
+                for (int i = base; i < base + perThread; i += 2) {
+                    map.remove(i);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        if (map.size() != threads * perThread / 2) throw new Exception("size: " + map.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            if ((i % 2 == 0) == map.containsKey(i)) throw new Exception("key: " + i);
+        }
+        int n = 0;
+        for (Integer ignored : map.keySet()) n++;
+        if (n != map.size()) throw new Exception("iterate: " + n);
+        System.out.println("success! size: " + map.size());
+    }
+}
@@ -0,0 +1,839 @@
+package com.lcw.datastructure.hash;
+
+import com.lcw.datastructure.WriteThroughEntry;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 桶化的cuckoo hash, 适合读远多于写的场景
+ * <p>
+ * 1. 每个key只可能在两个桶中, 两个桶的下标都由hash()计算得到, 每个桶有4个槽位, 查找最多检查8个槽位
+ * 2. 桶的元数据(版本号 + 4个槽位的hash)在meta数组中连续存放, 一次查找只会读两个桶各自连续的32字节元数据,
+ * hash相等时才会读取对应槽位的key (int[]的起始地址没有按cache line对齐, 一个桶的元数据可能跨两个cache line)
+ * 3. 读不加锁: 每个桶有一个版本号(seqlock), 写之前改为奇数, 写完改为偶数, 读完后版本号没变才认为读到的结果有效
+ * 4. 写操作通过一把锁串行执行, 两个桶都满时通过BFS寻找一条最短的踢出路径, 从路径末尾开始逐个把元素挪到它的另一个桶
+ * 5. 找不到踢出路径时放入每张表的stash, stash达到STASH_SIZE且桶中元素超过一半槽位时才扩容为两倍;
+ * 大量key的hash完全相同时扩容也放不下, 桶还不到半满时说明是hash冲突, stash继续增长而不是扩容, 不会无限扩容也不会抛出异常
+ * <p>
+ * 与ConcurrentHashMap一样, key和value都不允许为null
+ */
+public class CuckooHashMap<K, V> implements Map<K, V> {
+
+    // 每个桶的槽位数量
+    static final int SLOTS = 4;
+
+    // 每个桶在meta中占 1 << META_SHIFT 个int: [版本号, 4个槽位的hash, 3个int填充]
+    static final int META_SHIFT = 3;
+
+    // 每个桶在entries中占 1 << ENTRY_SHIFT 个引用: [k0, v0, k1, v1, k2, v2, k3, v3]
+    static final int ENTRY_SHIFT = 3;
+
+    static final int DEFAULT_INITIAL_BUCKETS = 4;
+
+    static final int MAXIMUM_BUCKETS = 1 << 26;
+
+    // BFS最多搜索的桶数量, 超过后认为找不到踢出路径
+    static final int MAX_BFS_BUCKETS = 512;
+
+    // 踢出路径的最大长度
+    static final int MAX_PATH_LENGTH = 5;
+
+    // stash达到该数量, 并且桶中元素超过一半槽位时扩容
+    static final int STASH_SIZE = 8;
+
+    // 用于第二个桶下标的黄金分割常数
+    static final int GOLDEN = 0x9E3779B9;
+
+    static final class Table {
+        final int[] meta;
+
+        final Object[] entries;
+
+        // 桶数量 - 1
+        final int mask;
+
+        // 32 - log2(桶数量), 用于从hash的高位计算第二个桶
+        final int shift;
+
+        // 两个桶都放不下的元素, 写时复制, 读线程不需要检查版本号
+        // 一个key只会在桶中或stash中的一处, 踢出时不会进出stash
+        volatile Stash stash = Stash.EMPTY;
+
+        Table(int buckets) {
+            this.meta = new int[buckets << META_SHIFT];
+            this.entries = new Object[buckets << ENTRY_SHIFT];
+            this.mask = buckets - 1;
+            this.shift = 32 - Integer.numberOfTrailingZeros(buckets);
+        }
+
+        int buckets() {
+            return mask + 1;
+        }
+
+        /**
+         * 第一个桶取hash的低位
+         */
+        int index1(int h) {
+            return h & mask;
+        }
+
+        /**
+         * 第二个桶取 hash * GOLDEN 的高位, 与第一个桶相互独立, 相同时取相邻的桶
+         */
+        int index2(int h) {
+            int i = (h * GOLDEN) >>> shift;
+            return i == (h & mask) ? i ^ 1 : i;
+        }
+
+        /**
+         * hash为h的元素当前在桶b中, 返回它的另一个桶
+         */
+        int alternate(int h, int b) {
+            int i = index1(h);
+            return i == b ? index2(h) : i;
+        }
+    }
+
+    /**
+     * 按hash排序的溢出表, 不可变, 修改时复制一份新的
+     * <p>
+     * 先二分查找hash, 只比较hash相同的key, 大量hash相同的key只会拖慢它们自己, 其他key查找stash是O(log n)
+     */
+    static final class Stash {
+        static final Stash EMPTY = new Stash(new int[0], new Object[0]);
+
+        final int[] hashes;
+
+        // [k0, v0, k1, v1, ...], 与hashes一一对应
+        final Object[] entries;
+
+        Stash(int[] hashes, Object[] entries) {
+            this.hashes = hashes;
+            this.entries = entries;
+        }
+
+        int size() {
+            return hashes.length;
+        }
+
+        /**
+         * 第一个hash不小于h的位置
+         */
+        int lowerBound(int h) {
+            int lo = 0, hi = hashes.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (hashes[mid] < h) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * @return key的位置, 没有找到返回-1
+         */
+        int indexOf(int h, Object key) {
+            for (int i = lowerBound(h); i < hashes.length && hashes[i] == h; i++) {
+                Object k = entries[i << 1];
+                if (k == key || key.equals(k)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Object valueAt(int i) {
+            return entries[(i << 1) + 1];
+        }
+
+        Stash with(int h, Object key, Object val) {
+            int n = hashes.length, i = lowerBound(h);
+            int[] hs = new int[n + 1];
+            Object[] es = new Object[(n + 1) << 1];
+            System.arraycopy(hashes, 0, hs, 0, i);
+            System.arraycopy(hashes, i, hs, i + 1, n - i);
+            System.arraycopy(entries, 0, es, 0, i << 1);
+            System.arraycopy(entries, i << 1, es, (i + 1) << 1, (n - i) << 1);
+            hs[i] = h;
+            es[i << 1] = key;
+            es[(i << 1) + 1] = val;
+            return new Stash(hs, es);
+        }
+
+        Stash withValue(int i, Object val) {
+            Object[] es = entries.clone();
+            es[(i << 1) + 1] = val;
+            return new Stash(hashes, es);
+        }
+
+        Stash without(int i) {
+            int n = hashes.length;
+            if (n == 1) {
+                return EMPTY;
+            }
+            int[] hs = new int[n - 1];
+            Object[] es = new Object[(n - 1) << 1];
+            System.arraycopy(hashes, 0, hs, 0, i);
+            System.arraycopy(hashes, i + 1, hs, i, n - i - 1);
+            System.arraycopy(entries, 0, es, 0, i << 1);
+            System.arraycopy(entries, (i + 1) << 1, es, i << 1, (n - i - 1) << 1);
+            return new Stash(hs, es);
+        }
+    }
+
+    volatile Table table;
+
+    // 只在持有lock时修改
+    volatile int size;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    private static final VarHandle META = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    public CuckooHashMap() {
+        this(DEFAULT_INITIAL_BUCKETS * SLOTS);
+    }
+
+    /**
+     * @param initialCapacity 预期的元素数量
+     */
+    public CuckooHashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        int buckets = MyHashtable.tableSizeFor((initialCapacity + SLOTS - 1) / SLOTS);
+        this.table = new Table(Math.min(Math.max(buckets, DEFAULT_INITIAL_BUCKETS), MAXIMUM_BUCKETS));
+    }
+
+    static int hash(Object key) {
+        return MyHashtable.hash(key);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        for (V v : values()) {
+            if (v == value || value.equals(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读操作不加锁, 先读两个桶的版本号, 查找完后版本号都没有变化才返回, 否则重试
+     * 写线程只会短暂持有奇数版本号, 所以读线程自旋等待即可
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int h = hash(Objects.requireNonNull(key));
+        for (; ; ) {
+            Table t = table;
+            int b1 = t.index1(h), b2 = t.index2(h);
+            int v1 = version(t, b1), v2 = version(t, b2);
+            if (((v1 | v2) & 1) == 0) {
+                Object val = find(t, b1, h, key);
+                if (val == null) {
+                    val = find(t, b2, h, key);
+                }
+                VarHandle.loadLoadFence();
+                if ((int) META.getOpaque(t.meta, b1 << META_SHIFT) == v1 &&
+                        (int) META.getOpaque(t.meta, b2 << META_SHIFT) == v2) {
+                    if (val == null) {
+                        Stash st = t.stash;
+                        int i = st.indexOf(h, key);
+                        return i < 0 ? null : (V) st.valueAt(i);
+                    }
+                    return (V) val;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static int version(Table t, int b) {
+        return (int) META.getAcquire(t.meta, b << META_SHIFT);
+    }
+
+    /**
+     * 在桶b中查找key, 只有hash相等时才读key
+     *
+     * @return 找到返回value, 否则返回null
+     */
+    private static Object find(Table t, int b, int h, Object key) {
+        int m = b << META_SHIFT;
+        for (int s = 0; s < SLOTS; s++) {
+            if (t.meta[m + 1 + s] == h) {
+                int e = (b << ENTRY_SHIFT) + (s << 1);
+                Object k = ENTRIES.getAcquire(t.entries, e);
+                if (k != null && (k == key || key.equals(k))) {
+                    return ENTRIES.getAcquire(t.entries, e + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 持有锁时在桶b中查找key所在的槽位
+     *
+     * @return 没有找到返回-1
+     */
+    private static int slotOf(Table t, int b, int h, Object key) {
+        int m = b << META_SHIFT;
+        for (int s = 0; s < SLOTS; s++) {
+            if (t.meta[m + 1 + s] == h) {
+                Object k = t.entries[(b << ENTRY_SHIFT) + (s << 1)];
+                if (k != null && (k == key || key.equals(k))) {
+                    return s;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int emptySlot(Table t, int b) {
+        for (int s = 0; s < SLOTS; s++) {
+            if (t.entries[(b << ENTRY_SHIFT) + (s << 1)] == null) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 开始修改桶b, 版本号改为奇数, 之后的写不能重排到它前面
+     */
+    private static void beginWrite(Table t, int b) {
+        int m = b << META_SHIFT;
+        META.setOpaque(t.meta, m, t.meta[m] + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * 结束修改桶b, 版本号改为偶数, 之前的写不能重排到它后面
+     */
+    private static void endWrite(Table t, int b) {
+        int m = b << META_SHIFT;
+        META.setRelease(t.meta, m, t.meta[m] + 1);
+    }
+
+    private static void setSlot(Table t, int b, int s, int h, Object key, Object val) {
+        t.meta[(b << META_SHIFT) + 1 + s] = h;
+        int e = (b << ENTRY_SHIFT) + (s << 1);
+        // release写, 读线程acquire读到key时key对象已经完整构造
+        ENTRIES.setRelease(t.entries, e, key);
+        ENTRIES.setRelease(t.entries, e + 1, val);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    /**
+     * 将给定key-val存入map
+     *
+     * @param onlyIfAbsent 为true表示只有在不存在的时候才存入map
+     */
+    @SuppressWarnings("unchecked")
+    final V putVal(K key, V val, boolean onlyIfAbsent) {
+        if (key == null || val == null) {
+            throw new NullPointerException();
+        }
+        int h = hash(key);
+        lock.lock();
+        try {
+            for (; ; ) {
+                Table t = table;
+                int b1 = t.index1(h), b2 = t.index2(h);
+                int b = b1, s;
+                if ((s = slotOf(t, b1, h, key)) < 0) {
+                    s = slotOf(t, b = b2, h, key);
+                }
+                // key已经存在, 替换value
+                if (s >= 0) {
+                    int e = (b << ENTRY_SHIFT) + (s << 1) + 1;
+                    V oldVal = (V) t.entries[e];
+                    if (!onlyIfAbsent) {
+                        beginWrite(t, b);
+                        ENTRIES.setRelease(t.entries, e, val);
+                        endWrite(t, b);
+                    }
+                    return oldVal;
+                }
+                Stash st = t.stash;
+                int i = st.indexOf(h, key);
+                if (i >= 0) {
+                    V oldVal = (V) st.valueAt(i);
+                    if (!onlyIfAbsent) {
+                        t.stash = st.withValue(i, val);
+                    }
+                    return oldVal;
+                }
+                // 两个桶中有空槽位, 直接写入
+                if ((s = emptySlot(t, b = b1)) >= 0 || (s = emptySlot(t, b = b2)) >= 0) {
+                    beginWrite(t, b);
+                    setSlot(t, b, s, h, key, val);
+                    endWrite(t, b);
+                    size++;
+                    return null;
+                }
+                // 两个桶都满了, 踢出一条路径上的元素腾出空槽位后重试, 失败就放入stash, 需要扩容时扩容后重试
+                if (!cuckoo(t, b1, b2)) {
+                    if (!shouldResize(t, st)) {
+                        t.stash = st.with(h, key, val);
+                        size++;
+                        return null;
+                    }
+                    resize();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * stash达到STASH_SIZE, 并且桶中的元素超过一半槽位时才扩容
+     * 桶还不到半满就找不到踢出路径, 说明是大量hash相同的key, 它们在任何容量下都落在同样的两个桶, 扩容没有意义
+     */
+    private boolean shouldResize(Table t, Stash st) {
+        return st.size() >= STASH_SIZE && t.buckets() < MAXIMUM_BUCKETS &&
+                size - st.size() > (t.buckets() * SLOTS) >> 1;
+    }
+
+    /**
+     * 从桶b1, b2开始BFS, 找到一个有空槽位的桶后, 沿路径从后往前把每个元素挪到它的另一个桶,
+     * 最终在b1或b2中腾出一个空槽位
+     * <p>
+     * 每次只挪动一个元素, 元素先写入目标桶再从原来的桶删除, 两个桶的版本号都会变化
+     *
+     * @return 是否腾出了空槽位
+     */
+    private static boolean cuckoo(Table t, int b1, int b2) {
+        // BFS队列: 桶, 父节点在队列中的下标, 从父节点的哪个槽位踢过来, 路径长度
+        int[] buckets = new int[MAX_BFS_BUCKETS];
+        int[] parents = new int[MAX_BFS_BUCKETS];
+        int[] slots = new int[MAX_BFS_BUCKETS];
+        int[] depths = new int[MAX_BFS_BUCKETS];
+        int head = 0, tail = 0;
+        buckets[tail] = b1;
+        parents[tail++] = -1;
+        buckets[tail] = b2;
+        parents[tail++] = -1;
+        while (head < tail) {
+            int node = head++;
+            int b = buckets[node];
+            for (int s = 0; s < SLOTS; s++) {
+                int h = t.meta[(b << META_SHIFT) + 1 + s];
+                int a = t.alternate(h, b);
+                int free = emptySlot(t, a);
+                if (free >= 0) {
+                    // 从路径末尾开始挪动, 每挪动一次, 上一个桶就空出一个槽位
+                    moveSlot(t, b, s, a, free);
+                    for (int n = node; parents[n] >= 0; n = parents[n]) {
+                        moveSlot(t, buckets[parents[n]], slots[n], buckets[n], emptySlot(t, buckets[n]));
+                    }
+                    return true;
+                }
+                // 路径上的桶不能重复, 否则前面的挪动会改变后面要挪动的槽位
+                if (depths[node] + 1 < MAX_PATH_LENGTH && tail < MAX_BFS_BUCKETS && !onPath(buckets, parents, node, a)) {
+                    buckets[tail] = a;
+                    parents[tail] = node;
+                    slots[tail] = s;
+                    depths[tail++] = depths[node] + 1;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean onPath(int[] buckets, int[] parents, int node, int b) {
+        for (int n = node; n >= 0; n = parents[n]) {
+            if (buckets[n] == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把桶from的槽位fs上的元素挪到桶to的空槽位ts
+     */
+    private static void moveSlot(Table t, int from, int fs, int to, int ts) {
+        int e = (from << ENTRY_SHIFT) + (fs << 1);
+        int h = t.meta[(from << META_SHIFT) + 1 + fs];
+        beginWrite(t, to);
+        beginWrite(t, from);
+        setSlot(t, to, ts, h, t.entries[e], t.entries[e + 1]);
+        ENTRIES.setRelease(t.entries, e, null);
+        ENTRIES.setRelease(t.entries, e + 1, null);
+        endWrite(t, from);
+        endWrite(t, to);
+    }
+
+    /**
+     * 扩容为两倍, 在新表上重新插入所有元素(包括stash中的), 新表完整后再发布
+     * 旧表发布后不会再被修改, 正在旧表上读的线程仍然能读到一致的结果
+     */
+    private void resize() {
+        Table old = table;
+        Table nt = new Table(old.buckets() << 1);
+        for (int b = 0; b < old.buckets(); b++) {
+            for (int s = 0; s < SLOTS; s++) {
+                int e = (b << ENTRY_SHIFT) + (s << 1);
+                Object k = old.entries[e];
+                if (k != null) {
+                    place(nt, old.meta[(b << META_SHIFT) + 1 + s], k, old.entries[e + 1]);
+                }
+            }
+        }
+        Stash st = old.stash;
+        for (int i = 0; i < st.size(); i++) {
+            place(nt, st.hashes[i], st.entries[i << 1], st.valueAt(i));
+        }
+        table = nt;
+    }
+
+    /**
+     * 在还没有发布的新表中放入一个元素, 桶放不下时放入stash
+     */
+    private static void place(Table nt, int h, Object k, Object v) {
+        int nb, ns;
+        for (; ; ) {
+            int b1 = nt.index1(h), b2 = nt.index2(h);
+            if ((ns = emptySlot(nt, nb = b1)) >= 0 || (ns = emptySlot(nt, nb = b2)) >= 0) {
+                break;
+            }
+            if (!cuckoo(nt, b1, b2)) {
+                nt.stash = nt.stash.with(h, k, v);
+                return;
+            }
+        }
+        setSlot(nt, nb, ns, h, k, v);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int h = hash(Objects.requireNonNull(key));
+        lock.lock();
+        try {
+            Table t = table;
+            int b = t.index1(h), s;
+            if ((s = slotOf(t, b, h, key)) < 0 && (s = slotOf(t, b = t.index2(h), h, key)) < 0) {
+                return stashRemove(t, h, key);
+            }
+            int e = (b << ENTRY_SHIFT) + (s << 1);
+            V oldVal = (V) t.entries[e + 1];
+            beginWrite(t, b);
+            ENTRIES.setRelease(t.entries, e, null);
+            ENTRIES.setRelease(t.entries, e + 1, null);
+            endWrite(t, b);
+            size--;
+            return oldVal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V stashRemove(Table t, int h, Object key) {
+        Stash st = t.stash;
+        int i = st.indexOf(h, key);
+        if (i < 0) {
+            return null;
+        }
+        V oldVal = (V) st.valueAt(i);
+        t.stash = st.without(i);
+        size--;
+        return oldVal;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            putVal(e.getKey(), e.getValue(), false);
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            table = new Table(DEFAULT_INITIAL_BUCKETS);
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 槽位占用率
+     */
+    public double occupancy() {
+        return (double) size / (table.buckets() * SLOTS);
+    }
+
+    /**
+     * 弱一致性的遍历: 创建时固定当前的表, 遍历过程中被踢到已遍历桶中的元素可能会漏掉
+     */
+    abstract class BaseIterator<E> implements Iterator<E> {
+        final Table t = table;
+
+        // 下一个要检查的槽位, 按entries中的key下标计数
+        int index;
+
+        K nextKey;
+
+        V nextVal;
+
+        K lastReturned;
+
+        BaseIterator() {
+            advance();
+        }
+
+        // 遍历完所有桶之后再遍历创建时的stash
+        final Stash stash = t.stash;
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            Object[] entries = t.entries;
+            while (index < entries.length) {
+                // 与get相同, 读槽位前后检查桶的版本号, 踢出过程中读到的key和value可能属于不同的元素
+                int b = index >>> ENTRY_SHIFT;
+                int ver = version(t, b);
+                if ((ver & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                Object k = ENTRIES.getAcquire(entries, index);
+                Object v = ENTRIES.getAcquire(entries, index + 1);
+                VarHandle.loadLoadFence();
+                if ((int) META.getOpaque(t.meta, b << META_SHIFT) != ver) {
+                    continue;
+                }
+                index += 2;
+                if (k != null && v != null) {
+                    nextKey = (K) k;
+                    nextVal = (V) v;
+                    return;
+                }
+            }
+            int i = index - entries.length;
+            if (i < stash.entries.length) {
+                nextKey = (K) stash.entries[i];
+                nextVal = (V) stash.entries[i + 1];
+                index += 2;
+                return;
+            }
+            nextKey = null;
+            nextVal = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextKey != null;
+        }
+
+        E nextEntry() {
+            if (nextKey == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = nextKey;
+            E e = map(nextKey, nextVal);
+            advance();
+            return e;
+        }
+
+        abstract E map(K key, V val);
+
+        @Override
+        public E next() {
+            return nextEntry();
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            CuckooHashMap.this.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new BaseIterator<K>() {
+                    @Override
+                    K map(K key, V val) {
+                        return key;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CuckooHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new BaseIterator<V>() {
+                    @Override
+                    V map(K key, V val) {
+                        return val;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CuckooHashMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new BaseIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> map(K key, V val) {
+                        return new WriteThroughEntry<>(CuckooHashMap.this, key, val);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CuckooHashMap.this.size();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        final CuckooHashMap<Integer, Integer> map = new CuckooHashMap<>();
+        final int n = 200000;
+        // 一个写线程不断插入删除, 多个读线程检查读到的value要么是null要么是正确的
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final int readers = 4;
+        final ExecutorService pool = Executors.newFixedThreadPool(readers + 1);
+        pool.execute(() -> {
+            for (int i = 0; i < n; i++) {
+                map.put(i, -i);
+                if (i % 3 == 0) {
+                    map.remove(i / 2);
+                }
+            }
+            done.set(true);
+        });
+        for (int r = 0; r < readers; r++) {
+            pool.execute(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    int k = random.nextInt(n);
+                    Integer v = map.get(k);
+                    if (v != null && v != -k) {
+                        failed.set(true);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        if (failed.get()) throw new Exception("read a wrong value");
+
+        final Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            expected.put(i, -i);
+            if (i % 3 == 0) {
+                expected.remove(i / 2);
+            }
+        }
+        if (map.size() != expected.size()) throw new Exception("size: " + map.size());
+        for (int i = 0; i < n; i++) {
+            if (!Objects.equals(map.get(i), expected.get(i))) throw new Exception("key: " + i);
+        }
+        int count = 0;
+        for (Entry<Integer, Integer> e : map.entrySet()) {
+            if (!e.getValue().equals(expected.get(e.getKey()))) throw new Exception("entry: " + e);
+            count++;
+        }
+        if (count != map.size()) throw new Exception("iterate: " + count);
+
+        // "Aa"与"BB"的hashCode相同, 由它们拼接出的字符串hash全部相同, 只能放进stash
+        List<String> same = new ArrayList<>(Collections.singletonList(""));
+        for (int d = 0; d < 8; d++) {
+            List<String> longer = new ArrayList<>();
+            for (String s : same) {
+                longer.add(s + "Aa");
+                longer.add(s + "BB");
+            }
+            same = longer;
+        }
+        final CuckooHashMap<String, Integer> collided = new CuckooHashMap<>();
+        for (int i = 0; i < same.size(); i++) {
+            collided.put(same.get(i), i);
+        }
+        for (int i = 0; i < same.size(); i++) {
+            if (collided.get(same.get(i)) != i) throw new Exception("collided: " + same.get(i));
+        }
+        if (collided.size() != same.size() || collided.table.buckets() > DEFAULT_INITIAL_BUCKETS) throw new Exception("collided size");
+        System.out.printf("success! size: %d, occupancy: %.2f%n", map.size(), map.occupancy());
+    }
+}
@@ -0,0 +1,620 @@
+package com.lcw.datastructure.hash;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 每个entry可以单独设置过期时间的k-v容器, 数据存放在MyHashtable中
+ * <p>
+ * 过期时间由分层时间轮管理: 共LEVELS层, 每层64个槽位, 第L层一个槽位跨越64^L个tick,
+ * 每个槽位是一个双向链表, 所以加入与取消都是O(1). 时间推进到某一层槽位的起点时, 把其中的entry重新放入更低的层(级联)
+ * <p>
+ * 没有后台线程也没有全表扫描: 每次put/get/remove先推进时间轮, 最多回收REAP_BUDGET个过期entry,
+ * 还没来得及回收的过期entry在被访问时按过期时间判断, 不会被返回
+ * <p>
+ * 每层用一个long标记非空槽位, 推进时直接跳到下一个非空槽位, 长时间没有操作后追赶也不需要逐个tick处理
+ */
+public class ExpiringHashtable<K, V> implements Map<K, V> {
+
+    static final int WHEEL_BITS = 6;
+
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    static final int LEVELS = 5;
+
+    // 时间轮能表示的最大tick间隔, 更远的entry先放在最高层, 级联时再按真实过期时间放置
+    static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    // 普通操作每次最多回收的过期entry数量
+    static final int REAP_BUDGET = 16;
+
+    // 永不过期
+    static final long NEVER = Long.MAX_VALUE;
+
+    static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    final MyHashtable<K, Timer<K, V>> map = new MyHashtable<>();
+
+    // wheel[level][index]是槽位链表的哨兵节点
+    final Timer<K, V>[][] wheel;
+
+    // 每层非空槽位的位图
+    final long[] occupied = new long[LEVELS];
+
+    // 纳秒时钟, 默认System::nanoTime
+    final LongSupplier clock;
+
+    // 创建时的时钟读数, 之后的时间都以它为起点
+    final long origin;
+
+    final long tickNanos;
+
+    // put(key, value)使用的过期时间, NEVER表示不过期
+    final long defaultTtlNanos;
+
+    // 时间轮当前所在的tick, 它之前的tick都已处理完, 它的级联也已完成
+    long currentTick;
+
+    // 在时间轮中的entry数量
+    int scheduled;
+
+    public ExpiringHashtable() {
+        this(NEVER, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param defaultTtl put(key, value)使用的过期时间
+     */
+    public ExpiringHashtable(long defaultTtl, TimeUnit unit) {
+        this(defaultTtl, unit, DEFAULT_TICK_NANOS, System::nanoTime);
+    }
+
+    /**
+     * @param tickNanos 时间轮的精度, entry最多比过期时间晚一个tick被回收, 但过期后一定不会再被访问到
+     * @param clock     纳秒时钟
+     */
+    public ExpiringHashtable(long defaultTtl, TimeUnit unit, long tickNanos, LongSupplier clock) {
+        if (defaultTtl <= 0 || tickNanos <= 0) {
+            throw new IllegalArgumentException("Illegal ttl or tick: " + defaultTtl + ", " + tickNanos);
+        }
+        this.defaultTtlNanos = defaultTtl == NEVER ? NEVER : unit.toNanos(defaultTtl);
+        this.tickNanos = tickNanos;
+        this.clock = clock;
+        this.origin = clock.getAsLong();
+        this.wheel = newWheel(LEVELS, WHEEL_SIZE);
+        for (Timer<K, V>[] level : wheel) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Timer<K, V> head = new Timer<>(null, null, NEVER);
+                head.prev = head.next = head;
+                level[i] = head;
+            }
+        }
+    }
+
+    /**
+     * 泛型数组不能直接创建, 创建原始类型数组后强转, 数组中只会放入Timer<K, V>
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static <K, V> Timer<K, V>[][] newWheel(int levels, int slots) {
+        return (Timer<K, V>[][]) new Timer[levels][slots];
+    }
+
+    /**
+     * map中的value, 同时也是时间轮槽位链表中的节点
+     */
+    static final class Timer<K, V> {
+        final K key;
+
+        V value;
+
+        // 过期时间, 相对origin的纳秒数
+        long expireAt;
+
+        // 过期时间所在的tick(向上取整)
+        long deadline;
+
+        // 所在的时间轮层与槽位, level为-1表示不在时间轮中
+        int level = -1;
+
+        int index;
+
+        Timer<K, V> prev, next;
+
+        Timer(K key, V value, long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private long elapsed() {
+        return clock.getAsLong() - origin;
+    }
+
+    /**
+     * 把entry放入时间轮, 位置由距离currentTick的tick数决定
+     */
+    private void schedule(Timer<K, V> t) {
+        long d = Math.max(t.deadline, currentTick);
+        long delta = d - currentTick;
+        if (delta > MAX_DELTA) {
+            d = currentTick + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+        int level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int index = (int) (d >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        Timer<K, V> head = wheel[level][index];
+        t.level = level;
+        t.index = index;
+        t.prev = head.prev;
+        t.next = head;
+        head.prev.next = t;
+        head.prev = t;
+        occupied[level] |= 1L << index;
+        scheduled++;
+    }
+
+    /**
+     * 从时间轮中取消
+     */
+    private void unschedule(Timer<K, V> t) {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        Timer<K, V> head = wheel[t.level][t.index];
+        if (head.next == head) {
+            occupied[t.level] &= ~(1L << t.index);
+        }
+        t.prev = t.next = null;
+        t.level = -1;
+        scheduled--;
+    }
+
+    /**
+     * 推进时间轮并回收过期entry
+     *
+     * @param now    当前时间, 相对origin的纳秒数
+     * @param budget 最多回收的数量, 用完后下次操作继续
+     * @return 回收的数量
+     */
+    private int reap(long now, int budget) {
+        long nowTick = now / tickNanos;
+        int reaped = 0;
+        while (currentTick <= nowTick) {
+            Timer<K, V> head = wheel[0][(int) currentTick & WHEEL_MASK], t;
+            while ((t = head.next) != head) {
+                if (reaped == budget) {
+                    return reaped;
+                }
+                unschedule(t);
+                map.remove(t.key);
+                reaped++;
+            }
+            long next = nextEvent();
+            currentTick = Math.min(next, nowTick + 1);
+            if (currentTick == next) {
+                cascade(currentTick);
+            }
+        }
+        return reaped;
+    }
+
+    /**
+     * currentTick之后第一个需要处理的tick: 第0层下一个非空槽位, 或更高层下一个非空槽位开始级联的tick
+     * 第L层当前块的槽位已经级联过, 其中的entry属于64个块之后, 所以距离取1到64
+     */
+    private long nextEvent() {
+        if (scheduled == 0) {
+            return Long.MAX_VALUE;
+        }
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits != 0) {
+                int shift = WHEEL_BITS * level;
+                long block = currentTick >>> shift;
+                long rotated = Long.rotateRight(bits, ((int) block + 1) & WHEEL_MASK);
+                next = Math.min(next, (block + Long.numberOfTrailingZeros(rotated) + 1) << shift);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * tick到达第L层槽位的起点时, 把槽位中的entry按剩余时间重新放置, 从高层往低层处理
+     */
+    private void cascade(long tick) {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = WHEEL_BITS * level;
+            if ((tick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            int index = (int) (tick >>> shift) & WHEEL_MASK;
+            Timer<K, V> head = wheel[level][index], t = head.next;
+            if (t == head) {
+                continue;
+            }
+            head.prev.next = null;
+            head.prev = head.next = head;
+            occupied[level] &= ~(1L << index);
+            while (t != null) {
+                Timer<K, V> next = t.next;
+                scheduled--;
+                schedule(t);
+                t = next;
+            }
+        }
+    }
+
+    /**
+     * 回收所有已经过期的entry, 不会扫描整张表
+     * <p>
+     * deadline向上取整, 过期时间落在当前tick内的entry在reap之后仍留在下一个tick的槽位里,
+     * 再扫描这一个槽位, 按过期时间回收, 代价与过期entry和这个槽位的entry数量成正比
+     *
+     * @return 回收的数量
+     */
+    public int cleanUp() {
+        long now = elapsed();
+        int reaped = reap(now, Integer.MAX_VALUE);
+        // 完整的reap之后currentTick为nowTick + 1, 这个tick的级联已经完成, 到期的entry都在第0层
+        if (currentTick == now / tickNanos + 1) {
+            Timer<K, V> head = wheel[0][(int) currentTick & WHEEL_MASK], t = head.next;
+            while (t != head) {
+                Timer<K, V> next = t.next;
+                if (t.expireAt <= now) {
+                    unschedule(t);
+                    map.remove(t.key);
+                    reaped++;
+                }
+                t = next;
+            }
+        }
+        return reaped;
+    }
+
+    /**
+     * 找到key对应的有效entry, 已过期但还没回收的顺便回收
+     */
+    private Timer<K, V> getTimer(Object key, long now) {
+        Timer<K, V> t = map.get(key);
+        if (t != null && t.expireAt <= now) {
+            if (t.level >= 0) {
+                unschedule(t);
+            }
+            map.remove(key);
+            return null;
+        }
+        return t;
+    }
+
+    @Override
+    public int size() {
+        cleanUp();
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        long now = elapsed();
+        reap(now, REAP_BUDGET);
+        return getTimer(key, now) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (V v : values()) {
+            if (Objects.equals(v, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        long now = elapsed();
+        reap(now, REAP_BUDGET);
+        Timer<K, V> t = getTimer(key, now);
+        return t == null ? null : t.value;
+    }
+
+    /**
+     * 剩余存活时间, 不存在返回-1, 永不过期返回Long.MAX_VALUE
+     */
+    public long getTtl(Object key, TimeUnit unit) {
+        long now = elapsed();
+        reap(now, REAP_BUDGET);
+        Timer<K, V> t = getTimer(key, now);
+        if (t == null) {
+            return -1;
+        }
+        return t.expireAt == NEVER ? Long.MAX_VALUE : unit.convert(t.expireAt - now, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 插入或替换, 并重新设置过期时间
+     *
+     * @param ttl 存活时间, Long.MAX_VALUE表示永不过期
+     * @return 之前未过期的value
+     */
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Illegal ttl: " + ttl);
+        }
+        long now = elapsed();
+        reap(now, REAP_BUDGET);
+        long ttlNanos = ttl == NEVER ? NEVER : unit.toNanos(ttl);
+        long expireAt = ttlNanos >= NEVER - now ? NEVER : now + ttlNanos;
+
+        V oldValue = null;
+        Timer<K, V> t = getTimer(key, now);
+        if (t == null) {
+            t = new Timer<>(key, value, expireAt);
+            map.put(key, t);
+        } else {
+            oldValue = t.value;
+            t.value = value;
+            t.expireAt = expireAt;
+            if (t.level >= 0) {
+                unschedule(t);
+            }
+        }
+        if (expireAt != NEVER) {
+            t.deadline = expireAt / tickNanos + (expireAt % tickNanos == 0 ? 0 : 1);
+            schedule(t);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public V remove(Object key) {
+        long now = elapsed();
+        reap(now, REAP_BUDGET);
+        Timer<K, V> t = getTimer(key, now);
+        if (t == null) {
+            return null;
+        }
+        if (t.level >= 0) {
+            unschedule(t);
+        }
+        map.remove(key);
+        return t.value;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        for (int level = 0; level < LEVELS; level++) {
+            for (Timer<K, V> head : wheel[level]) {
+                head.prev = head.next = head;
+            }
+            occupied[level] = 0;
+        }
+        scheduled = 0;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new TimerIterator<K>() {
+                    @Override
+                    K element(Timer<K, V> t) {
+                        return t.key;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ExpiringHashtable.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new TimerIterator<V>() {
+                    @Override
+                    V element(Timer<K, V> t) {
+                        return t.value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ExpiringHashtable.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new TimerIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(Timer<K, V> t) {
+                        return new TimerEntry<>(t);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ExpiringHashtable.this.size();
+            }
+        };
+    }
+
+    /**
+     * 遍历时返回的entry, setValue直接修改Timer, 不会像put那样回收过期entry或续期,
+     * 遍历期间调用setValue(以及基于它的Map.replaceAll)不会改变map的结构
+     */
+    static final class TimerEntry<K, V> implements Entry<K, V> {
+        final Timer<K, V> t;
+
+        TimerEntry(Timer<K, V> t) {
+            this.t = t;
+        }
+
+        @Override
+        public K getKey() {
+            return t.key;
+        }
+
+        @Override
+        public V getValue() {
+            return t.value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V oldValue = t.value;
+            t.value = value;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            return Objects.equals(t.key, e.getKey()) && Objects.equals(t.value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(t.key) ^ Objects.hashCode(t.value);
+        }
+
+        @Override
+        public String toString() {
+            return t.key + "=" + t.value;
+        }
+    }
+
+    /**
+     * 遍历前先回收所有过期entry, 遍历期间过期的entry仍会被访问到
+     */
+    abstract class TimerIterator<E> implements Iterator<E> {
+        final Iterator<Timer<K, V>> it;
+
+        Timer<K, V> last;
+
+        TimerIterator() {
+            cleanUp();
+            it = map.values().iterator();
+        }
+
+        abstract E element(Timer<K, V> t);
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public E next() {
+            return element(last = it.next());
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            it.remove();
+            if (last.level >= 0) {
+                unschedule(last);
+            }
+            last = null;
+        }
+    }
+
+    public static void main(String[] args) {
+        final long[] now = {0};
+        // 1秒一个tick, 手动推进时钟
+        final ExpiringHashtable<String, String> sessions =
+                new ExpiringHashtable<>(30, TimeUnit.MINUTES, TimeUnit.SECONDS.toNanos(1), () -> now[0]);
+        for (int i = 0; i < 100000; i++) {
+            sessions.put("session-" + i, "user-" + i);
+        }
+        sessions.put("remember-me", "user-0", 30, TimeUnit.DAYS);
+        now[0] += TimeUnit.MINUTES.toNanos(20);
+        for (int i = 0; i < 100000; i += 2) {
+            // 续期
+            sessions.put("session-" + i, "user-" + i);
+        }
+        now[0] += TimeUnit.MINUTES.toNanos(15);
+        if (sessions.get("session-1") != null || !"user-2".equals(sessions.get("session-2"))) throw new VerifyError("get");
+        if (sessions.size() != 50001) throw new VerifyError("size: " + sessions.size());
+        now[0] += TimeUnit.DAYS.toNanos(29);
+        if (!"user-0".equals(sessions.get("remember-me")) || sessions.size() != 1) throw new VerifyError("long ttl");
+        now[0] += TimeUnit.DAYS.toNanos(1);
+        if (!sessions.isEmpty() || sessions.scheduled != 0) throw new VerifyError("empty");
+
+        // 与按过期时间判断的HashMap对比
+        final HashMap<Integer, long[]> expected = new HashMap<>();
+        final ExpiringHashtable<Integer, Long> map =
+                new ExpiringHashtable<>(Long.MAX_VALUE, TimeUnit.NANOSECONDS, 1000, () -> now[0]);
+        final Random r = new Random(42);
+        for (int i = 0; i < 1000000; i++) {
+            now[0] += r.nextInt(r.nextInt(100) == 0 ? 1000000 : 300);
+            int k = r.nextInt(10000);
+            long[] e = expected.get(k);
+            Long expectedValue = e == null || e[1] <= now[0] ? null : e[0];
+            if (r.nextInt(3) == 0) {
+                if (!Objects.equals(map.remove(k), expectedValue)) throw new VerifyError("remove");
+                expected.remove(k);
+            } else if (r.nextBoolean()) {
+                if (!Objects.equals(map.get(k), expectedValue)) throw new VerifyError("get");
+            } else {
+                long ttl = 1 + r.nextInt(r.nextInt(10) == 0 ? 100000000 : 100000);
+                if (!Objects.equals(map.put(k, (long) i, ttl, TimeUnit.NANOSECONDS), expectedValue)) throw new VerifyError("put");
+                expected.put(k, new long[]{i, now[0] + ttl});
+            }
+        }
+        expected.values().removeIf(e -> e[1] <= now[0]);
+        if (map.size() != expected.size() || map.scheduled != expected.size()) throw new VerifyError("size");
+        System.out.println("success! size: " + map.size());
+    }
+}
@@ -0,0 +1,423 @@
+package com.lcw.datastructure.hash;
+
+import java.util.*;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 通过MyHashtable.freeze()创建的不可变k-v容器, 使用CHD(hash, displace)风格的最小完美hash
+ * <p>
+ * n个key恰好占用n个槽位, 槽位i的key和value相邻存放在entries[2i]和entries[2i + 1], 命中时key和value通常在同一个cache line:
+ * 1. key按hash分到 n / LAMBDA 个桶中, 每个桶记录一个位移种子seeds[b]
+ * 2. 先把hash打散一次得到x, 桶 = x的高位, 槽位 = ((x ^ seeds[b]) * GOLDEN)的高位 mod n,
+ * 只有一个key的桶直接在seeds[b]中保存 -(槽位 + 1)
+ * 3. 查找只需要一次key比较, 没有链表也没有探测
+ * <p>
+ * hash()只有32位, 两个不同的key可能hash完全相等, 这种key无论用什么种子都会落到同一个槽位,
+ * 只有这些key会放到overflow中, 绝大多数情况下overflow为null
+ */
+public final class FrozenMap<K, V> implements Map<K, V> {
+
+    // 平均每个桶的key数量, 越大seeds越小, 但构建时找种子越慢
+    static final int LAMBDA = 4;
+
+    // 每个桶最多尝试的种子数量, 超过后换一个salt重新构建
+    static final int MAX_SEED = 1 << 16;
+
+    static final int MAX_ATTEMPTS = 8;
+
+    static final int GOLDEN = 0x9E3779B9;
+
+    // [k0, v0, k1, v1, ...]
+    final Object[] entries;
+
+    // 槽位数量
+    final int n;
+
+    final int[] seeds;
+
+    final int salt;
+
+    // hash完全相同的key, 通常为null
+    final MyHashtable<K, V> overflow;
+
+    private FrozenMap(Object[] entries, int[] seeds, int salt, MyHashtable<K, V> overflow) {
+        this.entries = entries;
+        this.n = entries.length >> 1;
+        this.seeds = seeds;
+        this.salt = salt;
+        this.overflow = overflow;
+    }
+
+    /**
+     * murmur3的fmix32, 打散hash的每一位
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * 把h均匀映射到[0, n), 用乘法和移位代替取模
+     */
+    static int reduce(int h, int n) {
+        return (int) (((h & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    static int bucketOf(int x, int buckets) {
+        return reduce(x, buckets);
+    }
+
+    /**
+     * 同一个桶中的key高位相近, 乘法把x的低位扩散到高位, 不同种子得到的槽位相互独立
+     */
+    static int slotOf(int x, int seed, int n) {
+        return reduce((x ^ seed) * GOLDEN, n);
+    }
+
+    /**
+     * 从MyHashtable的table构建, 直接使用节点中保存的hash
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> FrozenMap<K, V> build(MyHashtable.Node<K, V>[] tab, int size) {
+        int[] hashes = new int[size];
+        Object[] ks = new Object[size];
+        Object[] vs = new Object[size];
+        int n = 0;
+        if (tab != null) {
+            for (MyHashtable.Node<K, V> e : tab) {
+                for (; e != null; e = e.next) {
+                    hashes[n] = e.hash;
+                    ks[n] = e.key;
+                    vs[n++] = e.val;
+                }
+            }
+        }
+        int[] xs = new int[n];
+        for (int attempt = 0, salt = 0; attempt < MAX_ATTEMPTS; attempt++, salt += GOLDEN) {
+            for (int i = 0; i < n; i++) {
+                xs[i] = mix(hashes[i] ^ salt);
+            }
+            FrozenMap<K, V> map = tryBuild(xs, ks, vs, n, salt);
+            if (map != null) {
+                return map;
+            }
+        }
+        throw new IllegalStateException("Failed to build minimal perfect hash for " + n + " keys");
+    }
+
+    /**
+     * 按桶大小从大到小依次为每个桶寻找种子, 大桶在表还空的时候更容易放下, 最后用单个key的桶填满剩余槽位
+     *
+     * @return 某个桶找不到种子时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> FrozenMap<K, V> tryBuild(int[] xs, Object[] ks, Object[] vs, int n, int salt) {
+        int buckets = Math.max(1, n / LAMBDA);
+        // 按桶计数排序, order中[start[b], start[b + 1])是桶b的key
+        int[] start = new int[buckets + 1];
+        for (int i = 0; i < n; i++) {
+            start[bucketOf(xs[i], buckets) + 1]++;
+        }
+        int maxBucketSize = 0;
+        for (int b = 0; b < buckets; b++) {
+            maxBucketSize = Math.max(maxBucketSize, start[b + 1]);
+            start[b + 1] += start[b];
+        }
+        int[] order = new int[n];
+        int[] fill = Arrays.copyOf(start, buckets);
+        for (int i = 0; i < n; i++) {
+            order[fill[bucketOf(xs[i], buckets)]++] = i;
+        }
+
+        // hash完全相同的key只留一个, 其余放入overflow
+        MyHashtable<K, V> overflow = null;
+        boolean[] dropped = new boolean[n];
+        int m = n;
+        for (int b = 0; b < buckets; b++) {
+            for (int x = start[b]; x < start[b + 1]; x++) {
+                for (int y = start[b]; y < x; y++) {
+                    int i = order[x];
+                    if (!dropped[order[y]] && xs[order[y]] == xs[i]) {
+                        if (overflow == null) {
+                            overflow = new MyHashtable<>();
+                        }
+                        overflow.put((K) ks[i], (V) vs[i]);
+                        dropped[i] = true;
+                        m--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        // 按桶大小分组, 从大到小处理
+        int[] bySize = new int[buckets];
+        int[] sizeStart = new int[maxBucketSize + 2];
+        for (int b = 0; b < buckets; b++) {
+            sizeStart[maxBucketSize - (start[b + 1] - start[b]) + 1]++;
+        }
+        for (int s = 0; s <= maxBucketSize; s++) {
+            sizeStart[s + 1] += sizeStart[s];
+        }
+        for (int b = 0; b < buckets; b++) {
+            bySize[sizeStart[maxBucketSize - (start[b + 1] - start[b])]++] = b;
+        }
+
+        Object[] entries = new Object[m << 1];
+        int[] seeds = new int[buckets];
+        boolean[] taken = new boolean[m];
+        int[] slots = new int[maxBucketSize];
+        int nextFree = 0;
+        for (int b : bySize) {
+            int count = 0;
+            for (int x = start[b]; x < start[b + 1]; x++) {
+                if (!dropped[order[x]]) {
+                    order[start[b] + count++] = order[x];
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (count == 1) {
+                // 单个key的桶直接放到下一个空槽位
+                while (taken[nextFree]) {
+                    nextFree++;
+                }
+                int i = order[start[b]];
+                taken[nextFree] = true;
+                entries[nextFree << 1] = ks[i];
+                entries[(nextFree << 1) + 1] = vs[i];
+                seeds[b] = -nextFree - 1;
+                continue;
+            }
+            int seed = 1;
+            search:
+            for (; seed < MAX_SEED; seed++) {
+                for (int j = 0; j < count; j++) {
+                    int slot = slotOf(xs[order[start[b] + j]], seed, m);
+                    if (taken[slot]) {
+                        continue search;
+                    }
+                    for (int k = 0; k < j; k++) {
+                        if (slots[k] == slot) {
+                            continue search;
+                        }
+                    }
+                    slots[j] = slot;
+                }
+                break;
+            }
+            if (seed == MAX_SEED) {
+                return null;
+            }
+            seeds[b] = seed;
+            for (int j = 0; j < count; j++) {
+                int i = order[start[b] + j];
+                taken[slots[j]] = true;
+                entries[slots[j] << 1] = ks[i];
+                entries[(slots[j] << 1) + 1] = vs[i];
+            }
+        }
+        return new FrozenMap<>(entries, seeds, salt, overflow);
+    }
+
+    /**
+     * @return key所在的槽位, 不存在返回-1
+     */
+    final int indexOf(Object key) {
+        int n = this.n;
+        if (n == 0) {
+            return -1;
+        }
+        int x = mix(MyHashtable.hash(key) ^ salt);
+        int d = seeds[bucketOf(x, seeds.length)];
+        int i = d < 0 ? -d - 1 : slotOf(x, d, n);
+        return Objects.equals(entries[i << 1], key) ? i : -1;
+    }
+
+    @Override
+    public int size() {
+        return n + (overflow == null ? 0 : overflow.size());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0 || (overflow != null && overflow.containsKey(key));
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 1; i < entries.length; i += 2) {
+            if (Objects.equals(entries[i], value)) {
+                return true;
+            }
+        }
+        return overflow != null && values().contains(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return (V) entries[(i << 1) + 1];
+        }
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    K element(int i) {
+                        return (K) entries[i << 1];
+                    }
+
+                    @Override
+                    K element(Entry<K, V> e) {
+                        return e.getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return FrozenMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    V element(int i) {
+                        return (V) entries[(i << 1) + 1];
+                    }
+
+                    @Override
+                    V element(Entry<K, V> e) {
+                        return e.getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return FrozenMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<Entry<K, V>> iterator() {
+                return new SlotIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(int i) {
+                        return new AbstractMap.SimpleImmutableEntry<>((K) entries[i << 1], (V) entries[(i << 1) + 1]);
+                    }
+
+                    @Override
+                    Entry<K, V> element(Entry<K, V> e) {
+                        return new AbstractMap.SimpleImmutableEntry<>(e);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return FrozenMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * 先按槽位顺序遍历, 再遍历overflow, 不支持删除
+     */
+    abstract class SlotIterator<E> implements Iterator<E> {
+        int next;
+
+        final Iterator<Entry<K, V>> rest = overflow == null ? Collections.emptyIterator() : overflow.entrySet().iterator();
+
+        abstract E element(int i);
+
+        abstract E element(Entry<K, V> e);
+
+        @Override
+        public boolean hasNext() {
+            return next < n || rest.hasNext();
+        }
+
+        @Override
+        public E next() {
+            if (next < n) {
+                return element(next++);
+            }
+            return element(rest.next());
+        }
+    }
+
+    public static void main(String[] args) {
+        final MyHashtable<String, Integer> table = new MyHashtable<>();
+        for (int i = 0; i < 1000000; i++) {
+            table.put("key-" + i, i);
+        }
+        long start = System.nanoTime();
+        final FrozenMap<String, Integer> frozen = table.freeze();
+        System.out.printf("freeze %d keys in %d ms, %.2f seed bytes per key%n", frozen.size(),
+                (System.nanoTime() - start) / 1000000, 4.0 * frozen.seeds.length / frozen.size());
+        for (int i = 0; i < 1000000; i++) {
+            if (frozen.get("key-" + i) != i) throw new VerifyError("get: " + i);
+        }
+        if (frozen.containsKey("key--1") || frozen.get("missing") != null) throw new VerifyError("missing");
+        System.out.println("success! size: " + frozen.size());
+    }
+}
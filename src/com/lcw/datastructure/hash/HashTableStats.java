@@ -0,0 +1,253 @@
+package com.lcw.datastructure.hash;
+
+import jdk.jfr.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MyHashMap/MyHashtable的运行统计: 查找时的链表长度分布、扩容次数与耗时、负载因子变化
+ * 同时会发出JFR事件, 可以在JDK Flight Recorder中查看
+ * <p>
+ * 需要在启动时加上 -Dcom.lcw.datastructure.hash.stats=true, 再对需要统计的map调用enableStats()
+ * 没有开启时ENABLED是常量false, JIT会把热路径上的统计代码整体消除
+ */
+public final class HashTableStats {
+
+    public static final boolean ENABLED = Boolean.getBoolean("com.lcw.datastructure.hash.stats");
+
+    // 查找链表长度直方图的桶数, 最后一个桶包含所有更长的链表
+    static final int HISTOGRAM_BUCKETS = 33;
+
+    // 负载因子时间线最多保留的样本数
+    static final int TIMELINE_CAPACITY = 256;
+
+    static final int DEFAULT_LONG_CHAIN_THRESHOLD = 8;
+
+    private final String mapName;
+
+    // 查找走过的节点数达到该值时记为长链表, 并发出LongChainEvent
+    private final int longChainThreshold;
+
+    private final long[] walkHistogram = new long[HISTOGRAM_BUCKETS];
+
+    private long lookupCount;
+
+    private long longChainCount;
+
+    private long resizeCount;
+
+    private long resizeNanos;
+
+    private long maxResizeNanos;
+
+    // 环形缓冲区
+    private final Sample[] timeline = new Sample[TIMELINE_CAPACITY];
+
+    private int timelineCount;
+
+    public HashTableStats(String mapName) {
+        this(mapName, DEFAULT_LONG_CHAIN_THRESHOLD);
+    }
+
+    public HashTableStats(String mapName, int longChainThreshold) {
+        if (!ENABLED) {
+            throw new IllegalStateException("Stats disabled, start the JVM with -Dcom.lcw.datastructure.hash.stats=true");
+        }
+        this.mapName = mapName;
+        this.longChainThreshold = longChainThreshold;
+    }
+
+    /**
+     * 负载因子时间线上的一个样本
+     */
+    public static final class Sample {
+        private final long timeMillis;
+        private final int size;
+        private final int capacity;
+
+        Sample(long timeMillis, int size, int capacity) {
+            this.timeMillis = timeMillis;
+            this.size = size;
+            this.capacity = capacity;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public float getLoadFactor() {
+            return capacity == 0 ? 0 : (float) size / capacity;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{" +
+                    "timeMillis=" + timeMillis +
+                    ", size=" + size +
+                    ", capacity=" + capacity +
+                    ", loadFactor=" + getLoadFactor() +
+                    '}';
+        }
+    }
+
+    @Name("com.lcw.datastructure.hash.Resize")
+    @Label("Hash Table Resize")
+    @Category({"Data Structure", "Hash"})
+    @StackTrace(false)
+    static final class ResizeEvent extends Event {
+        @Label("Map")
+        String map;
+
+        @Label("Old Capacity")
+        int oldCapacity;
+
+        @Label("New Capacity")
+        int newCapacity;
+
+        @Label("Size")
+        int size;
+
+        @Label("Resize Duration")
+        @Timespan
+        long resizeNanos;
+    }
+
+    @Name("com.lcw.datastructure.hash.LongChain")
+    @Label("Hash Table Long Chain Walk")
+    @Category({"Data Structure", "Hash"})
+    static final class LongChainEvent extends Event {
+        @Label("Map")
+        String map;
+
+        @Label("Chain Length")
+        int chainLength;
+
+        @Label("Bucket")
+        int bucket;
+
+        @Label("Capacity")
+        int capacity;
+    }
+
+    /**
+     * 扩容开始时调用
+     *
+     * @return 开始时间, 传给endResize
+     */
+    public long beginResize(int size, int capacity) {
+        addSample(size, capacity);
+        return System.nanoTime();
+    }
+
+    public void endResize(long start, int oldCapacity, int newCapacity, int size) {
+        long nanos = System.nanoTime() - start;
+        resizeCount++;
+        resizeNanos += nanos;
+        maxResizeNanos = Math.max(maxResizeNanos, nanos);
+        addSample(size, newCapacity);
+        ResizeEvent event = new ResizeEvent();
+        if (event.isEnabled()) {
+            event.map = mapName;
+            event.oldCapacity = oldCapacity;
+            event.newCapacity = newCapacity;
+            event.size = size;
+            event.resizeNanos = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * 记录一次查找走过的节点数
+     */
+    public void recordLookup(int walkLength, int bucket, int capacity) {
+        lookupCount++;
+        walkHistogram[Math.min(walkLength, HISTOGRAM_BUCKETS - 1)]++;
+        if (walkLength >= longChainThreshold) {
+            longChainCount++;
+            LongChainEvent event = new LongChainEvent();
+            if (event.isEnabled()) {
+                event.map = mapName;
+                event.chainLength = walkLength;
+                event.bucket = bucket;
+                event.capacity = capacity;
+                event.commit();
+            }
+        }
+    }
+
+    private void addSample(int size, int capacity) {
+        timeline[timelineCount++ % TIMELINE_CAPACITY] = new Sample(System.currentTimeMillis(), size, capacity);
+    }
+
+    /**
+     * 查找链表长度直方图, 下标为走过的节点数, 最后一个元素包含所有更长的查找
+     */
+    public long[] walkHistogram() {
+        return walkHistogram.clone();
+    }
+
+    public long lookupCount() {
+        return lookupCount;
+    }
+
+    public long longChainCount() {
+        return longChainCount;
+    }
+
+    public long resizeCount() {
+        return resizeCount;
+    }
+
+    public long totalResizeNanos() {
+        return resizeNanos;
+    }
+
+    public long maxResizeNanos() {
+        return maxResizeNanos;
+    }
+
+    /**
+     * 按时间顺序返回最近的负载因子样本
+     */
+    public List<Sample> loadFactorTimeline() {
+        int n = Math.min(timelineCount, TIMELINE_CAPACITY);
+        List<Sample> res = new ArrayList<>(n);
+        for (int i = timelineCount - n; i < timelineCount; i++) {
+            res.add(timeline[i % TIMELINE_CAPACITY]);
+        }
+        return res;
+    }
+
+    /**
+     * 把每个槽位的链表长度加入直方图, 下标为链表长度, 值为槽位数量
+     */
+    public static int[] addToHistogram(int[] histogram, int chainLength) {
+        if (chainLength >= histogram.length) {
+            histogram = Arrays.copyOf(histogram, Math.max(chainLength + 1, histogram.length << 1));
+        }
+        histogram[chainLength]++;
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "HashTableStats{" +
+                "map=" + mapName +
+                ", lookups=" + lookupCount +
+                ", longChains=" + longChainCount +
+                ", resizes=" + resizeCount +
+                ", resizeMillis=" + resizeNanos / 1_000_000 +
+                ", maxResizeMillis=" + maxResizeNanos / 1_000_000 +
+                '}';
+    }
+}
@@ -0,0 +1,392 @@
+package com.lcw.datastructure.hash;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * key为long, value为long的k-v容器, get/put/remove全程不装箱
+ * <p>
+ * 使用开放寻址(线性探测), key、value存放在两个平行数组中, 不创建Node
+ * 容量与MyHashtable一样保持2的n次幂, 用 hash & (n - 1) 代替取模
+ * 数组中用0表示空槽位, key为0的元素单独存放
+ */
+public class LongLongHashMap {
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75F;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    long[] keys;
+
+    long[] vals;
+
+    // key为0的元素是否存在
+    boolean hasZeroKey;
+
+    long zeroValue;
+
+    int size;
+
+    // 扩容阈值 = 容量 * 负载因子
+    int threshold;
+
+    // 负载因子
+    final float loadFactor;
+
+    /**
+     * 遍历时接收key-value的回调, 参数都是基本类型
+     */
+    @FunctionalInterface
+    public interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+
+    public LongLongHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongLongHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongLongHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        allocate(tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, (long) Math.ceil(initialCapacity / loadFactor))));
+    }
+
+    /**
+     * 返回大于等于cap的最小2的n次幂
+     */
+    static int tableSizeFor(int cap) {
+        int n = -1 >>> Integer.numberOfLeadingZeros(Math.max(cap, 2) - 1);
+        return n >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /**
+     * 线性探测对连续、等间隔的key很敏感, 先乘黄金分割常数打散, 再像MyHashtable.hash一样高低位异或
+     */
+    static int hash(long key) {
+        long l = key * 0x9E3779B97F4A7C15L;
+        int h = (int) (l ^ (l >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap];
+        vals = new long[cap];
+        float ft = cap * loadFactor;
+        threshold = (cap < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : indexOf(key) >= 0;
+    }
+
+    public boolean containsValue(long value) {
+        if (hasZeroKey && zeroValue == value) {
+            return true;
+        }
+        long[] ks = keys;
+        long[] vs = vals;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != 0 && vs[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取key对应的value, 不存在返回0
+     */
+    public long get(long key) {
+        return getOrDefault(key, 0);
+    }
+
+    public long getOrDefault(long key, long defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        long k;
+        for (int i = hash(key) & mask; (k = ks[i]) != 0; i = (i + 1) & mask) {
+            if (k == key) {
+                return vals[i];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 查找key所在的槽位, key不能为0
+     *
+     * @return 槽位索引, 不存在返回-1
+     */
+    int indexOf(long key) {
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        long k;
+        for (int i = hash(key) & mask; (k = ks[i]) != 0; i = (i + 1) & mask) {
+            if (k == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 存入key-value
+     *
+     * @return 之前的value, 不存在返回0
+     */
+    public long put(long key, long value) {
+        if (key == 0) {
+            long oldValue = hasZeroKey ? zeroValue : 0;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return oldValue;
+        }
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        int i = hash(key) & mask;
+        long k;
+        while ((k = ks[i]) != 0) {
+            if (k == key) {
+                long oldValue = vals[i];
+                vals[i] = value;
+                return oldValue;
+            }
+            i = (i + 1) & mask;
+        }
+        ks[i] = key;
+        vals[i] = value;
+        if (++size > threshold) {
+            resize();
+        }
+        return 0;
+    }
+
+    /**
+     * 计数器场景: key不存在时视为0, 累加后返回新值
+     */
+    public long addTo(long key, long increment) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            return zeroValue += increment;
+        }
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        int i = hash(key) & mask;
+        long k;
+        while ((k = ks[i]) != 0) {
+            if (k == key) {
+                return vals[i] += increment;
+            }
+            i = (i + 1) & mask;
+        }
+        ks[i] = key;
+        vals[i] = increment;
+        if (++size > threshold) {
+            resize();
+        }
+        return increment;
+    }
+
+    /**
+     * 删除key
+     *
+     * @return 被删除的value, 不存在返回0
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return 0;
+            }
+            long oldValue = zeroValue;
+            hasZeroKey = false;
+            size--;
+            return oldValue;
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return 0;
+        }
+        long oldValue = vals[i];
+        shiftKeys(i);
+        size--;
+        return oldValue;
+    }
+
+    /**
+     * 删除槽位pos后, 把后面同一探测序列上的元素往前挪, 保证查找不会被空槽位提前截断
+     */
+    private void shiftKeys(int pos) {
+        long[] ks = keys;
+        long[] vs = vals;
+        int mask = ks.length - 1;
+        int last, slot;
+        long k;
+        while (true) {
+            pos = ((last = pos) + 1) & mask;
+            while (true) {
+                if ((k = ks[pos]) == 0) {
+                    ks[last] = 0;
+                    return;
+                }
+                slot = hash(k) & mask;
+                // slot不在(last, pos]区间内, 说明pos上的元素可以挪到last
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            ks[last] = k;
+            vs[last] = vs[pos];
+        }
+    }
+
+    /**
+     * 容量扩大一倍并重新插入所有元素
+     */
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldVals = vals;
+        int oldCap = oldKeys.length;
+        if (oldCap >= MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+        allocate(oldCap << 1);
+        long[] ks = keys;
+        long[] vs = vals;
+        int mask = ks.length - 1;
+        for (int j = 0; j < oldCap; j++) {
+            long k;
+            if ((k = oldKeys[j]) != 0) {
+                int i = hash(k) & mask;
+                while (ks[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                ks[i] = k;
+                vs[i] = oldVals[j];
+            }
+        }
+    }
+
+    public void clear() {
+        if (size > 0) {
+            size = 0;
+            hasZeroKey = false;
+            Arrays.fill(keys, 0);
+        }
+    }
+
+    /**
+     * 遍历所有key-value, 不装箱
+     */
+    public void forEach(LongLongConsumer action) {
+        Objects.requireNonNull(action);
+        if (hasZeroKey) {
+            action.accept(0, zeroValue);
+        }
+        long[] ks = keys;
+        long[] vs = vals;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != 0) {
+                action.accept(ks[i], vs[i]);
+            }
+        }
+    }
+
+    /**
+     * 返回一个游标, 用法:
+     * <pre>
+     * for (Cursor c = map.cursor(); c.advance(); ) {
+     *     c.key(); c.value();
+     * }
+     * </pre>
+     * 游标本身是唯一的分配, 遍历过程中不再创建对象
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public final class Cursor {
+        private int pos = -1;
+
+        private boolean zeroPending = hasZeroKey;
+
+        // 当前是否停留在某个元素上
+        private boolean positioned;
+
+        private long key;
+
+        private long value;
+
+        /**
+         * 移动到下一个元素
+         *
+         * @return 没有更多元素时返回false
+         */
+        public boolean advance() {
+            if (zeroPending) {
+                zeroPending = false;
+                key = 0;
+                value = zeroValue;
+                return positioned = true;
+            }
+            long[] ks = keys;
+            while (++pos < ks.length) {
+                if (ks[pos] != 0) {
+                    key = ks[pos];
+                    value = vals[pos];
+                    return positioned = true;
+                }
+            }
+            return positioned = false;
+        }
+
+        public long key() {
+            checkPosition();
+            return key;
+        }
+
+        public long value() {
+            checkPosition();
+            return value;
+        }
+
+        private void checkPosition() {
+            if (!positioned) {
+                throw new NoSuchElementException();
+            }
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package com.lcw.datastructure.hash;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 只保存元素的集合, 代替MyHashtable<K, Boolean>, 每个元素不再需要Node、value引用和装箱的Boolean
+ * <p>
+ * 使用开放寻址(线性探测), 元素和它的hash存放在两个平行数组中, hash与MyHashtable.hash相同;
+ * 槽位下标取 hash * 黄金分割常数 的高位, 连续的hashCode不会在线性探测中连成一片
+ * <p>
+ * 删除时把后面探测序列上的元素往前移(backward shift), 不留墓碑, 查找不会因为删除变慢
+ */
+public class MyHashSet<E> extends AbstractSet<E> implements Set<E> {
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75F;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // 并行批量操作时每个线程平均分到的任务数
+    static final int BULK_TASKS_PER_THREAD = 4;
+
+    // 代表null元素, keys中的null表示空槽位
+    static final Object NULL_ELEMENT = new Object();
+
+    Object[] keys;
+
+    int[] hashes;
+
+    int size;
+
+    // 扩容阈值 = 容量 * 负载因子
+    int threshold;
+
+    // 负载因子
+    final float loadFactor;
+
+    public MyHashSet() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public MyHashSet(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public MyHashSet(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        allocate(capacityFor(initialCapacity));
+    }
+
+    public MyHashSet(Collection<? extends E> c) {
+        this(c.size());
+        addAll(c);
+    }
+
+    /**
+     * 返回大于等于cap的最小2的n次幂
+     */
+    static int tableSizeFor(int cap) {
+        int n = -1 >>> Integer.numberOfLeadingZeros(Math.max(cap, 2) - 1);
+        return n >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /**
+     * 容纳expectedSize个元素不需要扩容的容量
+     */
+    private int capacityFor(int expectedSize) {
+        return tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, (long) Math.ceil(expectedSize / loadFactor) + 1));
+    }
+
+    /**
+     * 乘法散列取高位作为槽位下标, 长度为2^k时右移32 - k位
+     */
+    static int indexFor(int hash, int length) {
+        return (hash * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(length) + 1);
+    }
+
+    private void allocate(int cap) {
+        keys = new Object[cap];
+        hashes = new int[cap];
+        // 至少留一个空槽位, 查找和遍历依赖空槽位结束
+        threshold = Math.min((int) (cap * loadFactor), cap - 1);
+    }
+
+    static Object maskNull(Object o) {
+        return o == null ? NULL_ELEMENT : o;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> E unmaskNull(Object k) {
+        return k == NULL_ELEMENT ? null : (E) k;
+    }
+
+    /**
+     * 查找k所在的槽位
+     *
+     * @param k 已经maskNull
+     * @return 不存在返回-1
+     */
+    static int indexOf(Object[] ks, int[] hs, int hash, Object k) {
+        int m = ks.length - 1;
+        Object x;
+        for (int i = indexFor(hash, ks.length); (x = ks[i]) != null; i = (i + 1) & m) {
+            if (x == k || (hs[i] == hash && k.equals(x))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(keys, hashes, MyHashtable.hash(o), maskNull(o)) >= 0;
+    }
+
+    @Override
+    public boolean add(E e) {
+        return insert(MyHashtable.hash(e), maskNull(e));
+    }
+
+    /**
+     * hash已经计算好, 批量操作时直接使用另一张表中保存的hash
+     *
+     * @param k 已经maskNull
+     * @return 是否新增了元素
+     */
+    boolean insert(int hash, Object k) {
+        Object[] ks = keys;
+        int m = ks.length - 1;
+        int i = indexFor(hash, ks.length);
+        for (Object x; (x = ks[i]) != null; i = (i + 1) & m) {
+            if (x == k || (hashes[i] == hash && k.equals(x))) {
+                return false;
+            }
+        }
+        if (size >= threshold) {
+            resize(keys.length << 1);
+            insertNew(hash, k);
+        } else {
+            ks[i] = k;
+            hashes[i] = hash;
+            size++;
+        }
+        return true;
+    }
+
+    /**
+     * 插入确定不存在的元素, 不需要比较equals
+     */
+    private void insertNew(int hash, Object k) {
+        Object[] ks = keys;
+        int m = ks.length - 1;
+        int i = indexFor(hash, ks.length);
+        while (ks[i] != null) {
+            i = (i + 1) & m;
+        }
+        ks[i] = k;
+        hashes[i] = hash;
+        size++;
+    }
+
+    /**
+     * 按新容量重新放置所有元素, 使用保存的hash, 不再调用hashCode
+     */
+    private void resize(int newCap) {
+        if (keys.length >= MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Capacity exceeded");
+        }
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        allocate(newCap);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insertNew(oldHashes[i], oldKeys[i]);
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int i = indexOf(keys, hashes, MyHashtable.hash(o), maskNull(o));
+        if (i < 0) {
+            return false;
+        }
+        deleteSlot(i);
+        return true;
+    }
+
+    /**
+     * 删除槽位i上的元素, 把后面探测序列上可以前移的元素依次移到空出来的位置
+     * 元素只会往它的起始槽位方向移动, 移动后仍然能从起始槽位探测到
+     */
+    void deleteSlot(int i) {
+        Object[] ks = keys;
+        int[] hs = hashes;
+        int m = ks.length - 1;
+        Object k;
+        for (int j = i; (k = ks[j = (j + 1) & m]) != null; ) {
+            // j上的元素离起始槽位的距离不小于j到i的距离时, 可以移到i
+            if (((j - indexFor(hs[j], ks.length)) & m) >= ((j - i) & m)) {
+                ks[i] = k;
+                hs[i] = hs[j];
+                i = j;
+            }
+        }
+        ks[i] = null;
+        hs[i] = 0;
+        size--;
+    }
+
+    @Override
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            Arrays.fill(hashes, 0);
+            size = 0;
+        }
+    }
+
+    /**
+     * c为较大的MyHashSet时直接复制它的数组, 再把当前集合的元素插入进去, 只需要遍历较小的一侧;
+     * 否则遍历c, c为MyHashSet时使用它保存的hash
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (!(c instanceof MyHashSet)) {
+            return super.addAll(c);
+        }
+        MyHashSet<?> other = (MyHashSet<?>) c;
+        int oldSize = size;
+        Object[] ks;
+        int[] hs;
+        if (other.size > size) {
+            ks = keys;
+            hs = hashes;
+            keys = other.keys.clone();
+            hashes = other.hashes.clone();
+            threshold = Math.min((int) (keys.length * loadFactor), keys.length - 1);
+            size = other.size;
+        } else {
+            ks = other.keys;
+            hs = other.hashes;
+        }
+        // 按另一张表的槽位顺序插入时元素是按起始槽位排好序的, 如果中途扩容, 扩容前较小的表会在前面堆出很长的探测序列,
+        // 所以先按并集的上限一次性确定容量
+        int cap = capacityFor((int) Math.min(MAXIMUM_CAPACITY, (long) oldSize + other.size));
+        if (cap > keys.length) {
+            resize(cap);
+        }
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != null) {
+                insert(hs[i], ks[i]);
+            }
+        }
+        return size != oldSize;
+    }
+
+    /**
+     * c为不小于当前集合的Set时遍历当前集合, 删除c中没有的元素;
+     * 否则遍历c, 把当前集合中也有的元素放入一张新表, c不是Set时contains太慢, 同样遍历c
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        if (c instanceof Set && c.size() >= size) {
+            return removeIf(e -> !c.contains(e));
+        }
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int oldSize = size;
+        allocate(capacityFor(Math.min(oldSize, c.size())));
+        size = 0;
+        if (oldSize > 0) {
+            for (Object o : c) {
+                int i = indexOf(oldKeys, oldHashes, MyHashtable.hash(o), maskNull(o));
+                if (i >= 0) {
+                    // 保留当前集合中的元素实例, 而不是c中equals的那一个
+                    insert(oldHashes[i], oldKeys[i]);
+                }
+            }
+        }
+        return size != oldSize;
+    }
+
+    /**
+     * c为不小于当前集合的Set时遍历当前集合, 删除c中有的元素; 否则遍历c逐个删除
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        if (c instanceof Set && c.size() >= size) {
+            return removeIf(c::contains);
+        }
+        boolean modified = false;
+        for (Object o : c) {
+            modified |= remove(o);
+        }
+        return modified;
+    }
+
+    /**
+     * 返回与other的交集, 元素取自当前集合, 两个集合都不会被修改
+     * <p>
+     * 遍历较小一侧的槽位到较大一侧中查找, 较小一侧的元素数量达到parallelismThreshold时,
+     * 在ForkJoinPool上按槽位范围并行查找, 每个任务把找到的元素按槽位顺序追加到数组中, 最后按总数一次性分配结果
+     *
+     * @param parallelismThreshold 并行执行需要的元素数量, 传入Long.MAX_VALUE表示总是顺序执行
+     */
+    public MyHashSet<E> intersect(MyHashSet<?> other, long parallelismThreshold) {
+        Objects.requireNonNull(other);
+        MyHashSet<?> small = size <= other.size ? this : other;
+        MyHashSet<?> big = small == this ? other : this;
+        Matches found;
+        if (small.size < parallelismThreshold) {
+            found = intersectRange(small, big, 0, small.keys.length);
+        } else {
+            int leaf = Math.max(1, small.keys.length / (ForkJoinPool.getCommonPoolParallelism() * BULK_TASKS_PER_THREAD));
+            found = ForkJoinPool.commonPool().invoke(new IntersectTask(this, small, big, 0, small.keys.length, leaf));
+        }
+        // 容量足够时按起始槽位顺序插入不会堆积, 与addAll中一次性确定容量的原因相同
+        MyHashSet<E> result = new MyHashSet<>(found.size, loadFactor);
+        for (int i = 0; i < found.size; i++) {
+            result.insertNew(found.hashes[i], found.keys[i]);
+        }
+        return result;
+    }
+
+    /**
+     * small槽位[lo, hi)中在big中也存在的元素, 取当前集合中的实例
+     */
+    Matches intersectRange(MyHashSet<?> small, MyHashSet<?> big, int lo, int hi) {
+        Matches found = new Matches();
+        Object[] ks = small.keys;
+        int[] hs = small.hashes;
+        Object k;
+        for (int i = lo; i < hi; i++) {
+            if ((k = ks[i]) != null) {
+                int j = indexOf(big.keys, big.hashes, hs[i], k);
+                if (j >= 0) {
+                    found.add(hs[i], small == this ? k : big.keys[j]);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 交集的部分结果, 元素与hash按槽位顺序追加
+     */
+    static final class Matches {
+        Object[] keys = new Object[16];
+
+        int[] hashes = new int[16];
+
+        int size;
+
+        void add(int hash, Object k) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size << 1);
+                hashes = Arrays.copyOf(hashes, size << 1);
+            }
+            keys[size] = k;
+            hashes[size++] = hash;
+        }
+
+        /**
+         * 把右侧的结果接在后面, 保持槽位顺序
+         */
+        Matches append(Matches r) {
+            if (r.size > 0) {
+                int n = size + r.size;
+                if (n > keys.length) {
+                    keys = Arrays.copyOf(keys, n);
+                    hashes = Arrays.copyOf(hashes, n);
+                }
+                System.arraycopy(r.keys, 0, keys, size, r.size);
+                System.arraycopy(r.hashes, 0, hashes, size, r.size);
+                size = n;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * 槽位范围[lo, hi)超过leaf时一分为二, fork右半部分, 当前线程继续处理左半部分
+     */
+    static final class IntersectTask extends RecursiveTask<Matches> {
+        private static final long serialVersionUID = 1L;
+
+        final MyHashSet<?> owner, small, big;
+        final int lo, hi, leaf;
+
+        IntersectTask(MyHashSet<?> owner, MyHashSet<?> small, MyHashSet<?> big, int lo, int hi, int leaf) {
+            this.owner = owner;
+            this.small = small;
+            this.big = big;
+            this.lo = lo;
+            this.hi = hi;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected Matches compute() {
+            if (hi - lo <= leaf) {
+                return owner.intersectRange(small, big, lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            IntersectTask right = new IntersectTask(owner, small, big, mid, hi, leaf);
+            right.fork();
+            Matches l = new IntersectTask(owner, small, big, lo, mid, leaf).compute();
+            return l.append(right.join());
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new SlotIterator();
+    }
+
+    /**
+     * 从某个空槽位的下一个位置开始, 循环遍历一圈
+     * <p>
+     * 连续的非空槽位不会跨过起点, 所以删除时往前移动的元素只会移到 当前位置及之后,
+     * remove之后从被删除的位置重新向后查找即可, 不会漏掉或重复返回元素
+     * <p>
+     * 遍历期间扩容会换掉数组, 检测到时抛出异常
+     */
+    final class SlotIterator implements Iterator<E> {
+        final Object[] ks = keys;
+
+        final int start;
+
+        // 已经扫描过的槽位数
+        int pos;
+
+        int next = -1;
+
+        int last = -1;
+
+        SlotIterator() {
+            int e = 0;
+            while (ks[e] != null) {
+                e++;
+            }
+            start = (e + 1) & (ks.length - 1);
+            advance();
+        }
+
+        private void advance() {
+            int m = ks.length - 1;
+            while (pos < ks.length) {
+                int i = (start + pos++) & m;
+                if (ks[i] != null) {
+                    next = i;
+                    return;
+                }
+            }
+            next = -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public E next() {
+            if (ks != keys) {
+                throw new ConcurrentModificationException();
+            }
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            E e = unmaskNull(ks[last = next]);
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (ks != keys) {
+                throw new ConcurrentModificationException();
+            }
+            deleteSlot(last);
+            // 后面的元素可能移到了last, 从last重新查找
+            pos = (last - start) & (ks.length - 1);
+            last = -1;
+            advance();
+        }
+    }
+
+    public static void main(String[] args) {
+        final MyHashSet<Integer> set = new MyHashSet<>();
+        final HashSet<Integer> expected = new HashSet<>();
+        final Random r = new Random();
+        for (int i = 0; i < 1000000; i++) {
+            Integer k = r.nextInt(50) == 0 ? null : r.nextInt(100000);
+            if (r.nextInt(3) == 0) {
+                if (set.remove(k) != expected.remove(k)) throw new VerifyError("remove");
+            } else {
+                if (set.add(k) != expected.add(k)) throw new VerifyError("add");
+            }
+        }
+        if (!set.equals(expected) || !expected.equals(set)) throw new VerifyError("equals");
+        set.removeIf(k -> k != null && k % 3 == 0);
+        expected.removeIf(k -> k != null && k % 3 == 0);
+        if (!set.equals(expected)) throw new VerifyError("iterator remove");
+
+        // 与MyHashtable<K, Boolean>比较插入和查找
+        final int n = 1 << 20;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            final MyHashtable<Integer, Boolean> table = new MyHashtable<>();
+            for (int i = 0; i < n; i++) {
+                table.put(i * 7, Boolean.TRUE);
+            }
+            int hits = 0;
+            for (int i = 0; i < n; i++) {
+                if (table.containsKey(i)) hits++;
+            }
+            long t1 = System.nanoTime() - start;
+            start = System.nanoTime();
+            final MyHashSet<Integer> s = new MyHashSet<>();
+            for (int i = 0; i < n; i++) {
+                s.add(i * 7);
+            }
+            for (int i = 0; i < n; i++) {
+                if (s.contains(i)) hits--;
+            }
+            long t2 = System.nanoTime() - start;
+            if (hits != 0) throw new VerifyError("contains");
+            System.out.printf("add + contains %d: MyHashtable<K, Boolean> %dms, MyHashSet %dms%n", n, t1 / 1000000, t2 / 1000000);
+        }
+
+        // 集合运算只遍历较小的一侧
+        final MyHashSet<Integer> big = new MyHashSet<>();
+        final MyHashSet<Integer> small = new MyHashSet<>();
+        for (int i = 0; i < 4000000; i++) {
+            big.add(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            small.add(i * 5000);
+        }
+        long start = System.nanoTime();
+        final MyHashSet<Integer> retained = new MyHashSet<>(big);
+        retained.retainAll(small);
+        final MyHashSet<Integer> union = new MyHashSet<>(small);
+        union.addAll(big);
+        long t = System.nanoTime() - start;
+        if (retained.size() != 800 || union.size() != 4000200) throw new VerifyError("bulk");
+        System.out.printf("retainAll + addAll with %d and %d elements: %dms%n", big.size(), small.size(), t / 1000000);
+
+        final MyHashSet<Integer> other = new MyHashSet<>();
+        for (int i = 0; i < 4000000; i++) {
+            other.add(i * 2);
+        }
+        for (int round = 0; round < 3; round++) {
+            start = System.nanoTime();
+            final MyHashSet<Integer> seq = big.intersect(other, Long.MAX_VALUE);
+            long t1 = System.nanoTime() - start;
+            start = System.nanoTime();
+            final MyHashSet<Integer> par = big.intersect(other, 1);
+            long t2 = System.nanoTime() - start;
+            if (seq.size() != 2000000 || !seq.equals(par)) throw new VerifyError("intersect");
+            System.out.printf("intersect %d elements, parallelism %d: sequential %dms, parallel %dms%n",
+                    seq.size(), ForkJoinPool.getCommonPoolParallelism(), t1 / 1000000, t2 / 1000000);
+        }
+        System.out.println("success! size: " + set.size());
+    }
+}
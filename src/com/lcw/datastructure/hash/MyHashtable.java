@@ -1,6 +1,15 @@
 package com.lcw.datastructure.hash;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -28,12 +37,55 @@ public class MyHashtable<K, V> implements Map<K, V> {
 
     static final int MAXIMUM_CAPACITY = 1 << 30;
 
+    // 渐进式rehash每次操作最多迁移的非空槽位数量
+    static final int REHASH_STEP = 4;
+
+    // 渐进式rehash每迁移一个槽位最多跳过的空槽位数量, 避免稀疏表上一次扫描太多
+    static final int REHASH_EMPTY_VISITS = 10;
+
+    // getAll批量达到该值时才按槽位下标排序后查找
+    static final int BATCH_THRESHOLD = 64;
+
+    // 并行批量操作时每个线程平均分到的任务数
+    static final int BULK_TASKS_PER_THREAD = 4;
+
+    // 是否开启渐进式rehash, 开启后扩容不会一次性迁移整张表, 而是分摊到之后的每次put/get/remove
+    final boolean incrementalRehash;
+
+    // 渐进式rehash中的新表, 为null表示当前没有在rehash
+    Node<K, V>[] nextTable;
+
+    // 旧表中下一个要迁移的槽位
+    int rehashIndex;
+
+    // 通过openSnapshot打开时, 第一次写之前直接从映射的快照文件中读取, 此时table为null
+    MyHashtableSnapshot<K, V> snapshot;
+
+    // 运行统计, 调用enableStats()之后才不为null
+    HashTableStats stats;
+
+    // 视图在第一次使用时创建, 之后复用
+    Set<K> keySet;
+
+    Collection<V> values;
+
+    Set<Entry<K, V>> entrySet;
+
     public MyHashtable() {
-        this.loadFactor = DEFAULT_LOAD_FACTOR;
+        this(DEFAULT_LOAD_FACTOR);
     }
 
     public MyHashtable(float loadFactor) {
+        this(loadFactor, false);
+    }
+
+    /**
+     * @param loadFactor        负载因子
+     * @param incrementalRehash 为true时开启渐进式rehash(类似redis的dict), 扩容期间新旧两张表共存
+     */
+    public MyHashtable(float loadFactor, boolean incrementalRehash) {
         this.loadFactor = loadFactor;
+        this.incrementalRehash = incrementalRehash;
     }
 
     /**
@@ -106,10 +158,19 @@ public class MyHashtable<K, V> implements Map<K, V> {
     public Node<K, V> getNode(Object key) {
         Node<K, V>[] tab;
         Node<K, V> e;
-        int n, hash;
-        if ((tab = table) != null && (n = table.length) > 0) {
+        int n, hash = hash(key);
+        if (snapshot != null) {
+            return snapshot.getNode(key);
+        }
+        if (nextTable != null) {
+            rehash(REHASH_STEP);
+        }
+        if ((tab = tableOf(hash)) != null && (n = tab.length) > 0) {
             // 槽位上真的有数据
-            if ((e = tab[(n - 1) & (hash = hash(key))]) != null) {
+            if ((e = tab[(n - 1) & hash]) != null) {
+                if (HashTableStats.ENABLED && stats != null) {
+                    return findRecorded(e, hash, key, n);
+                }
                 do {
                     if (e.hash == hash && (Objects.equals(key, e.key))) {
                         return e;
@@ -120,6 +181,21 @@ public class MyHashtable<K, V> implements Map<K, V> {
         return null;
     }
 
+    /**
+     * 与getNode中的链表查找相同, 额外记录走过的节点数
+     */
+    private Node<K, V> findRecorded(Node<K, V> e, int hash, Object key, int n) {
+        int walk = 0;
+        do {
+            walk++;
+            if (e.hash == hash && (Objects.equals(key, e.key))) {
+                break;
+            }
+        } while ((e = e.next) != null);
+        stats.recordLookup(walk, (n - 1) & hash, n);
+        return e;
+    }
+
     @Override
     public V put(K key, V value) {
         return putVal(hash(key), key, value, false);
@@ -140,10 +216,26 @@ public class MyHashtable<K, V> implements Map<K, V> {
         int n;
         // 插入的索引
         int i;
+        if (snapshot != null) {
+            materialize();
+        }
         // 如果表为null或者没有元素, resize
         if ((tab = table) == null || (n = tab.length) == 0) {
             n = (tab = resize()).length;
         }
+        // 渐进式rehash中, 先把key所在的旧槽位迁移走, 新元素只会写入新表
+        if (nextTable != null) {
+            rehash(REHASH_STEP);
+            if (nextTable != null) {
+                if (tab[i = (n - 1) & hash] != null) {
+                    transferBucket(tab, i, nextTable, n);
+                }
+                tab = nextTable;
+            } else {
+                tab = table;
+            }
+            n = tab.length;
+        }
         // 当前插入的节点
         Node<K, V> p;
         // 槽位上没有数据
@@ -176,9 +268,9 @@ public class MyHashtable<K, V> implements Map<K, V> {
             }
             // 替换元素
             if (e != null) {
-                V oldValue = p.val;
+                V oldValue = e.val;
                 if (!onlyIfAbsent) {
-                    p.val = val;
+                    e.val = val;
                 }
                 return oldValue;
             }
@@ -192,8 +284,24 @@ public class MyHashtable<K, V> implements Map<K, V> {
 
     /**
      * 扩容table数组容量, 达到扩容阈值才需要调用
+     * 开启渐进式rehash时统计到的耗时只包含创建新表, 不包含之后分摊的迁移
      */
     private Node<K, V>[] resize() {
+        if (HashTableStats.ENABLED && stats != null) {
+            int oldCap = table == null ? 0 : table.length;
+            long start = stats.beginResize(size, oldCap);
+            Node<K, V>[] newTab = doResize();
+            stats.endResize(start, oldCap, newTab.length, size);
+            return newTab;
+        }
+        return doResize();
+    }
+
+    private Node<K, V>[] doResize() {
+        // 上一次渐进式rehash还没完成, 先一次性迁移完
+        if (nextTable != null) {
+            rehash(Integer.MAX_VALUE);
+        }
         Node<K, V>[] oldTab = this.table;
         // 旧tab的容量
         int oldCap = oldTab == null ? 0 : oldTab.length;
@@ -222,73 +330,180 @@ public class MyHashtable<K, V> implements Map<K, V> {
             newCap = DEFAULT_INITIAL_CAPACITY;
             newThr = (int) (loadFactor * DEFAULT_INITIAL_CAPACITY);
         }
+        // 旧容量小于默认容量(预设了较小的容量)时上面没有计算新的扩容阈值
+        if (newThr == 0) {
+            float ft = newCap * loadFactor;
+            newThr = (newCap < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+        }
 
         // 上面主要计算了, 新的容量, 新的扩容阈值
         threshold = newThr;
-        Node<K, V>[] newTab = new Node[newCap];
+        Node<K, V>[] newTab = newTable(newCap);
+        if (incrementalRehash && oldCap > 0) {
+            // 渐进式rehash: 这里只创建新表, 数据在之后的操作中逐步迁移
+            nextTable = newTab;
+            rehashIndex = 0;
+            return newTab;
+        }
         this.table = newTab;
         for (int i = 0; i < oldCap; i++) {
-            Node<K, V> e;
             // 槽位上有数据
-            if ((e = oldTab[i]) != null) {
-                oldTab[i] = null; // help gc
-                if (e.next == null) {
-                    newTab[e.hash & (newCap - 1)] = e;
-                } else {
-                    // 处理链表, 保证相对顺序
-                    // 利用cap为2的n次幂
-                    Node<K, V> loHead = null, loTail = null, hiHead = null, hiTail = null;
-                    Node<K, V> next;
-                    // lo链表表示还在原来位置的节点, hi链表表示需要移位的节点
-                    // 在容量是2的n次幂, 有hash & (n - 1) == hash % n的规律, 所以可以用与运算替代mod运算
-                    /*
-                    且扩容后无需再次计算hash, 例如n = 16
-                    n:     0001 0000
-                    n - 1: 0000 1111
-                    hash1: 0001 1001  -->|与运算后|  0000 1001  索引为9
-                    hash2: 0100 1001  -->|与运算后|  0000 1001  索引为9
-                    现在扩容 n << 1
-                    n:     0010 0000
-                    n - 1: 0001 1111
-                    hash1: 0001 1001  -->|与运算后|  0001 1001  索引为16 + 9, 即oldCap + index
-                    hash2: 0100 1001  -->|与运算后|  0000 1001  索引为9
-                    发现扩容后n-1前面只是多了一个1, 位置是否变化取决于hash前面是否有与扩容后的n-1对应的1, 即:
-                    当 n & hash == 0时, 表示扩容后n-1多出来的1 hash中没有与之对应的1 位置不会变化
-                    当 n & hash != 0时, 表示扩容后n-1多出来的1 hash中有与之对应的1 位置发生变化 新的位置为 oldCap + index
-                     */
-                    // 参考文章 https://blog.csdn.net/u012501054/article/details/103710171/
-                    do {
-                        next = e.next;
-                        // 扩容后位置不变
-                        if ((e.hash & oldCap) == 0) {
-                            if (loHead == null) {
-                                loHead = e;
-                            } else {
-                                loTail.next = e;
-                            }
-                            loTail = e;
-                        } else {
-                            // 扩容后位置变化
-                            if (hiHead == null) {
-                                hiHead = e;
-                            } else {
-                                hiTail.next = e;
-                            }
-                            hiTail = e;
-                        }
-                    } while ((e = next) != null);
-                    if (loTail != null) {
-                        loTail.next = null;
-                        newTab[i] = loHead;
+            if (oldTab[i] != null) {
+                transferBucket(oldTab, i, newTab, oldCap);
+            }
+        }
+        return newTab;
+    }
+
+    /**
+     * 开启运行统计, 需要启动时加上 -Dcom.lcw.datastructure.hash.stats=true
+     *
+     * @see HashTableStats
+     */
+    public HashTableStats enableStats() {
+        if (stats == null) {
+            stats = new HashTableStats(getClass().getSimpleName());
+        }
+        return stats;
+    }
+
+    /**
+     * @return 运行统计, 没有开启返回null
+     */
+    public HashTableStats stats() {
+        return stats;
+    }
+
+    /**
+     * 统计每个槽位的链表长度, 渐进式rehash中新旧两张表都会统计
+     *
+     * @return 下标为链表长度, 值为该长度的槽位数量
+     */
+    public int[] chainLengthHistogram() {
+        if (snapshot != null) {
+            materialize();
+        }
+        int[] histogram = new int[1];
+        for (Node<K, V>[] tab : Arrays.asList(table, nextTable)) {
+            if (tab == null) {
+                continue;
+            }
+            for (Node<K, V> e : tab) {
+                int len = 0;
+                for (; e != null; e = e.next) {
+                    len++;
+                }
+                histogram = HashTableStats.addToHistogram(histogram, len);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * 把旧表槽位i上的链表迁移到新表(容量为旧表两倍)
+     *
+     * @param oldTab 旧表
+     * @param i      旧表中的槽位
+     * @param newTab 新表
+     * @param oldCap 旧表容量
+     */
+    private void transferBucket(Node<K, V>[] oldTab, int i, Node<K, V>[] newTab, int oldCap) {
+        Node<K, V> e = oldTab[i];
+        oldTab[i] = null; // help gc
+        if (e.next == null) {
+            int j = e.hash & (newTab.length - 1);
+            e.next = newTab[j];
+            newTab[j] = e;
+        } else {
+            // 处理链表, 保证相对顺序
+            // 利用cap为2的n次幂
+            Node<K, V> loHead = null, loTail = null, hiHead = null, hiTail = null;
+            Node<K, V> next;
+            // lo链表表示还在原来位置的节点, hi链表表示需要移位的节点
+            // 在容量是2的n次幂, 有hash & (n - 1) == hash % n的规律, 所以可以用与运算替代mod运算
+            /*
+            且扩容后无需再次计算hash, 例如n = 16
+            n:     0001 0000
+            n - 1: 0000 1111
+            hash1: 0001 1001  -->|与运算后|  0000 1001  索引为9
+            hash2: 0100 1001  -->|与运算后|  0000 1001  索引为9
+            现在扩容 n << 1
+            n:     0010 0000
+            n - 1: 0001 1111
+            hash1: 0001 1001  -->|与运算后|  0001 1001  索引为16 + 9, 即oldCap + index
+            hash2: 0100 1001  -->|与运算后|  0000 1001  索引为9
+            发现扩容后n-1前面只是多了一个1, 位置是否变化取决于hash前面是否有与扩容后的n-1对应的1, 即:
+            当 n & hash == 0时, 表示扩容后n-1多出来的1 hash中没有与之对应的1 位置不会变化
+            当 n & hash != 0时, 表示扩容后n-1多出来的1 hash中有与之对应的1 位置发生变化 新的位置为 oldCap + index
+             */
+            // 参考文章 https://blog.csdn.net/u012501054/article/details/103710171/
+            do {
+                next = e.next;
+                // 扩容后位置不变
+                if ((e.hash & oldCap) == 0) {
+                    if (loHead == null) {
+                        loHead = e;
+                    } else {
+                        loTail.next = e;
                     }
-                    if (hiTail != null) {
-                        hiTail.next = null;
-                        newTab[i + oldCap] = hiHead;
+                    loTail = e;
+                } else {
+                    // 扩容后位置变化
+                    if (hiHead == null) {
+                        hiHead = e;
+                    } else {
+                        hiTail.next = e;
                     }
+                    hiTail = e;
                 }
+            } while ((e = next) != null);
+            // 渐进式rehash时新表槽位上可能已经有直接写入的元素, 接在后面
+            if (loTail != null) {
+                loTail.next = newTab[i];
+                newTab[i] = loHead;
+            }
+            if (hiTail != null) {
+                hiTail.next = newTab[i + oldCap];
+                newTab[i + oldCap] = hiHead;
             }
         }
-        return newTab;
+    }
+
+    /**
+     * 渐进式rehash, 迁移最多steps个非空槽位, 全部迁移完后用新表替换旧表
+     */
+    private void rehash(int steps) {
+        Node<K, V>[] oldTab = table, newTab = nextTable;
+        int oldCap = oldTab.length;
+        // 用long计算, 一次迁移完时steps为Integer.MAX_VALUE, 乘积超过int范围
+        long emptyVisits = (long) steps * REHASH_EMPTY_VISITS;
+        while (steps > 0 && rehashIndex < oldCap) {
+            if (oldTab[rehashIndex] == null) {
+                rehashIndex++;
+                if (--emptyVisits == 0) {
+                    break;
+                }
+                continue;
+            }
+            transferBucket(oldTab, rehashIndex++, newTab, oldCap);
+            steps--;
+        }
+        if (rehashIndex >= oldCap) {
+            table = newTab;
+            nextTable = null;
+            rehashIndex = 0;
+        }
+    }
+
+    /**
+     * 返回hash所在的表: rehash中旧槽位还有数据就在旧表, 否则在新表
+     */
+    private Node<K, V>[] tableOf(int hash) {
+        Node<K, V>[] tab = table;
+        if (nextTable != null && tab[(tab.length - 1) & hash] == null) {
+            return nextTable;
+        }
+        return tab;
     }
 
     @Override
@@ -304,7 +519,13 @@ public class MyHashtable<K, V> implements Map<K, V> {
         Node<K, V>[] tab;
         Node<K, V> e;
         int n, i;
-        if ((tab = table) != null && (n = table.length) > 0 && (e = tab[(i = (n - 1) & hash)]) != null) {
+        if (snapshot != null) {
+            materialize();
+        }
+        if (nextTable != null) {
+            rehash(REHASH_STEP);
+        }
+        if ((tab = tableOf(hash)) != null && (n = tab.length) > 0 && (e = tab[(i = (n - 1) & hash)]) != null) {
             Node<K, V> node = null, pre = e;
             do {
                 if (e.hash == hash && Objects.equals(e.key, key)) {
@@ -322,18 +543,483 @@ public class MyHashtable<K, V> implements Map<K, V> {
                 }
                 size--;
             }
+            return node;
         }
         return null;
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
+        int n = m.size();
+        if (n == 0) {
+            return;
+        }
+        presize(size + n);
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            K key = e.getKey();
+            putVal(hash(key), key, e.getValue(), false);
+        }
+    }
+
+    /**
+     * 批量存入, keys[i]对应vals[i], 只在开始时扩容一次
+     */
+    public void putAll(K[] keys, V[] vals) {
+        int n = keys.length;
+        if (vals.length != n) {
+            throw new IllegalArgumentException("keys.length != vals.length");
+        }
+        if (n == 0) {
+            return;
+        }
+        presize(size + n);
+        for (int i = 0; i < n; i++) {
+            K key = keys[i];
+            putVal(hash(key), key, vals[i], false);
+        }
+    }
 
+    /**
+     * 批量获取, out[i]为keys[i]对应的value, 不存在为null
+     * 先计算整批key的hash, 按槽位下标排序后再依次读取槽位、比较链表
+     *
+     * @return 找到的key数量
+     */
+    public int getAll(K[] keys, V[] out) {
+        int n = keys.length;
+        if (out.length < n) {
+            throw new IllegalArgumentException("out.length < keys.length");
+        }
+        int found = 0;
+        // 批量太小时直接逐个查找; 渐进式rehash中key可能在两张表里、快照模式下没有table, 也逐个查找
+        if (n < BATCH_THRESHOLD || nextTable != null || snapshot != null) {
+            for (int i = 0; i < n; i++) {
+                Node<K, V> e = getNode(keys[i]);
+                if (e != null) {
+                    out[i] = e.val;
+                    found++;
+                } else {
+                    out[i] = null;
+                }
+            }
+            return found;
+        }
+        Node<K, V>[] tab = table;
+        if (tab == null || size == 0) {
+            Arrays.fill(out, 0, n, null);
+            return 0;
+        }
+        int mask = tab.length - 1;
+        // 调用方给出的顺序是随机的, 先算出整批key的hash, 再按槽位下标的高位做一次计数排序,
+        // 桶的数量不超过批量大小, 排序后table按地址顺序访问, 批量越大相邻的访问越可能落在同一个cache line上
+        int tableBits = Integer.numberOfTrailingZeros(tab.length);
+        int sortBits = Math.min(tableBits, 32 - Integer.numberOfLeadingZeros(n - 1));
+        int shift = tableBits - sortBits;
+        int[] hashes = new int[n];
+        int[] counts = new int[(1 << sortBits) + 1];
+        for (int i = 0; i < n; i++) {
+            int h = hash(keys[i]);
+            hashes[i] = h;
+            counts[((h & mask) >>> shift) + 1]++;
+        }
+        for (int b = 1; b < counts.length; b++) {
+            counts[b] += counts[b - 1];
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[counts[(hashes[i] & mask) >>> shift]++] = i;
+        }
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            int h = hashes[i];
+            K key = keys[i];
+            V val = null;
+            for (Node<K, V> e = tab[h & mask]; e != null; e = e.next) {
+                if (e.hash == h && Objects.equals(key, e.key)) {
+                    val = e.val;
+                    found++;
+                    break;
+                }
+            }
+            out[i] = val;
+        }
+        return found;
+    }
+
+    /**
+     * 批量插入前按预期元素数量一次性确定容量
+     */
+    private void presize(int expectedSize) {
+        if (snapshot != null) {
+            materialize();
+        }
+        if (table == null) {
+            float ft = expectedSize / loadFactor + 1.0F;
+            int t = ft < MAXIMUM_CAPACITY ? (int) ft : MAXIMUM_CAPACITY;
+            // 表还没有初始化时, resize会把threshold当作初始容量
+            if (t > threshold) {
+                threshold = tableSizeFor(t);
+            }
+        } else if (expectedSize > threshold && threshold < Integer.MAX_VALUE) {
+            // 一次算出最终容量, 只rehash一次, 而不是每次翻倍都把所有元素迁移一遍
+            float ft = expectedSize / loadFactor + 1.0F;
+            resizeTo(tableSizeFor(ft < MAXIMUM_CAPACITY ? (int) ft : MAXIMUM_CAPACITY));
+        }
+    }
+
+    /**
+     * 直接扩容到newCap(2的n次幂), 不使用渐进式rehash, 进行中的渐进式rehash先一次性完成
+     */
+    private void resizeTo(int newCap) {
+        if (nextTable != null) {
+            rehash(Integer.MAX_VALUE);
+        }
+        Node<K, V>[] oldTab = table;
+        int oldCap = oldTab.length;
+        if (newCap <= oldCap) {
+            return;
+        }
+        long start = HashTableStats.ENABLED && stats != null ? stats.beginResize(size, oldCap) : 0;
+        float ft = newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+        Node<K, V>[] newTab = newTable(newCap);
+        int mask = newCap - 1;
+        // 旧槽位i的元素只会进入新表中下标与i模oldCap同余的槽位, 这些槽位只有槽位i的元素,
+        // 链表很短, 直接找到尾节点追加, 保证相对顺序
+        for (int i = 0; i < oldCap; i++) {
+            Node<K, V> e = oldTab[i], next;
+            oldTab[i] = null;
+            for (; e != null; e = next) {
+                next = e.next;
+                e.next = null;
+                int j = e.hash & mask;
+                Node<K, V> p = newTab[j];
+                if (p == null) {
+                    newTab[j] = e;
+                } else {
+                    while (p.next != null) {
+                        p = p.next;
+                    }
+                    p.next = e;
+                }
+            }
+        }
+        table = newTab;
+        if (HashTableStats.ENABLED && stats != null) {
+            stats.endResize(start, oldCap, newCap, size);
+        }
+    }
+
+    /**
+     * 返回大于等于cap的最小2的n次幂
+     */
+    static int tableSizeFor(int cap) {
+        int n = -1 >>> Integer.numberOfLeadingZeros(Math.max(cap, 1) - 1);
+        return n < 0 ? 1 : (n >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : n + 1);
+    }
+
+    /**
+     * 泛型数组不能直接创建, 创建原始类型数组后强转, 数组中只会放入Node<K, V>
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static <K, V> Node<K, V>[] newTable(int n) {
+        return (Node<K, V>[]) new Node[n];
+    }
+
+    /**
+     * 创建一个内容相同的不可变FrozenMap, 之后对当前map的修改不会影响它
+     *
+     * @see FrozenMap
+     */
+    public FrozenMap<K, V> freeze() {
+        prepareTraversal();
+        return FrozenMap.build(table, size);
+    }
+
+    /**
+     * 对每个元素执行action, 元素数量达到parallelismThreshold时在ForkJoinPool上按槽位范围并行执行
+     * 与ConcurrentHashMap的批量操作一样, 传入Long.MAX_VALUE表示总是顺序执行, 传入1表示尽可能并行
+     * <p>
+     * 批量操作期间不能修改map
+     *
+     * @param parallelismThreshold 并行执行需要的元素数量
+     */
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        mapReduce(parallelismThreshold, (k, v) -> {
+            action.accept(k, v);
+            return null;
+        }, (a, b) -> null);
+    }
+
+    /**
+     * 对每个元素执行transformer, 再用reducer合并所有非null的结果
+     *
+     * @param transformer 返回null表示忽略该元素
+     * @return 没有非null结果时返回null
+     */
+    public <U> U mapReduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                           BiFunction<? super U, ? super U, ? extends U> reducer) {
+        Objects.requireNonNull(transformer);
+        Objects.requireNonNull(reducer);
+        Node<K, V>[] tab = bulkTable();
+        if (tab == null) {
+            return null;
+        }
+        if (size < parallelismThreshold) {
+            return mapReduceRange(tab, 0, tab.length, transformer, reducer);
+        }
+        return ForkJoinPool.commonPool().invoke(new MapReduceTask<>(tab, 0, tab.length, leafSize(tab), transformer, reducer));
+    }
+
+    /**
+     * 用reducer合并所有value
+     *
+     * @return map为空时返回null
+     */
+    public V reduceValues(long parallelismThreshold, BiFunction<? super V, ? super V, ? extends V> reducer) {
+        return mapReduce(parallelismThreshold, (k, v) -> v, reducer);
+    }
+
+    /**
+     * 返回searchFunction对某个元素的第一个非null结果, 找到后其余任务不再继续遍历
+     * 并行执行时返回的不一定是槽位顺序上的第一个
+     *
+     * @return 没有找到返回null
+     */
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        Objects.requireNonNull(searchFunction);
+        Node<K, V>[] tab = bulkTable();
+        if (tab == null) {
+            return null;
+        }
+        if (size < parallelismThreshold) {
+            return searchRange(tab, 0, tab.length, searchFunction, null);
+        }
+        AtomicReference<U> result = new AtomicReference<>();
+        ForkJoinPool.commonPool().invoke(new SearchTask<>(tab, 0, tab.length, leafSize(tab), searchFunction, result));
+        return result.get();
+    }
+
+    private Node<K, V>[] bulkTable() {
+        prepareTraversal();
+        return size == 0 ? null : table;
+    }
+
+    /**
+     * 每个叶子任务负责的槽位数量, 任务数大约是并行度的BULK_TASKS_PER_THREAD倍, 方便工作窃取平衡负载
+     */
+    static int leafSize(Node<?, ?>[] tab) {
+        return Math.max(1, tab.length / (ForkJoinPool.getCommonPoolParallelism() * BULK_TASKS_PER_THREAD));
+    }
+
+    static <K, V, U> U mapReduceRange(Node<K, V>[] tab, int lo, int hi,
+                                      BiFunction<? super K, ? super V, ? extends U> transformer,
+                                      BiFunction<? super U, ? super U, ? extends U> reducer) {
+        U r = null, u;
+        for (int i = lo; i < hi; i++) {
+            for (Node<K, V> e = tab[i]; e != null; e = e.next) {
+                if ((u = transformer.apply(e.key, e.val)) != null) {
+                    r = r == null ? u : reducer.apply(r, u);
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @param result 并行执行时共享的结果, 其他任务找到后提前结束; 顺序执行时为null
+     */
+    static <K, V, U> U searchRange(Node<K, V>[] tab, int lo, int hi,
+                                   BiFunction<? super K, ? super V, ? extends U> searchFunction,
+                                   AtomicReference<U> result) {
+        U u;
+        for (int i = lo; i < hi; i++) {
+            if (result != null && result.get() != null) {
+                return null;
+            }
+            for (Node<K, V> e = tab[i]; e != null; e = e.next) {
+                if ((u = searchFunction.apply(e.key, e.val)) != null) {
+                    if (result != null) {
+                        result.compareAndSet(null, u);
+                    }
+                    return u;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 槽位范围[lo, hi)超过leaf时一分为二, fork右半部分, 当前线程继续处理左半部分
+     */
+    static final class MapReduceTask<K, V, U> extends RecursiveTask<U> {
+        private static final long serialVersionUID = 1L;
+
+        final Node<K, V>[] tab;
+        final int lo, hi, leaf;
+        final BiFunction<? super K, ? super V, ? extends U> transformer;
+        final BiFunction<? super U, ? super U, ? extends U> reducer;
+
+        MapReduceTask(Node<K, V>[] tab, int lo, int hi, int leaf,
+                      BiFunction<? super K, ? super V, ? extends U> transformer,
+                      BiFunction<? super U, ? super U, ? extends U> reducer) {
+            this.tab = tab;
+            this.lo = lo;
+            this.hi = hi;
+            this.leaf = leaf;
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+
+        @Override
+        protected U compute() {
+            if (hi - lo <= leaf) {
+                return mapReduceRange(tab, lo, hi, transformer, reducer);
+            }
+            int mid = (lo + hi) >>> 1;
+            MapReduceTask<K, V, U> right = new MapReduceTask<>(tab, mid, hi, leaf, transformer, reducer);
+            right.fork();
+            U l = new MapReduceTask<>(tab, lo, mid, leaf, transformer, reducer).compute();
+            U r = right.join();
+            return l == null ? r : (r == null ? l : reducer.apply(l, r));
+        }
+    }
+
+    static final class SearchTask<K, V, U> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Node<K, V>[] tab;
+        final int lo, hi, leaf;
+        final BiFunction<? super K, ? super V, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+
+        SearchTask(Node<K, V>[] tab, int lo, int hi, int leaf,
+                   BiFunction<? super K, ? super V, ? extends U> searchFunction, AtomicReference<U> result) {
+            this.tab = tab;
+            this.lo = lo;
+            this.hi = hi;
+            this.leaf = leaf;
+            this.searchFunction = searchFunction;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (result.get() != null) {
+                return;
+            }
+            if (hi - lo <= leaf) {
+                searchRange(tab, lo, hi, searchFunction, result);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            SearchTask<K, V, U> right = new SearchTask<>(tab, mid, hi, leaf, searchFunction, result);
+            right.fork();
+            new SearchTask<>(tab, lo, mid, leaf, searchFunction, result).compute();
+            right.join();
+        }
+    }
+
+    /**
+     * 用一个流中的所有元素并行构建map, 与依次put的结果相同(重复的key保留流中最后一个value)
+     * <p>
+     * 先根据元素数量一次性确定最终容量cap, 再按槽位下标(hash & (cap - 1))的高log2(partitions)位对元素做基数分区,
+     * 这样每个分区只会落到最终table上一段连续的槽位, 每个分区的子表就是最终table的一段, 可以在ForkJoinPool上各自独立构建,
+     * 构建完不需要再拼接或rehash
+     * <p>
+     * 分区由RadixPartition分三步并行执行, 每步之间只有一次很小的顺序前缀和:
+     * 1. 把元素按块计算hash, 统计每块落到各个分区的数量
+     * 2. 每块按前缀和把元素下标分散到各自分区的连续区间, 同一分区内保持流中的顺序, 元素和hash本身不移动
+     * 3. 每个分区把自己的元素挂到对应槽位的链表上
+     *
+     * @param entries    元素, 并行流会在收集时并行执行
+     * @param partitions 分区数量, 向上取整为2的n次幂, 一般取并行度的若干倍
+     */
+    public static <K, V> MyHashtable<K, V> parallelBuild(Stream<? extends Entry<? extends K, ? extends V>> entries,
+                                                         int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Illegal partitions: " + partitions);
+        }
+        final MyHashtable<K, V> map = new MyHashtable<>();
+        final Object[] rows = entries.toArray();
+        final int n = rows.length;
+        if (n == 0) {
+            return map;
+        }
+        float ft = n / map.loadFactor + 1.0F;
+        final int cap = tableSizeFor(ft < MAXIMUM_CAPACITY ? (int) ft : MAXIMUM_CAPACITY);
+        final int parts = Math.min(tableSizeFor(partitions), cap);
+        // 槽位下标右移shift位得到分区号
+        final int shift = Integer.numberOfTrailingZeros(cap) - Integer.numberOfTrailingZeros(parts);
+        // 1, 2. 按槽位下标的高位分区, 只分散元素下标, 元素和hash仍从rows和part.hashes中读取
+        final int[] partRows = new int[n];
+        final RadixPartition part = RadixPartition.of(n, parts, i -> hash(((Entry<?, ?>) rows[i]).getKey()),
+                h -> ((cap - 1) & h) >>> shift, (i, j, h) -> partRows[j] = i);
+        final int[] hashes = part.hashes, bounds = part.bounds;
+
+        // 3. 每个分区只写入槽位[p << shift, (p + 1) << shift), 互不影响
+        final Node<K, V>[] tab = newTable(cap);
+        final int[] sizes = new int[parts];
+        RadixPartition.invoke(parts, p -> {
+            int count = 0;
+            for (int j = bounds[p], end = bounds[p + 1]; j < end; j++) {
+                int i = partRows[j];
+                @SuppressWarnings("unchecked") Entry<? extends K, ? extends V> e = (Entry<? extends K, ? extends V>) rows[i];
+                if (putBuilt(tab, hashes[i], e.getKey(), e.getValue())) {
+                    count++;
+                }
+            }
+            sizes[p] = count;
+        });
+
+        for (int s : sizes) {
+            map.size += s;
+        }
+        map.table = tab;
+        float thr = cap * map.loadFactor;
+        map.threshold = (cap < MAXIMUM_CAPACITY && thr < MAXIMUM_CAPACITY) ? (int) thr : Integer.MAX_VALUE;
+        return map;
+    }
+
+    /**
+     * parallelBuild中把元素挂到链表尾部, 已有相同key时替换value
+     *
+     * @return 是否新增了节点
+     */
+    private static <K, V> boolean putBuilt(Node<K, V>[] tab, int hash, K key, V val) {
+        int i = (tab.length - 1) & hash;
+        Node<K, V> p = tab[i];
+        if (p == null) {
+            tab[i] = new Node<>(hash, key, val, null);
+            return true;
+        }
+        while (true) {
+            if (p.hash == hash && Objects.equals(key, p.key)) {
+                p.val = val;
+                return false;
+            }
+            if (p.next == null) {
+                p.next = new Node<>(hash, key, val, null);
+                return true;
+            }
+            p = p.next;
+        }
     }
 
     @Override
     public void clear() {
         Node<K, V>[] tab;
+        if (snapshot != null) {
+            snapshot = null;
+            size = 0;
+        }
+        if (nextTable != null) {
+            // 旧表上剩余的数据直接丢弃即可
+            table = nextTable;
+            nextTable = null;
+            rehashIndex = 0;
+        }
         if ((tab = table) != null && size > 0) {
             size = 0;
             Arrays.fill(tab, null);
@@ -342,17 +1028,385 @@ public class MyHashtable<K, V> implements Map<K, V> {
 
     @Override
     public Set<K> keySet() {
-        return null;
+        Set<K> ks;
+        return (ks = keySet) == null ? (keySet = new KeySet()) : ks;
     }
 
     @Override
     public Collection<V> values() {
-        return null;
+        Collection<V> vs;
+        return (vs = values) == null ? (values = new Values()) : vs;
     }
 
     @Override
     public Set<Entry<K, V>> entrySet() {
-        return null;
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    /**
+     * 遍历前把快照加载为table, 并完成渐进式rehash, 保证所有元素都在table中
+     * 遍历期间的get不会再触发迁移, 不会漏掉或重复访问元素
+     */
+    final void prepareTraversal() {
+        if (snapshot != null) {
+            materialize();
+        }
+        if (nextTable != null) {
+            rehash(Integer.MAX_VALUE);
+        }
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            MyHashtable.this.clear();
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            return removeNode(hash(key), key) != null;
+        }
+
+        @Override
+        public Spliterator<K> spliterator() {
+            return new KeySpliterator<>(MyHashtable.this, 0, -1, 0);
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            MyHashtable.this.clear();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public Spliterator<V> spliterator() {
+            return new ValueSpliterator<>(MyHashtable.this, 0, -1, 0);
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            MyHashtable.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey();
+            Node<K, V> candidate = getNode(key);
+            return candidate != null && Objects.equals(candidate.val, e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return contains(o) && removeNode(hash(((Entry<?, ?>) o).getKey()), ((Entry<?, ?>) o).getKey()) != null;
+        }
+
+        @Override
+        public Spliterator<Entry<K, V>> spliterator() {
+            return new EntrySpliterator<>(MyHashtable.this, 0, -1, 0);
+        }
+    }
+
+    /**
+     * 直接遍历table, 按槽位顺序访问每个链表
+     */
+    abstract class HashIterator {
+        Node<K, V> next;
+
+        Node<K, V> current;
+
+        int index;
+
+        HashIterator() {
+            prepareTraversal();
+            Node<K, V>[] t = table;
+            if (t != null && size > 0) {
+                while (index < t.length && (next = t[index++]) == null) ;
+            }
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        final Node<K, V> nextNode() {
+            Node<K, V>[] t;
+            Node<K, V> e = next;
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            if ((next = (current = e).next) == null && (t = table) != null) {
+                while (index < t.length && (next = t[index++]) == null) ;
+            }
+            return e;
+        }
+
+        public final void remove() {
+            Node<K, V> p = current;
+            if (p == null) {
+                throw new IllegalStateException();
+            }
+            current = null;
+            removeNode(p.hash, p.key);
+        }
+    }
+
+    final class KeyIterator extends HashIterator implements Iterator<K> {
+        @Override
+        public K next() {
+            return nextNode().key;
+        }
+    }
+
+    final class ValueIterator extends HashIterator implements Iterator<V> {
+        @Override
+        public V next() {
+            return nextNode().val;
+        }
+    }
+
+    final class EntryIterator extends HashIterator implements Iterator<Entry<K, V>> {
+        @Override
+        public Entry<K, V> next() {
+            return nextNode();
+        }
+    }
+
+    /**
+     * 按槽位范围[index, fence)切分的Spliterator, 每次从中间一分为二
+     * 第一次使用时才确定fence与元素数量, 只有没切分过时元素数量是准确的, 此时报告SIZED
+     */
+    abstract static class HashSpliterator<K, V, T> implements Spliterator<T> {
+        final MyHashtable<K, V> map;
+
+        // 当前链表中的下一个节点
+        Node<K, V> current;
+
+        // 下一个要访问的槽位
+        int index;
+
+        // 最后一个槽位 + 1, 为-1表示还没有初始化
+        int fence;
+
+        // 元素数量估计值
+        int est;
+
+        HashSpliterator(MyHashtable<K, V> map, int origin, int fence, int est) {
+            this.map = map;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+        }
+
+        final int getFence() {
+            int hi;
+            if ((hi = fence) < 0) {
+                map.prepareTraversal();
+                Node<K, V>[] tab = map.table;
+                est = map.size;
+                hi = fence = tab == null ? 0 : tab.length;
+            }
+            return hi;
+        }
+
+        abstract T element(Node<K, V> e);
+
+        abstract HashSpliterator<K, V, T> split(int lo, int mid, int est);
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid || current != null) ? null : split(lo, index = mid, est >>>= 1);
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            int hi = getFence(), i = index;
+            Node<K, V>[] tab = map.table;
+            Node<K, V> p = current;
+            index = hi;
+            current = null;
+            if (tab != null && tab.length >= hi && i >= 0 && (i < hi || p != null)) {
+                do {
+                    if (p == null) {
+                        p = tab[i++];
+                    } else {
+                        action.accept(element(p));
+                        p = p.next;
+                    }
+                } while (p != null || i < hi);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            int hi = getFence();
+            Node<K, V>[] tab = map.table;
+            if (tab != null && tab.length >= hi && index >= 0) {
+                while (current != null || index < hi) {
+                    if (current == null) {
+                        current = tab[index++];
+                    } else {
+                        Node<K, V> e = current;
+                        current = e.next;
+                        action.accept(element(e));
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long estimateSize() {
+            getFence();
+            return est;
+        }
+
+        @Override
+        public int characteristics() {
+            return fence < 0 || est == map.size ? SIZED : 0;
+        }
+    }
+
+    static final class KeySpliterator<K, V> extends HashSpliterator<K, V, K> {
+        KeySpliterator(MyHashtable<K, V> map, int origin, int fence, int est) {
+            super(map, origin, fence, est);
+        }
+
+        @Override
+        K element(Node<K, V> e) {
+            return e.key;
+        }
+
+        @Override
+        HashSpliterator<K, V, K> split(int lo, int mid, int est) {
+            return new KeySpliterator<>(map, lo, mid, est);
+        }
+
+        @Override
+        public int characteristics() {
+            return super.characteristics() | DISTINCT;
+        }
+    }
+
+    static final class ValueSpliterator<K, V> extends HashSpliterator<K, V, V> {
+        ValueSpliterator(MyHashtable<K, V> map, int origin, int fence, int est) {
+            super(map, origin, fence, est);
+        }
+
+        @Override
+        V element(Node<K, V> e) {
+            return e.val;
+        }
+
+        @Override
+        HashSpliterator<K, V, V> split(int lo, int mid, int est) {
+            return new ValueSpliterator<>(map, lo, mid, est);
+        }
+    }
+
+    static final class EntrySpliterator<K, V> extends HashSpliterator<K, V, Entry<K, V>> {
+        EntrySpliterator(MyHashtable<K, V> map, int origin, int fence, int est) {
+            super(map, origin, fence, est);
+        }
+
+        @Override
+        Entry<K, V> element(Node<K, V> e) {
+            return e;
+        }
+
+        @Override
+        HashSpliterator<K, V, Entry<K, V>> split(int lo, int mid, int est) {
+            return new EntrySpliterator<>(map, lo, mid, est);
+        }
+
+        @Override
+        public int characteristics() {
+            return super.characteristics() | DISTINCT;
+        }
+    }
+
+    /**
+     * 把当前内容写入快照文件, 格式见MyHashtableSnapshot
+     *
+     * @param path       快照文件
+     * @param keyCodec   key的编码方式
+     * @param valueCodec value的编码方式
+     */
+    public void snapshotTo(Path path, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        prepareTraversal();
+        MyHashtableSnapshot.write(table, size, loadFactor, path, keyCodec, valueCodec);
+    }
+
+    /**
+     * 通过内存映射打开快照文件, 打开时不读取元素, get直接在映射上查找
+     * 第一次写操作时才把快照完整加载为普通的table
+     */
+    public static <K, V> MyHashtable<K, V> openSnapshot(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        MyHashtableSnapshot<K, V> snapshot = MyHashtableSnapshot.open(path, keyCodec, valueCodec);
+        MyHashtable<K, V> map = new MyHashtable<>(snapshot.loadFactor);
+        map.snapshot = snapshot;
+        map.size = snapshot.size;
+        return map;
+    }
+
+    /**
+     * 把快照加载为table, 快照中的槽位布局与hash都直接沿用
+     */
+    private void materialize() {
+        MyHashtableSnapshot<K, V> snap = snapshot;
+        snapshot = null;
+        table = snap.materialize();
+        size = snap.size;
+        if (table != null) {
+            float ft = table.length * loadFactor;
+            threshold = (table.length < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+        }
     }
 
     static final int hash(Object key) {
@@ -382,5 +1436,57 @@ public class MyHashtable<K, V> implements Map<K, V> {
                 throw new Exception();
             }
         }
+
+        // 批量操作, 元素数量达到阈值时并行执行
+        final MyHashtable<Integer, Integer> bulkMap = new MyHashtable<>();
+        for (int i = 0; i < 100000; i++) {
+            bulkMap.put(i, i);
+        }
+        System.out.println(bulkMap.mapReduce(1, (k, v) -> (long) v, Long::sum)); // 4999950000
+        System.out.println(bulkMap.reduceValues(Long.MAX_VALUE, Math::max)); // 99999
+        final Integer found = bulkMap.search(1, (k, v) -> v == 4242 ? k : null);
+        System.out.println(found); // 4242
+
+        // 并行构建, 与依次put的结果相同
+        final List<Map.Entry<Integer, Integer>> rows = new ArrayList<>();
+        final Random random = new Random();
+        for (int i = 0; i < 2000000; i++) {
+            rows.add(new AbstractMap.SimpleImmutableEntry<>(random.nextInt(1000000), i));
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            final MyHashtable<Integer, Integer> sequential = new MyHashtable<>();
+            for (Map.Entry<Integer, Integer> e : rows) {
+                sequential.put(e.getKey(), e.getValue());
+            }
+            long t1 = System.nanoTime() - start;
+            start = System.nanoTime();
+            final MyHashtable<Integer, Integer> built = parallelBuild(rows.parallelStream(), ForkJoinPool.getCommonPoolParallelism() * 8);
+            long t2 = System.nanoTime() - start;
+            if (built.size() != sequential.size()) {
+                throw new Exception("size");
+            }
+            for (Map.Entry<Integer, Integer> e : sequential.entrySet()) {
+                if (!Objects.equals(e.getValue(), built.get(e.getKey()))) {
+                    throw new Exception("value");
+                }
+            }
+            System.out.printf("build %d rows: put %dms, parallelBuild %dms%n", rows.size(), t1 / 1000000, t2 / 1000000);
+        }
+
+        // 运行时加上 -Dcom.lcw.datastructure.hash.stats=true, 配合 -XX:StartFlightRecording 可以看到JFR事件
+        if (HashTableStats.ENABLED) {
+            final MyHashtable<Integer, Integer> statsMap = new MyHashtable<>();
+            final HashTableStats stats = statsMap.enableStats();
+            for (int i = 0; i < 100000; i++) {
+                // 只用低4位的hash, 制造长链表
+                statsMap.put(i & ~0xF0, i);
+                statsMap.get(i);
+            }
+            System.out.println(stats);
+            System.out.println(Arrays.toString(stats.walkHistogram()));
+            System.out.println(Arrays.toString(statsMap.chainLengthHistogram()));
+            stats.loadFactorTimeline().forEach(System.out::println);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,248 @@
+package com.lcw.datastructure.hash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * MyHashtable的二进制快照, 读取时通过FileChannel.map映射到内存, 不需要反序列化整个文件
+ * <p>
+ * 文件格式(大端序):
+ * <pre>
+ * | magic int | version int | capacity int | size int | loadFactor float |
+ * | 槽位偏移表 long[capacity + 1], 槽位i的元素位于元素区的 [offsets[i], offsets[i + 1]) |
+ * | 元素区: 按槽位顺序排列, 每个元素为 hash int | keyLen int | key | valLen int | val |, 长度为-1表示null |
+ * </pre>
+ * hash和槽位布局都是预先算好的, 查找时直接定位槽位, 转换回MyHashtable时也不需要重新计算hash
+ */
+final class MyHashtableSnapshot<K, V> {
+
+    static final int MAGIC = 0x4D485453; // "MHTS"
+
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 20;
+
+    // 单个MappedByteBuffer最大2G, 按1G分段映射
+    static final int CHUNK_SHIFT = 30;
+
+    static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    final MappedByteBuffer[] chunks;
+
+    final int capacity;
+
+    final int size;
+
+    final float loadFactor;
+
+    // 元素区起始位置
+    final long entriesStart;
+
+    final Codec<K> keyCodec;
+
+    final Codec<V> valueCodec;
+
+    private MyHashtableSnapshot(MappedByteBuffer[] chunks, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        this.chunks = chunks;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        if (chunks.length == 0 || chunks[0].capacity() < HEADER_BYTES || readInt(0) != MAGIC) {
+            throw new IOException("Not a MyHashtable snapshot");
+        }
+        if (readInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version: " + readInt(4));
+        }
+        this.capacity = readInt(8);
+        this.size = readInt(12);
+        this.loadFactor = Float.intBitsToFloat(readInt(16));
+        this.entriesStart = HEADER_BYTES + 8L * (capacity + 1);
+    }
+
+    /**
+     * 把table按槽位顺序写入文件
+     * 偏移表和元素区都是顺序产生的, 分别用一个缓冲区顺序写到各自的位置, 不需要在内存中保存整个偏移表
+     */
+    static <K, V> void write(MyHashtable.Node<K, V>[] tab, int size, float loadFactor, Path path,
+                             Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        int cap = tab == null ? 0 : tab.length;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .putInt(MAGIC).putInt(VERSION).putInt(cap).putInt(size).putFloat(loadFactor);
+            flush(ch, header, 0);
+
+            ByteBuffer offBuf = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+            ByteBuffer entBuf = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+            long offPos = HEADER_BYTES;
+            long entPos = HEADER_BYTES + 8L * (cap + 1);
+            long rel = 0;
+            for (int i = 0; i < cap; i++) {
+                if (!offBuf.hasRemaining()) {
+                    offPos = flush(ch, offBuf, offPos);
+                }
+                offBuf.putLong(rel);
+                for (MyHashtable.Node<K, V> e = tab[i]; e != null; e = e.next) {
+                    byte[] kb = e.key == null ? null : keyCodec.encode(e.key);
+                    byte[] vb = e.val == null ? null : valueCodec.encode(e.val);
+                    int len = 12 + (kb == null ? 0 : kb.length) + (vb == null ? 0 : vb.length);
+                    if (entBuf.remaining() < len) {
+                        entPos = flush(ch, entBuf, entPos);
+                    }
+                    // 单个元素比缓冲区还大时单独分配
+                    ByteBuffer buf = len <= entBuf.capacity() ? entBuf : ByteBuffer.allocate(len);
+                    buf.putInt(e.hash);
+                    putBytes(buf, kb);
+                    putBytes(buf, vb);
+                    if (buf != entBuf) {
+                        entPos = flush(ch, buf, entPos);
+                    }
+                    rel += len;
+                }
+            }
+            if (!offBuf.hasRemaining()) {
+                offPos = flush(ch, offBuf, offPos);
+            }
+            offBuf.putLong(rel);
+            flush(ch, offBuf, offPos);
+            flush(ch, entBuf, entPos);
+        }
+    }
+
+    private static void putBytes(ByteBuffer buf, byte[] bytes) {
+        if (bytes == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static long flush(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+        buf.clear();
+        return pos;
+    }
+
+    static <K, V> MyHashtableSnapshot<K, V> open(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            int n = (int) ((fileSize + CHUNK_MASK) >>> CHUNK_SHIFT);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_MASK + 1, fileSize - start));
+            }
+            // 映射建立后关闭channel不影响映射
+            return new MyHashtableSnapshot<>(chunks, keyCodec, valueCodec);
+        }
+    }
+
+    private byte readByte(long pos) {
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].get((int) (pos & CHUNK_MASK));
+    }
+
+    private int readInt(long pos) {
+        int off = (int) (pos & CHUNK_MASK);
+        if (off <= CHUNK_MASK - 3) {
+            return chunks[(int) (pos >>> CHUNK_SHIFT)].getInt(off);
+        }
+        // 跨越分段边界, 逐字节读取
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            v = (v << 8) | (readByte(pos + i) & 0xFF);
+        }
+        return v;
+    }
+
+    private long readLong(long pos) {
+        int off = (int) (pos & CHUNK_MASK);
+        if (off <= CHUNK_MASK - 7) {
+            return chunks[(int) (pos >>> CHUNK_SHIFT)].getLong(off);
+        }
+        return ((long) readInt(pos) << 32) | (readInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+    private byte[] readBytes(long pos, int len) {
+        byte[] dst = new byte[len];
+        int done = 0;
+        while (done < len) {
+            MappedByteBuffer chunk = chunks[(int) ((pos + done) >>> CHUNK_SHIFT)];
+            int off = (int) ((pos + done) & CHUNK_MASK);
+            int n = Math.min(len - done, chunk.capacity() - off);
+            chunk.get(off, dst, done, n);
+            done += n;
+        }
+        return dst;
+    }
+
+    private <T> T decode(Codec<T> codec, long pos, int len) {
+        return len < 0 ? null : codec.decode(readBytes(pos, len));
+    }
+
+    /**
+     * 直接在映射内存上查找, 只有hash相等时才会解码key
+     */
+    MyHashtable.Node<K, V> getNode(Object key) {
+        if (capacity == 0) {
+            return null;
+        }
+        int hash = MyHashtable.hash(key);
+        int i = hash & (capacity - 1);
+        long pos = entriesStart + readLong(HEADER_BYTES + 8L * i);
+        long end = entriesStart + readLong(HEADER_BYTES + 8L * (i + 1));
+        while (pos < end) {
+            int h = readInt(pos);
+            int keyLen = readInt(pos + 4);
+            long valPos = pos + 8 + Math.max(keyLen, 0);
+            int valLen = readInt(valPos);
+            if (h == hash) {
+                K k = decode(keyCodec, pos + 8, keyLen);
+                if (Objects.equals(key, k)) {
+                    return new MyHashtable.Node<>(h, k, decode(valueCodec, valPos + 4, valLen), null);
+                }
+            }
+            pos = valPos + 4 + Math.max(valLen, 0);
+        }
+        return null;
+    }
+
+    /**
+     * 顺序读取整个元素区, 按原来的槽位布局重建table
+     */
+    MyHashtable.Node<K, V>[] materialize() {
+        if (capacity == 0) {
+            return null;
+        }
+        MyHashtable.Node<K, V>[] tab = MyHashtable.newTable(capacity);
+        long pos = entriesStart;
+        for (int i = 0; i < capacity; i++) {
+            long end = entriesStart + readLong(HEADER_BYTES + 8L * (i + 1));
+            MyHashtable.Node<K, V> tail = null;
+            while (pos < end) {
+                int h = readInt(pos);
+                int keyLen = readInt(pos + 4);
+                long valPos = pos + 8 + Math.max(keyLen, 0);
+                int valLen = readInt(valPos);
+                MyHashtable.Node<K, V> e = new MyHashtable.Node<>(h, decode(keyCodec, pos + 8, keyLen),
+                        decode(valueCodec, valPos + 4, valLen), null);
+                if (tail == null) {
+                    tab[i] = e;
+                } else {
+                    tail.next = e;
+                }
+                tail = e;
+                pos = valPos + 4 + Math.max(valLen, 0);
+            }
+        }
+        return tab;
+    }
+}
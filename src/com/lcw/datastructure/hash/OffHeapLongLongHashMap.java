@@ -0,0 +1,366 @@
+package com.lcw.datastructure.hash;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 堆外的long-long容器, 数据存放在直接内存(DirectByteBuffer)中, 堆上只有固定的几个字段
+ * <p>
+ * 结构与LongLongHashMap相同: 开放寻址(线性探测), 容量为2的n次幂, key为0的元素单独存放
+ * 每个槽位16字节(8字节key + 8字节value), 单个ByteBuffer最大2G, 所以按页分配
+ * 用完后必须调用close()释放直接内存
+ */
+public class OffHeapLongLongHashMap implements AutoCloseable {
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75F;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    // 每个槽位的字节数
+    static final int SLOT_BYTES = 16;
+
+    // 每页 1 << PAGE_SHIFT 个槽位, 即256M
+    static final int PAGE_SHIFT = 24;
+
+    static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    ByteBuffer[] pages;
+
+    int capacity;
+
+    int size;
+
+    // 扩容阈值 = 容量 * 负载因子
+    int threshold;
+
+    // 负载因子
+    final float loadFactor;
+
+    // key为0的元素是否存在
+    boolean hasZeroKey;
+
+    long zeroValue;
+
+    public OffHeapLongLongHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public OffHeapLongLongHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public OffHeapLongLongHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        allocate(LongLongHashMap.tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, (long) Math.ceil(initialCapacity / loadFactor))));
+    }
+
+    private void allocate(int cap) {
+        int pageSlots = Math.min(cap, 1 << PAGE_SHIFT);
+        ByteBuffer[] ps = new ByteBuffer[(cap + pageSlots - 1) / pageSlots];
+        for (int i = 0; i < ps.length; i++) {
+            // allocateDirect分配的内存已经清零, 即所有槽位都是空的
+            ps[i] = ByteBuffer.allocateDirect(pageSlots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        }
+        pages = ps;
+        capacity = cap;
+        float ft = cap * loadFactor;
+        threshold = (cap < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+    }
+
+    private static long keyAt(ByteBuffer[] ps, int i) {
+        return ps[i >>> PAGE_SHIFT].getLong((i & PAGE_MASK) * SLOT_BYTES);
+    }
+
+    private static long valueAt(ByteBuffer[] ps, int i) {
+        return ps[i >>> PAGE_SHIFT].getLong((i & PAGE_MASK) * SLOT_BYTES + 8);
+    }
+
+    private static void setSlot(ByteBuffer[] ps, int i, long key, long value) {
+        ByteBuffer p = ps[i >>> PAGE_SHIFT];
+        int off = (i & PAGE_MASK) * SLOT_BYTES;
+        p.putLong(off, key);
+        p.putLong(off + 8, value);
+    }
+
+    private static void setValue(ByteBuffer[] ps, int i, long value) {
+        ps[i >>> PAGE_SHIFT].putLong((i & PAGE_MASK) * SLOT_BYTES + 8, value);
+    }
+
+    private ByteBuffer[] pages() {
+        ByteBuffer[] ps;
+        if ((ps = pages) == null) {
+            throw new IllegalStateException("Map already closed");
+        }
+        return ps;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : indexOf(pages(), key) >= 0;
+    }
+
+    /**
+     * 获取key对应的value, 不存在返回0
+     */
+    public long get(long key) {
+        return getOrDefault(key, 0);
+    }
+
+    public long getOrDefault(long key, long defaultValue) {
+        ByteBuffer[] ps = pages();
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int i = indexOf(ps, key);
+        return i >= 0 ? valueAt(ps, i) : defaultValue;
+    }
+
+    /**
+     * 查找key所在的槽位, key不能为0
+     *
+     * @return 槽位索引, 不存在返回-1
+     */
+    private int indexOf(ByteBuffer[] ps, long key) {
+        int mask = capacity - 1;
+        long k;
+        for (int i = LongLongHashMap.hash(key) & mask; (k = keyAt(ps, i)) != 0; i = (i + 1) & mask) {
+            if (k == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 存入key-value
+     *
+     * @return 之前的value, 不存在返回0
+     */
+    public long put(long key, long value) {
+        ByteBuffer[] ps = pages();
+        if (key == 0) {
+            long oldValue = hasZeroKey ? zeroValue : 0;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return oldValue;
+        }
+        int mask = capacity - 1;
+        int i = LongLongHashMap.hash(key) & mask;
+        long k;
+        while ((k = keyAt(ps, i)) != 0) {
+            if (k == key) {
+                long oldValue = valueAt(ps, i);
+                setValue(ps, i, value);
+                return oldValue;
+            }
+            i = (i + 1) & mask;
+        }
+        setSlot(ps, i, key, value);
+        if (++size > threshold) {
+            resize();
+        }
+        return 0;
+    }
+
+    /**
+     * 删除key
+     *
+     * @return 被删除的value, 不存在返回0
+     */
+    public long remove(long key) {
+        ByteBuffer[] ps = pages();
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return 0;
+            }
+            long oldValue = zeroValue;
+            hasZeroKey = false;
+            zeroValue = 0;
+            size--;
+            return oldValue;
+        }
+        int i = indexOf(ps, key);
+        if (i < 0) {
+            return 0;
+        }
+        long oldValue = valueAt(ps, i);
+        shiftKeys(ps, i);
+        size--;
+        return oldValue;
+    }
+
+    /**
+     * 删除槽位pos后, 把后面同一探测序列上的元素往前挪, 与LongLongHashMap.shiftKeys相同
+     */
+    private void shiftKeys(ByteBuffer[] ps, int pos) {
+        int mask = capacity - 1;
+        int last, slot;
+        long k;
+        while (true) {
+            pos = ((last = pos) + 1) & mask;
+            while (true) {
+                if ((k = keyAt(ps, pos)) == 0) {
+                    setSlot(ps, last, 0, 0);
+                    return;
+                }
+                slot = LongLongHashMap.hash(k) & mask;
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            setSlot(ps, last, k, valueAt(ps, pos));
+        }
+    }
+
+    /**
+     * 重新分配两倍大小的直接内存, 搬运数据后立即释放旧内存
+     */
+    private void resize() {
+        ByteBuffer[] oldPages = pages;
+        int oldCap = capacity;
+        if (oldCap >= MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+        allocate(oldCap << 1);
+        ByteBuffer[] ps = pages;
+        int mask = capacity - 1;
+        for (int j = 0; j < oldCap; j++) {
+            long k;
+            if ((k = keyAt(oldPages, j)) != 0) {
+                int i = LongLongHashMap.hash(k) & mask;
+                while (keyAt(ps, i) != 0) {
+                    i = (i + 1) & mask;
+                }
+                setSlot(ps, i, k, valueAt(oldPages, j));
+            }
+        }
+        free(oldPages);
+    }
+
+    public void clear() {
+        ByteBuffer[] ps = pages();
+        if (size > 0) {
+            size = 0;
+            hasZeroKey = false;
+            zeroValue = 0;
+            for (ByteBuffer p : ps) {
+                for (int off = 0, n = p.capacity(); off < n; off += 8) {
+                    p.putLong(off, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * 遍历所有key-value, 不装箱
+     */
+    public void forEach(LongLongHashMap.LongLongConsumer action) {
+        Objects.requireNonNull(action);
+        ByteBuffer[] ps = pages();
+        if (hasZeroKey) {
+            action.accept(0, zeroValue);
+        }
+        for (int i = 0; i < capacity; i++) {
+            long k;
+            if ((k = keyAt(ps, i)) != 0) {
+                action.accept(k, valueAt(ps, i));
+            }
+        }
+    }
+
+    /**
+     * 已分配的直接内存字节数
+     */
+    public long offHeapBytes() {
+        return pages == null ? 0 : (long) capacity * SLOT_BYTES;
+    }
+
+    /**
+     * 立即释放直接内存, 之后再访问会抛出IllegalStateException
+     */
+    @Override
+    public void close() {
+        ByteBuffer[] ps = pages;
+        if (ps != null) {
+            pages = null;
+            size = 0;
+            hasZeroKey = false;
+            free(ps);
+        }
+    }
+
+    // sun.misc.Unsafe.invokeCleaner, 用于主动释放DirectByteBuffer, 拿不到时只能等GC回收
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static void free(ByteBuffer[] ps) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        for (ByteBuffer p : ps) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, p);
+            } catch (ReflectiveOperationException ignored) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (OffHeapLongLongHashMap map = new OffHeapLongLongHashMap()) {
+            final int n = 1000000;
+            for (long i = 0; i < n; i++) {
+                map.put(i * 31, i);
+            }
+            for (long i = 0; i < n; i += 2) {
+                map.remove(i * 31);
+            }
+            for (long i = 0; i < n; i++) {
+                if (map.containsKey(i * 31) != (i % 2 == 1) || (i % 2 == 1 && map.get(i * 31) != i)) {
+                    throw new Exception("key: " + i * 31);
+                }
+            }
+            System.out.println("size: " + map.size() + ", off-heap bytes: " + map.offHeapBytes());
+        }
+    }
+}
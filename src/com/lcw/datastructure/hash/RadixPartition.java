@@ -0,0 +1,129 @@
+package com.lcw.datastructure.hash;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 在ForkJoinPool上并行做基数分区, MyHashtable.parallelBuild与ops.ParallelHashOps共用
+ * <p>
+ * 分三步: 按块计算hash并统计每块落到各个分区的数量, 顺序前缀和, 每块按前缀和把元素分散到各分区的连续区间.
+ * 分散时移动什么由调用方的Scatter决定: 分区p占据目标位置[bounds[p], bounds[p + 1]), 同一分区内保持原来的顺序
+ */
+public final class RadixPartition {
+
+    // 每个线程平均分到的块数
+    static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * 按原下标保存的hash
+     */
+    public final int[] hashes;
+
+    /**
+     * 分区p的元素被分散到[bounds[p], bounds[p + 1])中
+     */
+    public final int[] bounds;
+
+    private RadixPartition(int[] hashes, int[] bounds) {
+        this.hashes = hashes;
+        this.bounds = bounds;
+    }
+
+    /**
+     * 第三步中把下标为from、hash为hash的元素放到目标位置to, 同一个to只会调用一次
+     */
+    @FunctionalInterface
+    public interface Scatter {
+        void move(int from, int to, int hash);
+    }
+
+    /**
+     * @param n           元素数量
+     * @param parts       分区数量
+     * @param hashOf      计算下标为i的元素的hash, 在各块中并行调用
+     * @param partitionOf 由hash计算分区号, 结果在[0, parts)中
+     * @param scatter     按块并行调用, 顺序读取元素, 写到各分区的目标位置
+     */
+    public static RadixPartition of(int n, int parts, IntUnaryOperator hashOf, IntUnaryOperator partitionOf,
+                                    Scatter scatter) {
+        final int chunks = Math.max(1, Math.min(n, Math.max(parts, ForkJoinPool.getCommonPoolParallelism() * TASKS_PER_THREAD)));
+        final int chunkSize = (n + chunks - 1) / chunks;
+        final int[] hashes = new int[n];
+        final int[][] offsets = new int[chunks][parts];
+
+        // 1. 计算hash, 统计每块中各分区的元素数量
+        invoke(chunks, c -> {
+            final int[] count = offsets[c];
+            for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                int h = hashOf.applyAsInt(i);
+                hashes[i] = h;
+                count[partitionOf.applyAsInt(h)]++;
+            }
+        });
+        // 2. 前缀和, 块c在分区p中的元素从offsets[c][p]开始
+        final int[] bounds = new int[parts + 1];
+        int sum = 0;
+        for (int p = 0; p < parts; p++) {
+            bounds[p] = sum;
+            for (int c = 0; c < chunks; c++) {
+                int count = offsets[c][p];
+                offsets[c][p] = sum;
+                sum += count;
+            }
+        }
+        bounds[parts] = sum;
+
+        // 3. 分散到各分区
+        invoke(chunks, c -> {
+            final int[] offset = offsets[c];
+            for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                int h = hashes[i];
+                scatter.move(i, offset[partitionOf.applyAsInt(h)]++, h);
+            }
+        });
+        return new RadixPartition(hashes, bounds);
+    }
+
+    /**
+     * 在commonPool上对[0, count)中的每个下标并行执行action, 全部执行完才返回
+     */
+    public static void invoke(int count, IntConsumer action) {
+        ForkJoinPool.commonPool().invoke(new IndexTask(0, count, action));
+    }
+
+    /**
+     * 对[lo, hi)中的每个下标执行action, 每个下标是一个叶子任务
+     */
+    static final class IndexTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int lo, hi;
+        final IntConsumer action;
+
+        IndexTask(int lo, int hi, IntConsumer action) {
+            this.lo = lo;
+            this.hi = hi;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= 1) {
+                if (lo < hi) {
+                    action.accept(lo);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            IndexTask right = new IndexTask(mid, hi, action);
+            right.fork();
+            new IndexTask(lo, mid, action).compute();
+            right.join();
+        }
+    }
+}
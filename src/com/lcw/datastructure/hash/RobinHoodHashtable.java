@@ -0,0 +1,533 @@
+package com.lcw.datastructure.hash;
+
+import com.lcw.datastructure.WriteThroughEntry;
+
+import java.util.*;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 开放寻址法(Robin Hood)的k-v容器实现
+ * <p>
+ * key、value、hash分别存放在三个平行数组中, 没有Node对象, 也不需要追next指针
+ * 插入时探测距离短的元素给探测距离长的元素让位("劫富济贫"), 使得各元素的探测长度趋于平均
+ * 删除时把后面的元素整体前移(backward shift), 不需要墓碑标记
+ */
+public class RobinHoodHashtable<K, V> implements Map<K, V> {
+
+    // 代替null key存放在keys数组中, keys[i] == null 表示槽位为空
+    static final Object NULL_KEY = new Object();
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75F;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    Object[] keys;
+
+    Object[] vals;
+
+    // 缓存每个槽位上key的hash值, 探测时先比较hash, 扩容时也不需要重新计算
+    int[] hashes;
+
+    int size;
+
+    // 扩容阈值 = 容量 * 负载因子
+    int threshold;
+
+    // 负载因子
+    final float loadFactor;
+
+    public RobinHoodHashtable() {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    public RobinHoodHashtable(float loadFactor) {
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+    }
+
+    static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    /**
+     * 槽位i上元素的探测距离, 即距离它理想位置有多远
+     */
+    private static int probeDistance(int hash, int i, int mask) {
+        return (i - (hash & mask)) & mask;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Object[] ks = keys;
+        if (ks != null && size > 0) {
+            for (int i = 0; i < ks.length; i++) {
+                if (ks[i] != null && Objects.equals(value, vals[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? (V) vals[i] : null;
+    }
+
+    /**
+     * 查找key所在的槽位
+     *
+     * @return 槽位索引, 不存在返回-1
+     */
+    int indexOf(Object key) {
+        Object[] ks;
+        if ((ks = keys) == null || size == 0) {
+            return -1;
+        }
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        int hash = MyHashtable.hash(key);
+        Object k = maskNull(key);
+        for (int i = hash & mask, dist = 0; ; i = (i + 1) & mask, dist++) {
+            Object sk = ks[i];
+            // 遇到空槽位, 或者当前元素的探测距离比要找的还短(要找的元素如果存在早就把它挤走了), 说明不存在
+            if (sk == null || probeDistance(hs[i], i, mask) < dist) {
+                return -1;
+            }
+            if (hs[i] == hash && (sk == k || k.equals(sk))) {
+                return i;
+            }
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putVal(MyHashtable.hash(key), key, value, false);
+    }
+
+    /**
+     * 将给定key-val存入map
+     *
+     * @param hash         key的hash值
+     * @param key          key
+     * @param val          val
+     * @param onlyIfAbsent 为true表示只有在不存在的时候才存入map
+     */
+    @SuppressWarnings("unchecked")
+    private V putVal(int hash, K key, V val, boolean onlyIfAbsent) {
+        if (keys == null) {
+            resize();
+        }
+        Object[] ks = keys;
+        Object[] vs = vals;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        Object k = maskNull(key);
+        int i = hash & mask, dist = 0;
+        // 先查找是否已经存在, 同时找到第一个可以"劫富"的位置
+        while (true) {
+            Object sk = ks[i];
+            if (sk == null || probeDistance(hs[i], i, mask) < dist) {
+                break;
+            }
+            if (hs[i] == hash && (sk == k || k.equals(sk))) {
+                V oldVal = (V) vs[i];
+                if (!onlyIfAbsent) {
+                    vs[i] = val;
+                }
+                return oldVal;
+            }
+            i = (i + 1) & mask;
+            dist++;
+        }
+        // 新元素, 达到扩容阈值时先扩容再重新定位
+        if (size + 1 > threshold && ks.length < MAXIMUM_CAPACITY) {
+            resize();
+            insert(hash, k, val);
+        } else {
+            insertAt(i, hash, k, val);
+        }
+        size++;
+        return null;
+    }
+
+    /**
+     * 插入一个确定不存在的元素
+     */
+    private void insert(int hash, Object k, Object val) {
+        int mask = keys.length - 1;
+        int i = hash & mask, dist = 0;
+        while (keys[i] != null && probeDistance(hashes[i], i, mask) >= dist) {
+            i = (i + 1) & mask;
+            dist++;
+        }
+        insertAt(i, hash, k, val);
+    }
+
+    /**
+     * 从槽位i开始放入元素, 被挤走的元素继续向后寻找位置, 直到遇到空槽位
+     */
+    private void insertAt(int i, int hash, Object k, Object val) {
+        Object[] ks = keys;
+        Object[] vs = vals;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        if (size >= ks.length) {
+            throw new IllegalStateException("Table is full");
+        }
+        while (ks[i] != null) {
+            // 当前槽位的元素比要插入的元素"富有"(探测距离短), 交换, 带着被挤走的元素继续探测
+            int th = hs[i];
+            Object tk = ks[i];
+            Object tv = vs[i];
+            hs[i] = hash;
+            ks[i] = k;
+            vs[i] = val;
+            hash = th;
+            k = tk;
+            val = tv;
+            int dist = probeDistance(hash, i, mask);
+            do {
+                i = (i + 1) & mask;
+                dist++;
+            } while (ks[i] != null && probeDistance(hs[i], i, mask) >= dist);
+        }
+        hs[i] = hash;
+        ks[i] = k;
+        vs[i] = val;
+    }
+
+    /**
+     * 扩容, 容量保持2的n次幂, 使用缓存的hash重新插入
+     */
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object[] oldVals = vals;
+        int[] oldHashes = hashes;
+        int oldCap = oldKeys == null ? 0 : oldKeys.length;
+        int newCap;
+        if (oldCap == 0) {
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        } else if (oldCap >= MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        } else {
+            newCap = oldCap << 1;
+        }
+        float ft = newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+        keys = new Object[newCap];
+        vals = new Object[newCap];
+        hashes = new int[newCap];
+        for (int i = 0; i < oldCap; i++) {
+            if (oldKeys[i] != null) {
+                insert(oldHashes[i], oldKeys[i], oldVals[i]);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        V oldVal = (V) vals[i];
+        removeAt(i);
+        return oldVal;
+    }
+
+    /**
+     * 删除槽位i上的元素, 把后面探测距离 > 0 的元素依次前移一格
+     */
+    private void removeAt(int i) {
+        Object[] ks = keys;
+        Object[] vs = vals;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        int next = (i + 1) & mask;
+        while (ks[next] != null && probeDistance(hs[next], next, mask) > 0) {
+            ks[i] = ks[next];
+            vs[i] = vs[next];
+            hs[i] = hs[next];
+            i = next;
+            next = (next + 1) & mask;
+        }
+        ks[i] = null;
+        vs[i] = null; // help gc
+        hs[i] = 0;
+        size--;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (keys != null && size > 0) {
+            size = 0;
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+            Arrays.fill(hashes, 0);
+        }
+    }
+
+    /**
+     * 最长探测距离, 用于与拉链法对比
+     */
+    public int maxProbeLength() {
+        int max = 0;
+        if (keys != null) {
+            int mask = keys.length - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    max = Math.max(max, probeDistance(hashes[i], i, mask));
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 平均探测距离
+     */
+    public double averageProbeLength() {
+        if (keys == null || size == 0) {
+            return 0;
+        }
+        long total = 0;
+        int mask = keys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                total += probeDistance(hashes[i], i, mask);
+            }
+        }
+        return (double) total / size;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new SlotIterator<K>() {
+                    @Override
+                    K element(int i) {
+                        return unmaskNull(keys[i]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                int i = indexOf(o);
+                if (i < 0) {
+                    return false;
+                }
+                removeAt(i);
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                RobinHoodHashtable.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    V element(int i) {
+                        return (V) vals[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                RobinHoodHashtable.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<Entry<K, V>> iterator() {
+                return new SlotIterator<Entry<K, V>>() {
+                    @Override
+                    Entry<K, V> element(int i) {
+                        return new WriteThroughEntry<>(RobinHoodHashtable.this, unmaskNull(keys[i]), (V) vals[i]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                RobinHoodHashtable.this.clear();
+            }
+        };
+    }
+
+    /**
+     * 从某个空槽位的下一个位置开始, 循环遍历一圈
+     * <p>
+     * 连续的非空槽位不会跨过起点, backward shift只会把 当前位置之后 的元素往前移,
+     * remove之后从被删除的位置重新向后查找即可, 不会漏掉或重复返回元素
+     * <p>
+     * 遍历期间扩容会换掉数组, 检测到时抛出异常
+     */
+    abstract class SlotIterator<E> implements Iterator<E> {
+        final Object[] ks = keys;
+
+        final int start;
+
+        // 已经扫描过的槽位数
+        int pos;
+
+        int next = -1;
+
+        int last = -1;
+
+        SlotIterator() {
+            int e = 0;
+            if (ks != null) {
+                // 只有达到最大容量时才可能没有空槽位
+                while (e < ks.length - 1 && ks[e] != null) {
+                    e++;
+                }
+                start = (e + 1) & (ks.length - 1);
+                advance();
+            } else {
+                start = 0;
+            }
+        }
+
+        private void advance() {
+            int m = ks.length - 1;
+            while (pos < ks.length) {
+                int i = (start + pos++) & m;
+                if (ks[i] != null) {
+                    next = i;
+                    return;
+                }
+            }
+            next = -1;
+        }
+
+        abstract E element(int i);
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public E next() {
+            if (ks != keys) {
+                throw new ConcurrentModificationException();
+            }
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            E e = element(last = next);
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (ks != keys) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            // 后面的元素可能移到了last, 从last重新查找
+            pos = (last - start) & (ks.length - 1);
+            last = -1;
+            advance();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final RobinHoodHashtable<Integer, Integer> map = new RobinHoodHashtable<>();
+        final Random r = new Random();
+        final Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            int k = r.nextInt(50000);
+            if (r.nextBoolean()) {
+                if (!Objects.equals(map.put(k, i), expected.put(k, i))) throw new Exception("put");
+            } else {
+                if (!Objects.equals(map.remove(k), expected.remove(k))) throw new Exception("remove");
+            }
+        }
+        for (Entry<Integer, Integer> e : expected.entrySet()) {
+            if (!e.getValue().equals(map.get(e.getKey()))) throw new Exception("get");
+        }
+        System.out.println("size: " + map.size() + ", max probe: " + map.maxProbeLength()
+                + ", avg probe: " + map.averageProbeLength());
+    }
+}
@@ -0,0 +1,291 @@
+package com.lcw.datastructure.hash.ops;
+
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * HashAggregate中对每个分组累加的聚合函数
+ * <p>
+ * 中间状态不是每个分组一个对象, 而是HashAggregate按分组编号分配的long[]中从off开始的width()个long,
+ * 所有分组、所有聚合函数的状态都在同一个数组中, 累加时不装箱
+ *
+ * @param <T> 输入行
+ */
+public interface Accumulator<T> {
+
+    /**
+     * 每个分组占用的long数量
+     */
+    int width();
+
+    /**
+     * 分组第一次出现时初始化状态
+     */
+    void init(long[] state, int off);
+
+    void accumulate(long[] state, int off, T row);
+
+    /**
+     * 批量累加, rows中第i行的状态从 bases[i] + off 开始
+     * 默认逐行调用accumulate, 实现类覆盖后每一批只需要一次虚调用, 循环内的mapper调用也更容易内联
+     */
+    @SuppressWarnings("unchecked")
+    default void accumulateAll(long[] state, int[] bases, int off, Object[] rows, int n) {
+        for (int i = 0; i < n; i++) {
+            accumulate(state, bases[i] + off, (T) rows[i]);
+        }
+    }
+
+    /**
+     * 把另一个部分结果合并到state中, 合并并行聚合的结果时使用
+     */
+    void merge(long[] state, int off, long[] other, int otherOff);
+
+    Object result(long[] state, int off);
+
+    /**
+     * 行数, 结果为Long
+     */
+    static <T> Accumulator<T> count() {
+        return new Accumulators.Count<>();
+    }
+
+    /**
+     * 结果为Long
+     */
+    static <T> Accumulator<T> sum(ToLongFunction<? super T> mapper) {
+        return new Accumulators.Sum<>(mapper);
+    }
+
+    static <T> Accumulator<T> min(ToLongFunction<? super T> mapper) {
+        return new Accumulators.Min<>(mapper);
+    }
+
+    static <T> Accumulator<T> max(ToLongFunction<? super T> mapper) {
+        return new Accumulators.Max<>(mapper);
+    }
+
+    /**
+     * 结果为Double, 状态中保存double的二进制位
+     */
+    static <T> Accumulator<T> sumDouble(ToDoubleFunction<? super T> mapper) {
+        return new Accumulators.DoubleSum<>(mapper);
+    }
+
+    /**
+     * 平均值, 结果为Double, 状态为和与行数两个long
+     */
+    static <T> Accumulator<T> average(ToDoubleFunction<? super T> mapper) {
+        return new Accumulators.Average<>(mapper);
+    }
+
+    final class Accumulators {
+        private Accumulators() {
+        }
+
+        /**
+         * 状态为一个long的聚合函数, 每种运算单独一个类, 累加时不再经过LongBinaryOperator的虚调用
+         */
+        abstract static class LongState<T> implements Accumulator<T> {
+            final long identity;
+
+            LongState(long identity) {
+                this.identity = identity;
+            }
+
+            @Override
+            public int width() {
+                return 1;
+            }
+
+            @Override
+            public void init(long[] state, int off) {
+                state[off] = identity;
+            }
+
+            @Override
+            public Object result(long[] state, int off) {
+                return state[off];
+            }
+        }
+
+        static final class Count<T> extends LongState<T> {
+            Count() {
+                super(0L);
+            }
+
+            @Override
+            public void accumulate(long[] state, int off, T row) {
+                state[off]++;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void accumulateAll(long[] state, int[] bases, int off, Object[] rows, int n) {
+                for (int i = 0; i < n; i++) {
+                    state[bases[i] + off]++;
+                }
+            }
+
+            @Override
+            public void merge(long[] state, int off, long[] other, int otherOff) {
+                state[off] += other[otherOff];
+            }
+        }
+
+        static final class Sum<T> extends LongState<T> {
+            final ToLongFunction<? super T> mapper;
+
+            Sum(ToLongFunction<? super T> mapper) {
+                super(0L);
+                this.mapper = mapper;
+            }
+
+            @Override
+            public void accumulate(long[] state, int off, T row) {
+                state[off] += mapper.applyAsLong(row);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void accumulateAll(long[] state, int[] bases, int off, Object[] rows, int n) {
+                for (int i = 0; i < n; i++) {
+                    state[bases[i] + off] += mapper.applyAsLong((T) rows[i]);
+                }
+            }
+
+            @Override
+            public void merge(long[] state, int off, long[] other, int otherOff) {
+                state[off] += other[otherOff];
+            }
+        }
+
+        static final class Min<T> extends LongState<T> {
+            final ToLongFunction<? super T> mapper;
+
+            Min(ToLongFunction<? super T> mapper) {
+                super(Long.MAX_VALUE);
+                this.mapper = mapper;
+            }
+
+            @Override
+            public void accumulate(long[] state, int off, T row) {
+                state[off] = Math.min(state[off], mapper.applyAsLong(row));
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void accumulateAll(long[] state, int[] bases, int off, Object[] rows, int n) {
+                for (int i = 0; i < n; i++) {
+                    int o = bases[i] + off;
+                    state[o] = Math.min(state[o], mapper.applyAsLong((T) rows[i]));
+                }
+            }
+
+            @Override
+            public void merge(long[] state, int off, long[] other, int otherOff) {
+                state[off] = Math.min(state[off], other[otherOff]);
+            }
+        }
+
+        static final class Max<T> extends LongState<T> {
+            final ToLongFunction<? super T> mapper;
+
+            Max(ToLongFunction<? super T> mapper) {
+                super(Long.MIN_VALUE);
+                this.mapper = mapper;
+            }
+
+            @Override
+            public void accumulate(long[] state, int off, T row) {
+                state[off] = Math.max(state[off], mapper.applyAsLong(row));
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void accumulateAll(long[] state, int[] bases, int off, Object[] rows, int n) {
+                for (int i = 0; i < n; i++) {
+                    int o = bases[i] + off;
+                    state[o] = Math.max(state[o], mapper.applyAsLong((T) rows[i]));
+                }
+            }
+
+            @Override
+            public void merge(long[] state, int off, long[] other, int otherOff) {
+                state[off] = Math.max(state[off], other[otherOff]);
+            }
+        }
+
+        static final class DoubleSum<T> implements Accumulator<T> {
+            final ToDoubleFunction<? super T> mapper;
+
+            DoubleSum(ToDoubleFunction<? super T> mapper) {
+                this.mapper = mapper;
+            }
+
+            @Override
+            public int width() {
+                return 1;
+            }
+
+            @Override
+            public void init(long[] state, int off) {
+                state[off] = Double.doubleToRawLongBits(0.0D);
+            }
+
+            @Override
+            public void accumulate(long[] state, int off, T row) {
+                state[off] = Double.doubleToRawLongBits(Double.longBitsToDouble(state[off]) + mapper.applyAsDouble(row));
+            }
+
+            @Override
+            public void merge(long[] state, int off, long[] other, int otherOff) {
+                state[off] = Double.doubleToRawLongBits(Double.longBitsToDouble(state[off]) + Double.longBitsToDouble(other[otherOff]));
+            }
+
+            @Override
+            public Object result(long[] state, int off) {
+                return Double.longBitsToDouble(state[off]);
+            }
+        }
+
+        static final class Average<T> implements Accumulator<T> {
+            final ToDoubleFunction<? super T> mapper;
+
+            Average(ToDoubleFunction<? super T> mapper) {
+                this.mapper = mapper;
+            }
+
+            @Override
+            public int width() {
+                return 2;
+            }
+
+            @Override
+            public void init(long[] state, int off) {
+                state[off] = Double.doubleToRawLongBits(0.0D);
+                state[off + 1] = 0L;
+            }
+
+            @Override
+            public void accumulate(long[] state, int off, T row) {
+                state[off] = Double.doubleToRawLongBits(Double.longBitsToDouble(state[off]) + mapper.applyAsDouble(row));
+                state[off + 1]++;
+            }
+
+            @Override
+            public void merge(long[] state, int off, long[] other, int otherOff) {
+                state[off] = Double.doubleToRawLongBits(Double.longBitsToDouble(state[off]) + Double.longBitsToDouble(other[otherOff]));
+                state[off + 1] += other[otherOff + 1];
+            }
+
+            @Override
+            public Object result(long[] state, int off) {
+                return Double.longBitsToDouble(state[off]) / state[off + 1];
+            }
+        }
+    }
+}
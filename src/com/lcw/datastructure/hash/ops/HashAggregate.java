@@ -0,0 +1,241 @@
+package com.lcw.datastructure.hash.ops;
+
+import com.lcw.datastructure.hash.MyHashtable;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 分组聚合(group by): 按groupKey分组, 对每个分组依次执行各个Accumulator
+ * <p>
+ * KeyIndex把分组key映射为编号, 所有聚合函数的状态按编号放在同一个long[]中,
+ * 分组编号为id时, 第j个聚合函数的状态从 id * width + offsets[j] 开始, 累加时不创建任何对象
+ * <p>
+ * 与SQL相同, key为null的行归为同一个分组
+ *
+ * @param <T> 输入行
+ * @param <K> 分组key
+ */
+public final class HashAggregate<T, K> {
+
+    // addAll每批处理的行数, 先算出一批行的分组, 再对每个聚合函数批量累加
+    static final int BATCH = 256;
+
+    final Function<? super T, ? extends K> groupKey;
+
+    final Accumulator<? super T>[] accumulators;
+
+    // 每个聚合函数的状态在分组中的偏移
+    final int[] offsets;
+
+    // 每个分组占用的long数量
+    final int width;
+
+    final KeyIndex<K> index;
+
+    long[] state;
+
+    // 数组只是原样传给另一个@SafeVarargs构造方法, 那里会复制一份, 与Arrays.asList相同
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public HashAggregate(Function<? super T, ? extends K> groupKey, Accumulator<? super T>... accumulators) {
+        this(groupKey, 0, accumulators);
+    }
+
+    /**
+     * @param expectedGroups 预计的分组数量
+     */
+    @SafeVarargs
+    public HashAggregate(Function<? super T, ? extends K> groupKey, int expectedGroups, Accumulator<? super T>... accumulators) {
+        if (expectedGroups < 0) {
+            throw new IllegalArgumentException("Illegal expected groups: " + expectedGroups);
+        }
+        this.groupKey = Objects.requireNonNull(groupKey);
+        this.accumulators = newAccumulatorArray(accumulators.length);
+        this.offsets = new int[accumulators.length];
+        int w = 0;
+        for (int j = 0; j < accumulators.length; j++) {
+            this.accumulators[j] = accumulators[j];
+            offsets[j] = w;
+            w += accumulators[j].width();
+        }
+        this.width = w;
+        this.index = new KeyIndex<>(expectedGroups);
+        this.state = new long[index.capacity() * w];
+    }
+
+    /**
+     * 泛型数组不能直接创建, 创建通配符数组后强转, 只放入同一类型的聚合函数
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Accumulator<? super T>[] newAccumulatorArray(int n) {
+        return (Accumulator<? super T>[]) new Accumulator<?>[n];
+    }
+
+    public void add(T row) {
+        K key = groupKey.apply(row);
+        add(row, KeyIndex.hash(key), key);
+    }
+
+    public HashAggregate<T, K> addAll(Iterable<? extends T> rows) {
+        final Object[] batch = new Object[BATCH];
+        final int[] bases = new int[BATCH];
+        int n = 0;
+        for (T row : rows) {
+            K key = groupKey.apply(row);
+            batch[n] = row;
+            bases[n] = groupOf(KeyIndex.hash(key), key) * width;
+            if (++n == BATCH) {
+                accumulateAll(batch, bases, n);
+                n = 0;
+            }
+        }
+        accumulateAll(batch, bases, n);
+        return this;
+    }
+
+    /**
+     * 与addAll相同, 行在[lo, hi)中, hash与key已经计算好, ParallelHashOps分区后直接使用
+     */
+    @SuppressWarnings("unchecked")
+    void addAll(Object[] rows, Object[] keys, int[] hashes, int lo, int hi) {
+        final Object[] batch = new Object[BATCH];
+        final int[] bases = new int[BATCH];
+        int n = 0;
+        for (int i = lo; i < hi; i++) {
+            batch[n] = rows[i];
+            bases[n] = groupOf(hashes[i], (K) keys[i]) * width;
+            if (++n == BATCH) {
+                accumulateAll(batch, bases, n);
+                n = 0;
+            }
+        }
+        accumulateAll(batch, bases, n);
+    }
+
+    /**
+     * 批量累加前所有行的分组都已经分配好, state不会再扩容
+     */
+    private void accumulateAll(Object[] batch, int[] bases, int n) {
+        for (int j = 0; j < accumulators.length; j++) {
+            accumulators[j].accumulateAll(state, bases, offsets[j], batch, n);
+        }
+    }
+
+    private void add(T row, int hash, K key) {
+        int base = groupOf(hash, key) * width;
+        Accumulator<? super T>[] as = accumulators;
+        long[] s = state;
+        for (int j = 0; j < as.length; j++) {
+            as[j].accumulate(s, base + offsets[j], row);
+        }
+    }
+
+    /**
+     * 返回分组编号, 新分组会初始化所有聚合函数的状态
+     */
+    private int groupOf(int hash, K key) {
+        int groups = index.size;
+        int id = index.add(hash, key);
+        if (id == groups) {
+            if (state.length < index.capacity() * width) {
+                state = Arrays.copyOf(state, index.capacity() * width);
+            }
+            int base = id * width;
+            for (int j = 0; j < accumulators.length; j++) {
+                accumulators[j].init(state, base + offsets[j]);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * 合并另一个使用相同聚合函数的部分结果
+     */
+    void merge(HashAggregate<T, K> other) {
+        long[] os = other.state;
+        for (int id = 0; id < other.index.size; id++) {
+            int base = groupOf(other.index.hashes[id], other.index.key(id)) * width;
+            int otherBase = id * width;
+            for (int j = 0; j < accumulators.length; j++) {
+                accumulators[j].merge(state, base + offsets[j], os, otherBase + offsets[j]);
+            }
+        }
+    }
+
+    /**
+     * 分组数量
+     */
+    public int size() {
+        return index.size;
+    }
+
+    /**
+     * 返回分组的聚合结果, 按构造时传入的聚合函数顺序排列
+     *
+     * @return 分组不存在返回null
+     */
+    public Object[] get(Object key) {
+        int id = index.find(KeyIndex.hash(key), key);
+        return id < 0 ? null : results(id);
+    }
+
+    private Object[] results(int id) {
+        Object[] r = new Object[accumulators.length];
+        int base = id * width;
+        for (int j = 0; j < r.length; j++) {
+            r[j] = accumulators[j].result(state, base + offsets[j]);
+        }
+        return r;
+    }
+
+    /**
+     * 按分组第一次出现的顺序遍历
+     */
+    public void forEach(BiConsumer<? super K, ? super Object[]> action) {
+        for (int id = 0; id < index.size; id++) {
+            action.accept(index.key(id), results(id));
+        }
+    }
+
+    public static void main(String[] args) {
+        // {商品id, 数量}, 按商品分组求行数、总数量与最大数量
+        final Random random = new Random();
+        final List<int[]> rows = new ArrayList<>();
+        for (int i = 0; i < 3000000; i++) {
+            rows.add(new int[]{random.nextInt(200000), random.nextInt(100)});
+        }
+        for (int round = 0; round < 5; round++) {
+            // 手写的MyHashtable<K, long[]>聚合
+            long start = System.nanoTime();
+            final MyHashtable<Integer, long[]> table = new MyHashtable<>();
+            for (int[] row : rows) {
+                long[] acc = table.get(row[0]);
+                if (acc == null) {
+                    table.put(row[0], acc = new long[]{0L, 0L, Long.MIN_VALUE});
+                }
+                acc[0]++;
+                acc[1] += row[1];
+                acc[2] = Math.max(acc[2], row[1]);
+            }
+            long t1 = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final HashAggregate<int[], Integer> agg = new HashAggregate<int[], Integer>(row -> row[0],
+                    Accumulator.count(), Accumulator.sum(row -> row[1]), Accumulator.max(row -> row[1])).addAll(rows);
+            long t2 = System.nanoTime() - start;
+
+            if (agg.size() != table.size()) throw new VerifyError("size");
+            agg.forEach((k, r) -> {
+                long[] acc = table.get(k);
+                if (!r[0].equals(acc[0]) || !r[1].equals(acc[1]) || !r[2].equals(acc[2])) throw new VerifyError("result");
+            });
+            System.out.printf("aggregate %d rows into %d groups: MyHashtable %dms, HashAggregate %dms%n",
+                    rows.size(), agg.size(), t1 / 1000000, t2 / 1000000);
+        }
+    }
+}
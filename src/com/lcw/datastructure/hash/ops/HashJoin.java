@@ -0,0 +1,224 @@
+package com.lcw.datastructure.hash.ops;
+
+import com.lcw.datastructure.hash.MyHashtable;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 内连接(inner join)的构建/探测: 先把较小的一侧add进来构建多值表, 再用另一侧的每一行probe
+ * <p>
+ * 多值表是紧凑的: KeyIndex把key映射为分组编号, 每行只占rows中的一个位置和next中的一个int,
+ * 同一分组的行用next串起来, head/tail按分组编号保存首尾行, probe时按add的顺序输出
+ * <p>
+ * 与SQL相同, key为null的行不参与连接
+ *
+ * @param <B> 构建侧的行
+ * @param <K> 连接key
+ */
+public final class HashJoin<B, K> {
+
+    // 链表结束
+    static final int NONE = -1;
+
+    final Function<? super B, ? extends K> buildKey;
+
+    final KeyIndex<K> index;
+
+    // 构建侧的行, 按add的顺序存放
+    Object[] rows;
+
+    // 同一分组中的下一行
+    int[] next;
+
+    int rowCount;
+
+    // 每个分组的首行与尾行
+    int[] head;
+
+    int[] tail;
+
+    public HashJoin(Function<? super B, ? extends K> buildKey) {
+        this(buildKey, 0);
+    }
+
+    /**
+     * @param expectedRows 预计构建侧的行数
+     */
+    public HashJoin(Function<? super B, ? extends K> buildKey, int expectedRows) {
+        if (expectedRows < 0) {
+            throw new IllegalArgumentException("Illegal expected rows: " + expectedRows);
+        }
+        this.buildKey = Objects.requireNonNull(buildKey);
+        this.index = new KeyIndex<>(expectedRows);
+        int n = Math.max(expectedRows, KeyIndex.MINIMUM_CAPACITY);
+        this.rows = new Object[n];
+        this.next = new int[n];
+        this.head = new int[index.capacity()];
+        this.tail = new int[index.capacity()];
+    }
+
+    public void add(B row) {
+        K key = buildKey.apply(row);
+        if (key != null) {
+            add(row, KeyIndex.hash(key), key);
+        }
+    }
+
+    public HashJoin<B, K> addAll(Iterable<? extends B> rows) {
+        for (B row : rows) {
+            add(row);
+        }
+        return this;
+    }
+
+    /**
+     * hash与key已经计算好, ParallelHashOps分区后直接使用
+     */
+    void add(B row, int hash, K key) {
+        int n = rowCount;
+        if (n == rows.length) {
+            int newLength = n + (n >> 1);
+            rows = Arrays.copyOf(rows, newLength);
+            next = Arrays.copyOf(next, newLength);
+        }
+        int groups = index.size;
+        int id = index.add(hash, key);
+        if (head.length < index.capacity()) {
+            head = Arrays.copyOf(head, index.capacity());
+            tail = Arrays.copyOf(tail, index.capacity());
+        }
+        rows[n] = row;
+        next[n] = NONE;
+        if (id == groups) {
+            head[id] = n;
+        } else {
+            next[tail[id]] = n;
+        }
+        tail[id] = n;
+        rowCount = n + 1;
+    }
+
+    /**
+     * 构建侧的行数
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * 构建侧不同key的数量
+     */
+    public int keyCount() {
+        return index.size;
+    }
+
+    /**
+     * 按add的顺序遍历与key匹配的构建侧行
+     *
+     * @return 匹配的行数
+     */
+    @SuppressWarnings("unchecked")
+    public int forEachMatch(Object key, Consumer<? super B> action) {
+        if (key == null) {
+            return 0;
+        }
+        int matches = 0;
+        int id = index.find(KeyIndex.hash(key), key);
+        if (id >= 0) {
+            for (int r = head[id]; r != NONE; r = next[r]) {
+                action.accept((B) rows[r]);
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 用探测侧的每一行查找匹配的构建侧行, 每对匹配调用一次output
+     *
+     * @return 输出的行数
+     */
+    public <P> long probe(Iterable<? extends P> probeRows, Function<? super P, ? extends K> probeKey,
+                          BiConsumer<? super B, ? super P> output) {
+        long matches = 0;
+        for (P row : probeRows) {
+            K key = probeKey.apply(row);
+            if (key != null) {
+                matches += probe(row, KeyIndex.hash(key), key, output);
+            }
+        }
+        return matches;
+    }
+
+    @SuppressWarnings("unchecked")
+    <P> int probe(P row, int hash, K key, BiConsumer<? super B, ? super P> output) {
+        int id = index.find(hash, key);
+        if (id < 0) {
+            return 0;
+        }
+        int matches = 0;
+        for (int r = head[id]; r != NONE; r = next[r]) {
+            output.accept((B) rows[r], row);
+            matches++;
+        }
+        return matches;
+    }
+
+    /**
+     * 用build构建, probe探测, 返回combiner合并后的结果, 顺序为探测侧的顺序
+     */
+    public static <B, P, K, R> List<R> join(Iterable<? extends B> build, Function<? super B, ? extends K> buildKey,
+                                            Iterable<? extends P> probe, Function<? super P, ? extends K> probeKey,
+                                            BiFunction<? super B, ? super P, ? extends R> combiner) {
+        final List<R> result = new ArrayList<>();
+        new HashJoin<B, K>(buildKey).addAll(build).probe(probe, probeKey, (b, p) -> result.add(combiner.apply(b, p)));
+        return result;
+    }
+
+    public static void main(String[] args) {
+        // 构建侧: {客户id, 等级}, 探测侧: {客户id, 金额}, 每个客户平均4行
+        final Random random = new Random();
+        final List<int[]> customers = new ArrayList<>();
+        for (int i = 0; i < 500000; i++) {
+            customers.add(new int[]{random.nextInt(125000), random.nextInt(5)});
+        }
+        final List<int[]> orders = new ArrayList<>();
+        for (int i = 0; i < 2000000; i++) {
+            orders.add(new int[]{random.nextInt(250000), random.nextInt(1000)});
+        }
+        for (int round = 0; round < 5; round++) {
+            // 手写的MyHashtable<K, List<B>>连接
+            long start = System.nanoTime();
+            final MyHashtable<Integer, List<int[]>> table = new MyHashtable<>();
+            for (int[] c : customers) {
+                table.computeIfAbsent(c[0], k -> new ArrayList<>()).add(c);
+            }
+            long naive = 0;
+            for (int[] o : orders) {
+                final List<int[]> matches = table.get(o[0]);
+                if (matches != null) {
+                    for (int[] c : matches) {
+                        naive += (long) c[1] * o[1];
+                    }
+                }
+            }
+            long t1 = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final long[] sum = new long[1];
+            new HashJoin<int[], Integer>(c -> c[0]).addAll(customers)
+                    .probe(orders, o -> o[0], (c, o) -> sum[0] += (long) c[1] * o[1]);
+            long t2 = System.nanoTime() - start;
+            if (sum[0] != naive) throw new VerifyError("join");
+            System.out.printf("join %d x %d rows: MyHashtable %dms, HashJoin %dms%n",
+                    customers.size(), orders.size(), t1 / 1000000, t2 / 1000000);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.lcw.datastructure.hash.ops;
+
+import java.util.Arrays;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * 把不同的key映射为从0开始连续的分组编号, HashJoin与HashAggregate按编号把数据放在平行数组中
+ * <p>
+ * 与IntObjectHashMap一样用线性探测, 槽位中保存 编号 + 1, 0表示空槽位;
+ * 分组的key和hash按编号顺序存放, 数组长度等于扩容阈值, 不创建Node
+ */
+final class KeyIndex<K> {
+
+    static final float LOAD_FACTOR = 0.75F;
+
+    static final int MINIMUM_CAPACITY = 16;
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    int[] slots;
+
+    // 槽位数量 - 1
+    int mask;
+
+    // 按编号存放的key与hash
+    Object[] keys;
+
+    int[] hashes;
+
+    // 分组数量, 也是下一个分组的编号
+    int size;
+
+    KeyIndex(int expectedSize) {
+        float ft = expectedSize / LOAD_FACTOR + 1.0F;
+        allocate(tableSizeFor(ft < MAXIMUM_CAPACITY ? (int) ft : MAXIMUM_CAPACITY));
+    }
+
+    static int tableSizeFor(int cap) {
+        int n = -1 >>> Integer.numberOfLeadingZeros(Math.max(cap, MINIMUM_CAPACITY) - 1);
+        return n >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /**
+     * 线性探测对连续的hashCode很敏感, 先乘黄金分割常数打散, 再高低位异或
+     * 分区时使用hash的高位, 探测时使用低位
+     */
+    static int hash(Object key) {
+        int h = key == null ? 0 : key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int cap) {
+        slots = new int[cap];
+        mask = cap - 1;
+        int n = (int) (cap * LOAD_FACTOR);
+        keys = keys == null ? new Object[n] : Arrays.copyOf(keys, n);
+        hashes = hashes == null ? new int[n] : Arrays.copyOf(hashes, n);
+    }
+
+    /**
+     * 分组数组的长度, 超过后需要扩容
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return key的编号, 不存在返回-1
+     */
+    int find(int hash, Object key) {
+        int[] s = slots;
+        int m = mask;
+        Object k;
+        for (int i = hash & m, id; (id = s[i] - 1) >= 0; i = (i + 1) & m) {
+            if (hashes[id] == hash && ((k = keys[id]) == key || (key != null && key.equals(k)))) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 返回key的编号, 不存在时分配新编号, 调用方可以用返回值是否等于调用前的size判断是否是新分组
+     */
+    int add(int hash, K key) {
+        int[] s = slots;
+        int m = mask;
+        int i = hash & m;
+        Object k;
+        for (int id; (id = s[i] - 1) >= 0; i = (i + 1) & m) {
+            if (hashes[id] == hash && ((k = keys[id]) == key || (key != null && key.equals(k)))) {
+                return id;
+            }
+        }
+        if (size == keys.length) {
+            resize();
+            i = emptySlot(hash);
+        }
+        int id = size++;
+        keys[id] = key;
+        hashes[id] = hash;
+        slots[i] = id + 1;
+        return id;
+    }
+
+    private int emptySlot(int hash) {
+        int[] s = slots;
+        int m = mask;
+        int i = hash & m;
+        while (s[i] != 0) {
+            i = (i + 1) & m;
+        }
+        return i;
+    }
+
+    /**
+     * 槽位数量翻倍, 分组编号不变, 只需要用保存的hash重新放置槽位
+     */
+    private void resize() {
+        if (slots.length == MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Capacity exceeded");
+        }
+        allocate(slots.length << 1);
+        for (int id = 0; id < size; id++) {
+            slots[emptySlot(hashes[id])] = id + 1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    K key(int id) {
+        return (K) keys[id];
+    }
+}
@@ -0,0 +1,214 @@
+package com.lcw.datastructure.hash.ops;
+
+import com.lcw.datastructure.hash.RadixPartition;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * @author liuchongwei
+ * @email lcwliuchongwei@qq.com
+ * @date 2022-03-14
+ * HashJoin与HashAggregate的并行版本, 在ForkJoinPool上执行, 全部在内存中完成, 不落盘
+ * <p>
+ * 先按key的hash高位把输入基数分区, 相同key一定落在同一个分区, 所以每个分区可以独立构建自己的表:
+ * 连接时两侧用相同的分区规则, 只需要连接编号相同的分区; 聚合时各分区的分组互不重叠, 合并时只是追加
+ * <p>
+ * 分区与MyHashtable.parallelBuild共用RadixPartition, 分三步: 按块计算hash并统计直方图, 前缀和, 按块分散到各分区的连续区间
+ */
+public final class ParallelHashOps {
+
+    private ParallelHashOps() {
+    }
+
+    /**
+     * 并行内连接, 结果的顺序不确定
+     *
+     * @param partitions 分区数量, 向上取整为2的n次幂, 一般取并行度的若干倍
+     */
+    public static <B, P, K, R> List<R> join(Collection<? extends B> build, Function<? super B, ? extends K> buildKey,
+                                            Collection<? extends P> probe, Function<? super P, ? extends K> probeKey,
+                                            BiFunction<? super B, ? super P, ? extends R> combiner, int partitions) {
+        Objects.requireNonNull(combiner);
+        final int parts = partitionsFor(partitions);
+        final Partitions left = partition(build.toArray(), buildKey, parts);
+        final Partitions right = partition(probe.toArray(), probeKey, parts);
+        final List<R>[] outputs = newListArray(parts);
+        RadixPartition.invoke(parts, p -> {
+            final HashJoin<B, K> join = new HashJoin<>(buildKey, left.bounds[p + 1] - left.bounds[p]);
+            for (int i = left.bounds[p], end = left.bounds[p + 1]; i < end; i++) {
+                if (left.keys[i] != null) {
+                    join.add(left.row(i), left.hashes[i], left.key(i));
+                }
+            }
+            final List<R> out = new ArrayList<>();
+            for (int i = right.bounds[p], end = right.bounds[p + 1]; i < end; i++) {
+                if (right.keys[i] != null) {
+                    join.probe(right.<P>row(i), right.hashes[i], right.<K>key(i), (b, r) -> out.add(combiner.apply(b, r)));
+                }
+            }
+            outputs[p] = out;
+        });
+        int total = 0;
+        for (List<R> out : outputs) {
+            total += out.size();
+        }
+        final List<R> result = new ArrayList<>(total);
+        for (List<R> out : outputs) {
+            result.addAll(out);
+        }
+        return result;
+    }
+
+    /**
+     * 并行分组聚合, 结果中分组的遍历顺序不确定
+     *
+     * @param partitions 分区数量, 向上取整为2的n次幂, 一般取并行度的若干倍
+     */
+    // accumulators只原样传给HashAggregate的@SafeVarargs构造方法
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public static <T, K> HashAggregate<T, K> aggregate(Collection<? extends T> rows, Function<? super T, ? extends K> groupKey,
+                                                       int partitions, Accumulator<? super T>... accumulators) {
+        final int parts = partitionsFor(partitions);
+        final Partitions in = partition(rows.toArray(), groupKey, parts);
+        final HashAggregate<T, K>[] aggs = newAggregateArray(parts);
+        RadixPartition.invoke(parts, p -> {
+            final HashAggregate<T, K> agg = new HashAggregate<>(groupKey, accumulators);
+            agg.addAll(in.rows, in.keys, in.hashes, in.bounds[p], in.bounds[p + 1]);
+            aggs[p] = agg;
+        });
+        // 各分区的分组互不重叠, 合并只是按编号追加, 代价与分组数量成正比, 与行数无关
+        int groups = 0;
+        for (HashAggregate<T, K> agg : aggs) {
+            groups += agg.size();
+        }
+        final HashAggregate<T, K> result = new HashAggregate<>(groupKey, groups, accumulators);
+        for (HashAggregate<T, K> agg : aggs) {
+            result.merge(agg);
+        }
+        return result;
+    }
+
+    /**
+     * 泛型数组不能直接创建, 创建通配符数组后强转, 数组只在内部使用, 不会放入其他类型的元素
+     */
+    @SuppressWarnings("unchecked")
+    static <R> List<R>[] newListArray(int n) {
+        return (List<R>[]) new List<?>[n];
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T, K> HashAggregate<T, K>[] newAggregateArray(int n) {
+        return (HashAggregate<T, K>[]) new HashAggregate<?, ?>[n];
+    }
+
+    static int partitionsFor(int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Illegal partitions: " + partitions);
+        }
+        return Integer.highestOneBit(Math.min(partitions, 1 << 16) * 2 - 1);
+    }
+
+    /**
+     * hash的高bits位作为分区号
+     */
+    static int partitionOf(int hash, int bits) {
+        return bits == 0 ? 0 : hash >>> (32 - bits);
+    }
+
+    /**
+     * 分区后的输入, 分区p的行在[bounds[p], bounds[p + 1])中, 同一分区内保持原来的顺序
+     */
+    static final class Partitions {
+        final Object[] rows;
+
+        final Object[] keys;
+
+        final int[] hashes;
+
+        final int[] bounds;
+
+        Partitions(Object[] rows, Object[] keys, int[] hashes, int[] bounds) {
+            this.rows = rows;
+            this.keys = keys;
+            this.hashes = hashes;
+            this.bounds = bounds;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T row(int i) {
+            return (T) rows[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        <K> K key(int i) {
+            return (K) keys[i];
+        }
+    }
+
+    /**
+     * 行、key、hash一起分散到各分区, 之后按分区顺序读取都是连续的
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Partitions partition(Object[] rows, Function<? super T, ?> keyOf, int parts) {
+        final int n = rows.length;
+        final int bits = Integer.numberOfTrailingZeros(parts);
+        final Object[] keys = new Object[n];
+        final Object[] partRows = new Object[n];
+        final Object[] partKeys = new Object[n];
+        final int[] partHashes = new int[n];
+        final RadixPartition part = RadixPartition.of(n, parts, i -> {
+            Object key = keyOf.apply((T) rows[i]);
+            keys[i] = key;
+            return KeyIndex.hash(key);
+        }, h -> partitionOf(h, bits), (i, j, h) -> {
+            partRows[j] = rows[i];
+            partKeys[j] = keys[i];
+            partHashes[j] = h;
+        });
+        return new Partitions(partRows, partKeys, partHashes, part.bounds);
+    }
+
+    public static void main(String[] args) {
+        final int partitions = ForkJoinPool.getCommonPoolParallelism() * 8;
+        final Random random = new Random();
+        final List<int[]> customers = new ArrayList<>();
+        for (int i = 0; i < 500000; i++) {
+            customers.add(new int[]{random.nextInt(125000), random.nextInt(5)});
+        }
+        final List<int[]> orders = new ArrayList<>();
+        for (int i = 0; i < 2000000; i++) {
+            orders.add(new int[]{random.nextInt(250000), random.nextInt(1000)});
+        }
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            final List<Long> sequential = HashJoin.join(customers, c -> c[0], orders, o -> o[0], (c, o) -> (long) c[1] * o[1]);
+            long t1 = System.nanoTime() - start;
+            start = System.nanoTime();
+            final List<Long> parallel = join(customers, c -> c[0], orders, o -> o[0], (c, o) -> (long) c[1] * o[1], partitions);
+            long t2 = System.nanoTime() - start;
+            long s1 = 0, s2 = 0;
+            for (long v : sequential) s1 += v;
+            for (long v : parallel) s2 += v;
+            if (sequential.size() != parallel.size() || s1 != s2) throw new VerifyError("join");
+
+            start = System.nanoTime();
+            final HashAggregate<int[], Integer> agg = new HashAggregate<int[], Integer>(o -> o[0],
+                    Accumulator.count(), Accumulator.sum(o -> o[1])).addAll(orders);
+            long t3 = System.nanoTime() - start;
+            start = System.nanoTime();
+            final HashAggregate<int[], Integer> parallelAgg = aggregate(orders, o -> o[0], partitions,
+                    Accumulator.count(), Accumulator.sum(o -> o[1]));
+            long t4 = System.nanoTime() - start;
+            if (agg.size() != parallelAgg.size()) throw new VerifyError("groups");
+            agg.forEach((k, r) -> {
+                if (!Arrays.equals(r, parallelAgg.get(k))) throw new VerifyError("aggregate");
+            });
+            System.out.printf("parallelism %d: join HashJoin %dms, parallel %dms; aggregate HashAggregate %dms, parallel %dms%n",
+                    ForkJoinPool.getCommonPoolParallelism(), t1 / 1000000, t2 / 1000000, t3 / 1000000, t4 / 1000000);
+        }
+    }
+}